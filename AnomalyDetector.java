@@ -0,0 +1,485 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Watches the coin and sales streams of one vending machine for the patterns that fraud and jams leave: bursts of
+ * high denominations, storms of rejected coins, and stock leaving the machine without revenue. It keeps constant
+ * memory however long the machine runs.
+ *
+ * <p>Each stream is counted in buckets of a few seconds. When a bucket closes, its count is compared with an
+ * exponentially weighted moving average of the buckets before it: a count that many standard deviations above
+ * the average raises an alert, and the count then joins the average. The last minute of buckets is kept for
+ * rolling rates. A sale that took stock but brought in no revenue raises an alert at once.
+ *
+ * <p>Recording an event reads the clock and adds to a counter, and never waits: the thread that crosses a bucket
+ * boundary closes the bucket if no other thread is already doing so. Alerts are handed to the listener on a
+ * thread shared by every machine, and dropped rather than queued without bound if the listener falls behind.
+ * {@link #main} measures the cost per event against {@link #OVERHEAD_BUDGET_NANOS}.
+ */
+public class AnomalyDetector {
+    /** The smallest coin counted as a high denomination, in pesos. */
+    public static final int HIGH_DENOMINATION = 500;
+    /** The most an event may cost the thread that records it, on average, in nanoseconds. */
+    public static final long OVERHEAD_BUDGET_NANOS = 200;
+
+    private static final long DEFAULT_BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final double DEFAULT_Z_THRESHOLD = 4.0;
+    private static final double DEFAULT_SMOOTHING = 0.05;
+    private static final int WINDOW_BUCKETS = 6;
+    private static final int WARM_UP_BUCKETS = 12;
+    // Idle buckets beyond this barely move the average, so a long quiet spell costs no more than this many
+    private static final int MAX_IDLE_BUCKETS = 64;
+    private static final int RECENT_ALERT_LIMIT = 16;
+    private static final int PENDING_ALERT_LIMIT = 1024;
+
+    /**
+     * The streams the detector watches.
+     */
+    public enum Metric {
+        /** The amount of valid coins inserted, in centavos. */
+        AMOUNT_INSERTED(5000, 100_000),
+        /** The number of coins of {@link #HIGH_DENOMINATION} pesos or more. */
+        HIGH_DENOMINATION_COINS(1, 5),
+        /** The number of coins rejected as invalid. */
+        REJECTED_COINS(1, 5),
+        /** The number of units sold. */
+        UNITS_SOLD(1, 10),
+        /** The revenue of the units sold, in centavos. */
+        REVENUE(5000, 100_000),
+        /** The number of units taken out of stock by lowering a quantity rather than by a sale. */
+        STOCK_REMOVED(1, 5);
+
+        private final double minDeviation;
+        private final long minObserved;
+
+        Metric(double minDeviation, long minObserved) {
+            this.minDeviation = minDeviation;
+            this.minObserved = minObserved;
+        }
+    }
+
+    /**
+     * Receives the alerts of a detector, on the shared alert thread.
+     */
+    public interface Listener {
+        /**
+         * Receives one alert.
+         *
+         * @param alert The alert.
+         */
+        void alert(Alert alert);
+    }
+
+    /**
+     * Represents one anomaly.
+     */
+    public static final class Alert {
+        /**
+         * The kinds of anomaly.
+         */
+        public enum Kind {
+            /** A bucket of a metric far above its moving average. */
+            BURST,
+            /** A sale that took stock but brought in no revenue. */
+            SALE_WITHOUT_REVENUE
+        }
+
+        private final Kind kind;
+        private final Metric metric;
+        private final long observed;
+        private final double baseline;
+        private final double zScore;
+        private final long timeMillis;
+
+        Alert(Kind kind, Metric metric, long observed, double baseline, double zScore, long timeMillis) {
+            this.kind = kind;
+            this.metric = metric;
+            this.observed = observed;
+            this.baseline = baseline;
+            this.zScore = zScore;
+            this.timeMillis = timeMillis;
+        }
+
+        /**
+         * Retrieves the kind of anomaly.
+         *
+         * @return The kind.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Retrieves the metric that burst.
+         *
+         * @return The metric; {@link Metric#UNITS_SOLD} for a sale without revenue.
+         */
+        public Metric getMetric() {
+            return metric;
+        }
+
+        /**
+         * Retrieves the value that raised the alert: the bucket's count, or the units of the sale.
+         *
+         * @return The value.
+         */
+        public long getObserved() {
+            return observed;
+        }
+
+        /**
+         * Retrieves the moving average the bucket was compared with.
+         *
+         * @return The average per bucket; 0 for a sale without revenue.
+         */
+        public double getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Retrieves how many standard deviations the bucket was above the average.
+         *
+         * @return The z-score; 0 for a sale without revenue.
+         */
+        public double getZScore() {
+            return zScore;
+        }
+
+        /**
+         * Retrieves when the anomaly was seen.
+         *
+         * @return The time, in milliseconds since the epoch.
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            if (kind == Kind.SALE_WITHOUT_REVENUE) {
+                return observed + " units sold without revenue";
+            }
+            return String.format("%s burst: %d against an average of %.1f (z = %.1f)", metric, observed, baseline,
+                    zScore);
+        }
+    }
+
+    // One thread delivers the alerts of every machine, so a fleet does not cost a thread per machine
+    private static final class Delivery {
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PENDING_ALERT_LIMIT), runnable -> {
+                    Thread thread = new Thread(runnable, "vending-anomaly-alerts");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final long bucketMillis;
+    private final double zThreshold;
+    private final double smoothing;
+    private final AtomicLongArray current;
+    private final ReentrantLock rollLock;
+    private volatile long currentBucket;
+    // Guarded by rollLock
+    private final long[] window;
+    private final double[] means;
+    private final double[] variances;
+    private long closedBuckets;
+    // Guarded by itself, so an alert raised on the purchase path never waits for a bucket to close
+    private final Alert[] recentAlerts;
+    private int alertCount;
+    private final AtomicLong droppedAlerts;
+    private volatile Listener listener;
+
+    /**
+     * Constructs a new detector with 10-second buckets that alerts 4 standard deviations above an average of
+     * about the last 20 buckets.
+     */
+    public AnomalyDetector() {
+        this(DEFAULT_BUCKET_MILLIS, DEFAULT_Z_THRESHOLD, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * Constructs a new detector.
+     *
+     * @param bucketMillis The length of a bucket, in milliseconds.
+     * @param zThreshold   How many standard deviations above the average a bucket must be to raise an alert.
+     * @param smoothing    The weight of each new bucket in the moving average, between 0 and 1.
+     */
+    public AnomalyDetector(long bucketMillis, double zThreshold, double smoothing) {
+        if (bucketMillis <= 0 || zThreshold <= 0) {
+            throw new IllegalArgumentException("The bucket length and threshold must be positive.");
+        }
+        if (smoothing <= 0 || smoothing >= 1) {
+            throw new IllegalArgumentException("The smoothing must be between 0 and 1.");
+        }
+        this.bucketMillis = bucketMillis;
+        this.zThreshold = zThreshold;
+        this.smoothing = smoothing;
+        this.current = new AtomicLongArray(METRICS.length);
+        this.rollLock = new ReentrantLock();
+        this.currentBucket = System.currentTimeMillis() / bucketMillis;
+        this.window = new long[METRICS.length * WINDOW_BUCKETS];
+        this.means = new double[METRICS.length];
+        this.variances = new double[METRICS.length];
+        this.recentAlerts = new Alert[RECENT_ALERT_LIMIT];
+        this.droppedAlerts = new AtomicLong();
+    }
+
+    /**
+     * Updates the listener that receives the alerts.
+     *
+     * @param listener The listener, or null to only keep the recent alerts.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records a batch of coins a customer inserted.
+     *
+     * @param amountCents           The amount of the valid coins, in centavos.
+     * @param highDenominationCoins The number of coins of {@link #HIGH_DENOMINATION} pesos or more.
+     * @param rejectedCoins         The number of coins rejected as invalid.
+     */
+    public void recordCoins(long amountCents, int highDenominationCoins, int rejectedCoins) {
+        long now = System.currentTimeMillis();
+        add(Metric.AMOUNT_INSERTED, amountCents, now);
+        add(Metric.HIGH_DENOMINATION_COINS, highDenominationCoins, now);
+        add(Metric.REJECTED_COINS, rejectedCoins, now);
+    }
+
+    /**
+     * Records a sale.
+     *
+     * @param units        The number of units that left the stock.
+     * @param revenueCents The revenue of the sale, in centavos.
+     */
+    public void recordSale(int units, long revenueCents) {
+        long now = System.currentTimeMillis();
+        add(Metric.UNITS_SOLD, units, now);
+        add(Metric.REVENUE, revenueCents, now);
+        if (units > 0 && revenueCents <= 0) {
+            raise(new Alert(Alert.Kind.SALE_WITHOUT_REVENUE, Metric.UNITS_SOLD, units, 0, 0, now));
+        }
+    }
+
+    /**
+     * Records units taken out of stock other than by a sale, e.g. a quantity set lower by hand.
+     *
+     * @param units The number of units.
+     */
+    public void recordStockRemoved(int units) {
+        add(Metric.STOCK_REMOVED, units, System.currentTimeMillis());
+    }
+
+    /**
+     * Retrieves the rate of a metric over the last minute of closed buckets.
+     *
+     * @param metric The metric.
+     * @return The rate, per minute.
+     */
+    public double getRatePerMinute(Metric metric) {
+        roll(System.currentTimeMillis() / bucketMillis, true);
+        rollLock.lock();
+        try {
+            long sum = 0;
+            int base = metric.ordinal() * WINDOW_BUCKETS;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                sum += window[base + i];
+            }
+            return sum * (double) TimeUnit.MINUTES.toMillis(1) / (WINDOW_BUCKETS * bucketMillis);
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the moving average of a metric.
+     *
+     * @param metric The metric.
+     * @return The average per bucket.
+     */
+    public double getBaseline(Metric metric) {
+        rollLock.lock();
+        try {
+            return means[metric.ordinal()];
+        } finally {
+            rollLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the most recent alerts, e.g. for the maintenance screen.
+     *
+     * @return Up to the last 16 alerts, oldest first.
+     */
+    public List<Alert> getRecentAlerts() {
+        synchronized (recentAlerts) {
+            List<Alert> alerts = new ArrayList<>(RECENT_ALERT_LIMIT);
+            for (int i = Math.max(0, alertCount - RECENT_ALERT_LIMIT); i < alertCount; i++) {
+                alerts.add(recentAlerts[i % RECENT_ALERT_LIMIT]);
+            }
+            return alerts;
+        }
+    }
+
+    /**
+     * Retrieves the number of alerts not handed to the listener because too many were waiting.
+     *
+     * @return The number of alerts.
+     */
+    public long getDroppedAlertCount() {
+        return droppedAlerts.get();
+    }
+
+    // The hot path: a volatile read and an atomic add; closing a bucket is left to one thread
+    void add(Metric metric, long amount, long nowMillis) {
+        long bucket = nowMillis / bucketMillis;
+        if (bucket > currentBucket) {
+            roll(bucket, false);
+        }
+        if (amount != 0) {
+            current.addAndGet(metric.ordinal(), amount);
+        }
+    }
+
+    private void roll(long bucket, boolean wait) {
+        if (wait) {
+            rollLock.lock();
+        } else if (!rollLock.tryLock()) {
+            return; // Another thread is closing the bucket; an event racing it counts in the next one
+        }
+        List<Alert> raised = null;
+        try {
+            long closing = currentBucket;
+            if (bucket <= closing) {
+                return;
+            }
+            for (Metric metric : METRICS) {
+                long observed = current.getAndSet(metric.ordinal(), 0);
+                Alert alert = close(metric, closing, observed, bucket * bucketMillis);
+                if (alert != null) {
+                    raised = raised == null ? new ArrayList<>(2) : raised;
+                    raised.add(alert);
+                }
+            }
+            closedBuckets++;
+            long idle = Math.min(bucket - closing - 1, MAX_IDLE_BUCKETS);
+            for (long i = 1; i <= idle; i++) {
+                for (Metric metric : METRICS) {
+                    close(metric, closing + i, 0, bucket * bucketMillis);
+                }
+                closedBuckets++;
+            }
+            currentBucket = bucket;
+        } finally {
+            rollLock.unlock();
+        }
+        if (raised != null) {
+            for (Alert alert : raised) {
+                raise(alert);
+            }
+        }
+    }
+
+    // Guarded by rollLock
+    private Alert close(Metric metric, long bucket, long observed, long nowMillis) {
+        int m = metric.ordinal();
+        window[m * WINDOW_BUCKETS + (int) (bucket % WINDOW_BUCKETS)] = observed;
+        double mean = means[m];
+        Alert alert = null;
+        if (closedBuckets >= WARM_UP_BUCKETS && observed >= metric.minObserved) {
+            double zScore = (observed - mean) / Math.max(Math.sqrt(variances[m]), metric.minDeviation);
+            if (zScore >= zThreshold) {
+                alert = new Alert(Alert.Kind.BURST, metric, observed, mean, zScore, nowMillis);
+            }
+        }
+        // Exponentially weighted mean and variance, updated in one step. The first buckets are weighted as a plain
+        // average instead, or the variance would start near 0 and the warm-up would end in false alarms.
+        double weight = Math.max(smoothing, 1.0 / (closedBuckets + 1));
+        double difference = observed - mean;
+        double increment = weight * difference;
+        means[m] = mean + increment;
+        variances[m] = (1 - weight) * (variances[m] + difference * increment);
+        return alert;
+    }
+
+    private void raise(Alert alert) {
+        synchronized (recentAlerts) {
+            recentAlerts[alertCount % RECENT_ALERT_LIMIT] = alert;
+            alertCount++;
+        }
+        Listener target = listener;
+        if (target != null) {
+            try {
+                Delivery.EXECUTOR.execute(() -> target.alert(alert));
+            } catch (RejectedExecutionException e) {
+                droppedAlerts.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Measures what recording an event costs the recording thread, on one thread and on every processor at once,
+     * and compares it with {@link #OVERHEAD_BUDGET_NANOS}. The exit status is 1 if the budget is exceeded.
+     *
+     * @param args The number of events per thread, 5 million if not given.
+     * @throws InterruptedException If the measurement is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        AnomalyDetector warmUp = new AnomalyDetector(1, DEFAULT_Z_THRESHOLD, DEFAULT_SMOOTHING);
+        measure(warmUp, 1, events);
+
+        boolean withinBudget = true;
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads : processors > 1 ? new int[] { 1, processors } : new int[] { 1 }) {
+            // 10 ms buckets, so the measurement includes closing a bucket every few thousand events
+            AnomalyDetector detector = new AnomalyDetector(10, DEFAULT_Z_THRESHOLD, DEFAULT_SMOOTHING);
+            double nanosPerEvent = measure(detector, threads, events);
+            withinBudget &= nanosPerEvent <= OVERHEAD_BUDGET_NANOS;
+            System.out.printf("%2d threads: %6.1f ns per event (budget %d ns)%n", threads, nanosPerEvent,
+                    OVERHEAD_BUDGET_NANOS);
+        }
+        if (!withinBudget) {
+            System.exit(1);
+        }
+    }
+
+    private static double measure(AnomalyDetector detector, int threads, int events) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long[] elapsed = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers[t] = new Thread(() -> {
+                long started = System.nanoTime();
+                for (int i = 0; i < events; i++) {
+                    if ((i & 1) == 0) {
+                        detector.recordSale(1, 6500);
+                    } else {
+                        detector.recordCoins(10_000, 0, (i & 63) == 0 ? 1 : 0);
+                    }
+                }
+                elapsed[worker] = System.nanoTime() - started;
+            });
+            workers[t].start();
+        }
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += elapsed[t];
+        }
+        return (double) total / ((long) threads * events);
+    }
+}
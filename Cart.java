@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a customer's cart of regular and special purchase items that are checked out together.
+ * Adding the same item twice increases the quantity of its existing line.
+ */
+public class Cart {
+    /**
+     * The kinds of item a cart line can refer to.
+     */
+    public enum Kind {
+        REGULAR, SPECIAL_PURCHASE
+    }
+
+    /**
+     * Represents one item and the quantity ordered of it.
+     */
+    public static final class Line {
+        private final Kind kind;
+        private final int index;
+        private final int quantity;
+
+        Line(Kind kind, int index, int quantity) {
+            this.kind = kind;
+            this.index = index;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Retrieves whether the line refers to a regular or a special purchase item.
+         *
+         * @return The kind of item.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Retrieves the index of the item in the vending machine.
+         *
+         * @return The item index.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Retrieves the quantity ordered.
+         *
+         * @return The quantity.
+         */
+        public int getQuantity() {
+            return quantity;
+        }
+    }
+
+    private final List<Line> lines;
+
+    /**
+     * Constructs a new, empty cart.
+     */
+    public Cart() {
+        lines = new ArrayList<>();
+    }
+
+    /**
+     * Adds a regular item to the cart.
+     *
+     * @param index    The index of the regular item.
+     * @param quantity The quantity to add.
+     * @throws IllegalArgumentException If the quantity is not positive, or the line would hold more than a slot.
+     */
+    public void addItem(int index, int quantity) {
+        add(Kind.REGULAR, index, quantity);
+    }
+
+    /**
+     * Adds a special purchase item to the cart.
+     *
+     * @param index    The index of the special purchase item.
+     * @param quantity The quantity to add.
+     * @throws IllegalArgumentException If the quantity is not positive, or the line would hold more than a slot.
+     */
+    public void addSpecialPurchaseItem(int index, int quantity) {
+        add(Kind.SPECIAL_PURCHASE, index, quantity);
+    }
+
+    private void add(Kind kind, int index, int quantity) {
+        if (quantity <= 0 || quantity > VendingMachine.MAX_SLOT_QUANTITY) {
+            throw new IllegalArgumentException("Quantity must be between 1 and " + VendingMachine.MAX_SLOT_QUANTITY
+                    + ": " + quantity);
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (line.kind == kind && line.index == index) {
+                int merged = Math.addExact(line.quantity, quantity);
+                if (merged > VendingMachine.MAX_SLOT_QUANTITY) {
+                    throw new IllegalArgumentException("A line cannot hold more than "
+                            + VendingMachine.MAX_SLOT_QUANTITY + " items: " + merged);
+                }
+                lines.set(i, new Line(kind, index, merged));
+                return;
+            }
+        }
+        lines.add(new Line(kind, index, quantity));
+    }
+
+    /**
+     * Retrieves the lines of the cart in the order they were first added.
+     *
+     * @return An unmodifiable view of the cart lines.
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Checks whether the cart holds no items.
+     *
+     * @return True if the cart is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * Removes every item from the cart.
+     */
+    public void clear() {
+        lines.clear();
+    }
+}
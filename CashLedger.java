@@ -0,0 +1,306 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the money of a vending machine as a double-entry ledger. Every transaction debits and credits accounts
+ * by equal amounts, so the books always balance and every peso can be traced from the customer to the cash box,
+ * the change float or revenue. Amounts are in centavos.
+ *
+ * <p>Postings are spread over striped counters: a transaction is applied whole to the stripe of the posting
+ * thread, so concurrent postings rarely meet on the same lock. This only pays off for postings made outside any
+ * other lock; a {@link VendingMachine} posts inside its write sections and uses a single stripe. Reconciling
+ * reads a fixed number of stripes and accounts, so it takes the same time however many transactions were posted.
+ * Since unbalanced transactions are never posted, the books can only disagree with the cash actually counted.
+ */
+public class CashLedger {
+    /**
+     * The accounts of the ledger.
+     */
+    public enum Account {
+        /** The coins customers paid in, until they are collected. */
+        CASH_BOX(true),
+        /** The money set aside to pay change. */
+        CHANGE_FLOAT(true),
+        /** What the machine owes customers for coins inserted but not yet spent or returned. */
+        CUSTOMER_CREDIT(false),
+        /** The value of the items sold. */
+        REVENUE(false),
+        /** The money the operator put in or took out: the opening float, replenishments and collections. */
+        OPERATOR(false),
+        /** Card and e-wallet sales the payment provider owes, until they are settled. */
+        CASHLESS_RECEIVABLE(true);
+
+        private final boolean debitNormal;
+
+        Account(boolean debitNormal) {
+            this.debitNormal = debitNormal;
+        }
+
+        /**
+         * Retrieves whether the account grows with debits (cash accounts) or with credits (what is owed or earned).
+         *
+         * @return True if debits increase the balance.
+         */
+        public boolean isDebitNormal() {
+            return debitNormal;
+        }
+    }
+
+    private static final int ACCOUNTS = Account.values().length;
+    private static final int STRIPES = stripeCount();
+
+    /**
+     * One set of balances, always updated a whole transaction at a time.
+     */
+    private static final class Stripe {
+        final long[] debitBalances = new long[ACCOUNTS]; // Debits minus credits, per account
+        long transactions;
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Builds a transaction out of debit and credit entries and posts it atomically.
+     */
+    public final class Transaction {
+        private final long[] debits = new long[ACCOUNTS];
+        private long debitTotal;
+        private long creditTotal;
+
+        private Transaction() {
+        }
+
+        /**
+         * Adds a debit entry.
+         *
+         * @param account     The account to debit.
+         * @param amountCents The amount, in centavos.
+         * @return This transaction, for chaining.
+         */
+        public Transaction debit(Account account, long amountCents) {
+            checkAmount(amountCents);
+            debits[account.ordinal()] += amountCents;
+            debitTotal += amountCents;
+            return this;
+        }
+
+        /**
+         * Adds a credit entry.
+         *
+         * @param account     The account to credit.
+         * @param amountCents The amount, in centavos.
+         * @return This transaction, for chaining.
+         */
+        public Transaction credit(Account account, long amountCents) {
+            checkAmount(amountCents);
+            debits[account.ordinal()] -= amountCents;
+            creditTotal += amountCents;
+            return this;
+        }
+
+        /**
+         * Posts every entry of the transaction at once.
+         *
+         * @throws IllegalStateException If the debits and credits do not balance.
+         */
+        public void post() {
+            if (debitTotal != creditTotal) {
+                throw new IllegalStateException("Unbalanced transaction: debits " + debitTotal + ", credits "
+                        + creditTotal + ".");
+            }
+            Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+            synchronized (stripe) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    stripe.debitBalances[i] += debits[i];
+                }
+                stripe.transactions++;
+            }
+        }
+
+        private void checkAmount(long amountCents) {
+            if (amountCents < 0) {
+                throw new IllegalArgumentException("Ledger amounts cannot be negative.");
+            }
+        }
+    }
+
+    /**
+     * Represents the outcome of a reconciliation.
+     */
+    public static final class Reconciliation {
+        private final long[] balances;
+        private final long imbalanceCents;
+        private final long cashDiscrepancyCents;
+        private final long transactions;
+
+        Reconciliation(long[] balances, long imbalanceCents, long cashDiscrepancyCents, long transactions) {
+            this.balances = balances;
+            this.imbalanceCents = imbalanceCents;
+            this.cashDiscrepancyCents = cashDiscrepancyCents;
+            this.transactions = transactions;
+        }
+
+        /**
+         * Retrieves whether the books balance and, if cash was counted, whether it matches the books.
+         *
+         * @return True if the ledger reconciles.
+         */
+        public boolean isReconciled() {
+            return imbalanceCents == 0 && cashDiscrepancyCents == 0;
+        }
+
+        /**
+         * Retrieves the total debits minus the total credits. It is 0 unless the ledger was corrupted.
+         *
+         * @return The imbalance, in centavos.
+         */
+        public long getImbalanceCents() {
+            return imbalanceCents;
+        }
+
+        /**
+         * Retrieves the counted cash minus the cash on the books, or 0 if no cash was counted.
+         *
+         * @return The discrepancy, in centavos; negative if cash is missing.
+         */
+        public long getCashDiscrepancyCents() {
+            return cashDiscrepancyCents;
+        }
+
+        /**
+         * Retrieves the balance of an account at the time of the reconciliation.
+         *
+         * @param account The account.
+         * @return The balance, in centavos, on the account's normal side.
+         */
+        public long getBalanceCents(Account account) {
+            return balances[account.ordinal()];
+        }
+
+        /**
+         * Retrieves the number of transactions posted.
+         *
+         * @return The number of transactions.
+         */
+        public long getTransactions() {
+            return transactions;
+        }
+    }
+
+    /**
+     * Constructs a new ledger with every account at 0, striped for the number of processors.
+     */
+    public CashLedger() {
+        this(STRIPES);
+    }
+
+    /**
+     * Constructs a new ledger with every account at 0. A single stripe suits a ledger whose postings are already
+     * serialized by its owner, and keeps it small.
+     *
+     * @param stripeCount The number of stripes, a power of two.
+     */
+    public CashLedger(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("The stripe count must be a positive power of two.");
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Starts a new transaction. Nothing is posted until {@link Transaction#post()} is called.
+     *
+     * @return The transaction.
+     */
+    public Transaction newTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * Retrieves the balance of an account.
+     *
+     * @param account The account.
+     * @return The balance, in centavos, on the account's normal side.
+     */
+    public long getBalanceCents(Account account) {
+        return getBalances()[account.ordinal()];
+    }
+
+    /**
+     * Retrieves the balances of every account.
+     *
+     * @return The balances, in centavos on each account's normal side, indexed by {@link Account#ordinal()}.
+     */
+    public long[] getBalances() {
+        long[] debitBalances = new long[ACCOUNTS];
+        sumStripes(debitBalances);
+        return toNormalBalances(debitBalances);
+    }
+
+    /**
+     * Checks that the books balance.
+     *
+     * @return The reconciliation.
+     */
+    public Reconciliation reconcile() {
+        long[] debitBalances = new long[ACCOUNTS];
+        long transactions = sumStripes(debitBalances);
+        return new Reconciliation(toNormalBalances(debitBalances), sum(debitBalances), 0, transactions);
+    }
+
+    /**
+     * Checks that the books balance and that the cash counted in the machine matches the cash box and change
+     * float on the books.
+     *
+     * @param countedCashCents The cash counted in the machine, in centavos.
+     * @return The reconciliation.
+     */
+    public Reconciliation reconcile(long countedCashCents) {
+        long[] debitBalances = new long[ACCOUNTS];
+        long transactions = sumStripes(debitBalances);
+        long[] balances = toNormalBalances(debitBalances);
+        long bookCash = balances[Account.CASH_BOX.ordinal()] + balances[Account.CHANGE_FLOAT.ordinal()];
+        return new Reconciliation(balances, sum(debitBalances), countedCashCents - bookCash, transactions);
+    }
+
+    // Each stripe is read under its own lock, so every transaction is either fully in the sum or fully out of it.
+    private long sumStripes(long[] debitBalances) {
+        long transactions = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    debitBalances[i] += stripe.debitBalances[i];
+                }
+                transactions += stripe.transactions;
+            }
+        }
+        return transactions;
+    }
+
+    private static long[] toNormalBalances(long[] debitBalances) {
+        long[] balances = Arrays.copyOf(debitBalances, ACCOUNTS);
+        for (Account account : Account.values()) {
+            if (!account.isDebitNormal()) {
+                balances[account.ordinal()] = -balances[account.ordinal()];
+            }
+        }
+        return balances;
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static int stripeCount() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+        return Math.min(stripes, 64);
+    }
+}
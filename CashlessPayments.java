@@ -0,0 +1,304 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sells carts paid by card or e-wallet through a {@link PaymentProvider}. A checkout first has the cart total
+ * authorized, without holding the machine, and only then sells the cart in one short step like a coin
+ * checkout. Many authorizations can be in flight at once, so a slow authorizer delays the customers waiting on
+ * it but not the sales of anyone else.
+ *
+ * <p>Sold amounts are captured in batches on a background thread, every interval or as soon as a batch is full.
+ * A batch the provider rejects is kept and retried with the next one. An authorization is released if the cart
+ * could not be sold, if it was approved after the customer's checkout had already timed out, or if every unit of
+ * the cart was refunded before its amount was captured.
+ */
+public class CashlessPayments implements Closeable {
+    private static final long DEFAULT_AUTHORIZATION_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_SETTLEMENT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final VendingMachine vendingMachine;
+    private final PaymentProvider provider;
+    private final long authorizationTimeoutMillis;
+    private final int batchSize;
+    private final Queue<CheckoutResult> pendingSales;
+    // The amount still to collect for every sale in pendingSales, lowered by refunds; guarded by itself
+    private final Map<CheckoutResult, PaymentProvider.Capture> pendingCaptures;
+    private final AtomicInteger pendingCount;
+    private final ScheduledExecutorService settlement;
+
+    /**
+     * Constructs a new payment service that waits up to 15 seconds for an authorization and settles up to 50
+     * sales at a time, at least every minute.
+     *
+     * @param vendingMachine The vending machine the carts are sold from.
+     * @param provider       The payment provider.
+     */
+    public CashlessPayments(VendingMachine vendingMachine, PaymentProvider provider) {
+        this(vendingMachine, provider, DEFAULT_AUTHORIZATION_TIMEOUT_MILLIS, DEFAULT_BATCH_SIZE,
+                DEFAULT_SETTLEMENT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructs a new payment service.
+     *
+     * @param vendingMachine             The vending machine the carts are sold from.
+     * @param provider                   The payment provider.
+     * @param authorizationTimeoutMillis How long a checkout waits for the authorization.
+     * @param batchSize                  The most sales captured in one request.
+     * @param settlementIntervalMillis   How often pending sales are captured.
+     */
+    public CashlessPayments(VendingMachine vendingMachine, PaymentProvider provider,
+            long authorizationTimeoutMillis, int batchSize, long settlementIntervalMillis) {
+        if (authorizationTimeoutMillis <= 0 || batchSize <= 0 || settlementIntervalMillis <= 0) {
+            throw new IllegalArgumentException("The timeout, batch size and interval must be positive.");
+        }
+        this.vendingMachine = vendingMachine;
+        this.provider = provider;
+        this.authorizationTimeoutMillis = authorizationTimeoutMillis;
+        this.batchSize = batchSize;
+        this.pendingSales = new ConcurrentLinkedQueue<>();
+        this.pendingCaptures = new IdentityHashMap<>();
+        this.pendingCount = new AtomicInteger();
+        this.settlement = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vending-cashless-settlement");
+            thread.setDaemon(true);
+            return thread;
+        });
+        settlement.scheduleWithFixedDelay(this::settle, settlementIntervalMillis, settlementIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks out a cart paid by card or e-wallet. It returns at once; the future completes on the provider's
+     * thread, so a UI should hand the result back to its own thread.
+     *
+     * @param cart         The cart to check out. It is copied, so it may be cleared right away.
+     * @param paymentToken The token read from the card or wallet.
+     * @return The outcome of the checkout; {@link CheckoutResult.Status#PAYMENT_DECLINED} if the payment was
+     *         declined, failed or timed out.
+     */
+    public CompletableFuture<CheckoutResult> checkout(Cart cart, String paymentToken) {
+        Cart order = copyOf(cart);
+        long amountCents = quote(order);
+        if (amountCents <= 0) {
+            // Empty or unknown items: let the machine explain, no payment needed
+            return CompletableFuture.completedFuture(vendingMachine.checkoutCashless(order, 0));
+        }
+
+        CompletableFuture<PaymentProvider.Authorization> authorization = provider.authorize(paymentToken,
+                amountCents);
+        // Time out a copy, so the provider's late answer still reaches the original and can be released
+        return authorization.copy()
+                .orTimeout(authorizationTimeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((approval, failure) -> {
+                    if (failure != null) {
+                        if (unwrap(failure) instanceof TimeoutException) {
+                            authorization.thenAccept(this::releaseIfApproved);
+                            return declined(amountCents, "The payment timed out. Please try again.");
+                        }
+                        return declined(amountCents, "The payment could not be processed. Please try again.");
+                    }
+                    if (!approval.isApproved()) {
+                        return declined(amountCents, "Payment declined: " + approval.getDeclineReason());
+                    }
+                    return sell(order, approval);
+                });
+    }
+
+    /**
+     * Refunds the units of a cashless sale that could not be dispensed, puts them back in stock and takes the
+     * refund off the amount to capture; the authorization is released if nothing is left to capture. Once the
+     * sale's amount is being captured it can no longer be lowered, so the refund is then left to the operator.
+     *
+     * @param undelivered The units that were not dispensed.
+     * @param sale        The outcome of the checkout that sold them, as returned by {@link #checkout}.
+     * @return The refund: successful if it was taken off the capture, or with status
+     *         {@link CheckoutResult.Status#PAYMENT_DECLINED} if the amount was already captured and nothing changed.
+     * @throws IllegalArgumentException If the sale was not a completed cashless sale, a line was not sold by it,
+     *                                  or the refunds would exceed the units or the amount it sold.
+     */
+    public CheckoutResult refundUndelivered(Cart undelivered, CheckoutResult sale) {
+        if (!sale.isSuccessful() || !sale.isCashless()) {
+            throw new IllegalArgumentException("Only a completed cashless sale can be refunded to the card.");
+        }
+        // Held while the machine refunds, so the capture cannot be sent between the refund and lowering it
+        synchronized (pendingCaptures) {
+            PaymentProvider.Capture capture = pendingCaptures.get(sale);
+            if (capture == null) {
+                return new CheckoutResult(CheckoutResult.Status.PAYMENT_DECLINED, sale.getTotal(), 0.0,
+                        "The payment was already collected; please contact the operator for a refund.");
+            }
+            CheckoutResult refund = vendingMachine.refundUndelivered(undelivered, sale);
+            if (refund.isSuccessful()) {
+                pendingCaptures.put(sale, new PaymentProvider.Capture(capture.getAuthorization(),
+                        capture.getAmountCents() - InventorySnapshot.toCents(refund.getTotal())));
+            }
+            return refund;
+        }
+    }
+
+    /**
+     * Captures every pending sale now instead of at the next interval. It returns at once.
+     */
+    public void settleNow() {
+        settlement.execute(this::settle);
+    }
+
+    /**
+     * Retrieves the number of sold carts whose amount has not been captured yet.
+     *
+     * @return The number of pending captures.
+     */
+    public int getPendingCaptureCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Captures the pending sales, waiting up to 30 seconds for the provider, and stops the settlement thread.
+     */
+    @Override
+    public void close() {
+        try {
+            List<CompletableFuture<Void>> captures = settlement.submit(this::settle).get();
+            CompletableFuture.allOf(captures.toArray(new CompletableFuture<?>[0]))
+                    .get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Whatever was not captured stays on the provider's side as authorized
+        } finally {
+            settlement.shutdown();
+        }
+    }
+
+    private CheckoutResult sell(Cart order, PaymentProvider.Authorization approval) {
+        CheckoutResult result = vendingMachine.checkoutCashless(order, approval.getAmountCents());
+        if (!result.isSuccessful()) {
+            provider.release(approval);
+            return result;
+        }
+        synchronized (pendingCaptures) {
+            pendingCaptures.put(result, new PaymentProvider.Capture(approval,
+                    InventorySnapshot.toCents(result.getTotal())));
+        }
+        pendingSales.add(result);
+        if (pendingCount.incrementAndGet() >= batchSize) {
+            settleNow();
+        }
+        return result;
+    }
+
+    // Runs on the settlement thread only
+    private List<CompletableFuture<Void>> settle() {
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        List<CheckoutResult> batch = new ArrayList<>();
+        CheckoutResult sale;
+        while ((sale = pendingSales.poll()) != null) {
+            batch.add(sale);
+            if (batch.size() == batchSize) {
+                requests.add(capture(batch));
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            requests.add(capture(batch));
+        }
+        return requests;
+    }
+
+    private CompletableFuture<Void> capture(List<CheckoutResult> sales) {
+        pendingCount.addAndGet(-sales.size());
+        List<CheckoutResult> captured = new ArrayList<>();
+        List<PaymentProvider.Capture> batch = new ArrayList<>();
+        List<PaymentProvider.Authorization> refunded = new ArrayList<>();
+        long totalCents = 0;
+        synchronized (pendingCaptures) {
+            for (CheckoutResult sale : sales) {
+                PaymentProvider.Capture capture = pendingCaptures.remove(sale);
+                if (capture.getAmountCents() == 0) {
+                    refunded.add(capture.getAuthorization());
+                } else {
+                    captured.add(sale);
+                    batch.add(capture);
+                    totalCents += capture.getAmountCents();
+                }
+            }
+        }
+        for (PaymentProvider.Authorization authorization : refunded) {
+            provider.release(authorization);
+        }
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long settledCents = totalCents;
+        return provider.capture(batch).whenComplete((unused, failure) -> {
+            if (failure == null) {
+                vendingMachine.settleCashless(settledCents);
+            } else {
+                // Retried with the next settlement, and refundable until then
+                synchronized (pendingCaptures) {
+                    for (int i = 0; i < captured.size(); i++) {
+                        pendingCaptures.put(captured.get(i), batch.get(i));
+                    }
+                }
+                pendingSales.addAll(captured);
+                pendingCount.addAndGet(captured.size());
+            }
+        });
+    }
+
+    private void releaseIfApproved(PaymentProvider.Authorization authorization) {
+        if (authorization.isApproved()) {
+            provider.release(authorization);
+        }
+    }
+
+    private long quote(Cart order) {
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+        long totalCents = 0;
+        for (Cart.Line line : order.getLines()) {
+            CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                    : CatalogFile.Section.SPECIAL_PURCHASE;
+            if (line.getIndex() < 0 || line.getIndex() >= catalog.size(section)
+                    || catalog.getName(section, line.getIndex()) == null) {
+                return 0;
+            }
+            totalCents += InventorySnapshot.toCents(catalog.getPrice(section, line.getIndex())) * line.getQuantity();
+        }
+        return totalCents;
+    }
+
+    private static Cart copyOf(Cart cart) {
+        Cart copy = new Cart();
+        for (Cart.Line line : cart.getLines()) {
+            if (line.getKind() == Cart.Kind.REGULAR) {
+                copy.addItem(line.getIndex(), line.getQuantity());
+            } else {
+                copy.addSpecialPurchaseItem(line.getIndex(), line.getQuantity());
+            }
+        }
+        return copy;
+    }
+
+    private static CheckoutResult declined(long amountCents, String message) {
+        return new CheckoutResult(CheckoutResult.Status.PAYMENT_DECLINED, amountCents / 100.0, 0.0, message);
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure.getCause() != null && !(failure instanceof TimeoutException) ? failure.getCause() : failure;
+    }
+}
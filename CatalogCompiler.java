@@ -0,0 +1,167 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a text catalog into the binary format read by {@link CatalogFile}.
+ *
+ * <p>The text format has one item per line under a section header. Blank lines and lines starting with
+ * {@code #} are ignored. Regular and special purchase items list name, price, calories and quantity;
+ * special items list name and price.</p>
+ *
+ * <pre>
+ * [regular]
+ * Tapsilog, 85, 300, 10
+ * [special]
+ * Tapsilog, 85
+ * [special-purchase]
+ * Rice, 10, 150, 10
+ * </pre>
+ */
+public class CatalogCompiler {
+    private static final class Item {
+        final String name;
+        final int priceCents;
+        final int calories;
+        final int quantity;
+
+        Item(String name, int priceCents, int calories, int quantity) {
+            this.name = name;
+            this.priceCents = priceCents;
+            this.calories = calories;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Compiles catalog text into binary form.
+     *
+     * @param lines The lines of the text catalog.
+     * @return The compiled catalog.
+     * @throws IllegalArgumentException If a line cannot be parsed.
+     */
+    public static byte[] compile(List<String> lines) {
+        Map<CatalogFile.Section, List<Item>> sections = new EnumMap<>(CatalogFile.Section.class);
+        for (CatalogFile.Section section : CatalogFile.Section.values()) {
+            sections.put(section, new ArrayList<>());
+        }
+
+        CatalogFile.Section current = null;
+        for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+            String line = lines.get(lineNumber - 1).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                current = parseSection(line.substring(1, line.length() - 1).trim(), lineNumber);
+                continue;
+            }
+            if (current == null) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": item outside of a section.");
+            }
+            sections.get(current).add(parseItem(current, line, lineNumber));
+        }
+
+        // Names shared between sections, like the special items, are stored once
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        Map<String, Integer> stringOffsets = new HashMap<>();
+        int itemCount = 0;
+        for (List<Item> items : sections.values()) {
+            for (Item item : items) {
+                if (!stringOffsets.containsKey(item.name)) {
+                    byte[] bytes = item.name.getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > 0xFFFF) {
+                        throw new IllegalArgumentException("Item name too long: " + item.name);
+                    }
+                    stringOffsets.put(item.name, strings.size());
+                    strings.write(bytes.length >>> 8);
+                    strings.write(bytes.length);
+                    strings.write(bytes, 0, bytes.length);
+                }
+                itemCount++;
+            }
+        }
+
+        int stringTableOffset = CatalogFile.HEADER_SIZE + itemCount * CatalogFile.RECORD_SIZE;
+        ByteBuffer out = ByteBuffer.allocate(stringTableOffset + strings.size());
+        out.putInt(CatalogFile.MAGIC);
+        out.putShort(CatalogFile.FORMAT_VERSION);
+        out.putShort((short) 0);
+        for (List<Item> items : sections.values()) {
+            out.putInt(items.size());
+        }
+        out.putInt(stringTableOffset);
+        out.putInt(strings.size());
+        out.putInt(0);
+        for (List<Item> items : sections.values()) {
+            for (Item item : items) {
+                out.putInt(stringOffsets.get(item.name));
+                out.putInt(item.priceCents);
+                out.putInt(item.calories);
+                out.putInt(item.quantity);
+            }
+        }
+        out.put(strings.toByteArray());
+        return out.array();
+    }
+
+    /**
+     * Compiles the text catalog given as the first argument into the binary file given as the second.
+     *
+     * @param args The input and output paths.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java CatalogCompiler <catalog.txt> <catalog.bin>");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        byte[] compiled = compile(Files.readAllLines(input, StandardCharsets.UTF_8));
+        Files.write(output, compiled);
+        System.out.println("Wrote " + compiled.length + " bytes to " + output);
+    }
+
+    private static CatalogFile.Section parseSection(String name, int lineNumber) {
+        switch (name.toLowerCase()) {
+            case "regular":
+                return CatalogFile.Section.REGULAR;
+            case "special":
+                return CatalogFile.Section.SPECIAL;
+            case "special-purchase":
+                return CatalogFile.Section.SPECIAL_PURCHASE;
+            default:
+                throw new IllegalArgumentException("Line " + lineNumber + ": unknown section '" + name + "'.");
+        }
+    }
+
+    private static Item parseItem(CatalogFile.Section section, String line, int lineNumber) {
+        String[] fields = line.split(",");
+        int expected = section == CatalogFile.Section.SPECIAL ? 2 : 4;
+        if (fields.length != expected) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected " + expected + " fields.");
+        }
+        try {
+            String name = fields[0].trim();
+            int priceCents = Math.toIntExact(Math.round(Double.parseDouble(fields[1].trim()) * 100.0));
+            int itemCalories = expected == 4 ? Integer.parseInt(fields[2].trim()) : 0;
+            int quantity = expected == 4 ? Integer.parseInt(fields[3].trim()) : 0;
+            if (name.isEmpty() || priceCents < 0 || itemCalories < 0 || quantity < 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": invalid item.");
+            }
+            return new Item(name, priceCents, itemCalories, quantity);
+        } catch (NumberFormatException | ArithmeticException ex) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": invalid number.", ex);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only view of a compiled binary catalog file, accessed through a memory-mapped buffer.
+ * Opening a catalog only validates its fixed-size header, so it takes the same time for any number of items.
+ * Prices and quantities are read straight from fixed-width records; names and calories are decoded on first
+ * access and remembered.
+ *
+ * <p>Layout (big-endian): a 32-byte header (magic, format version, the item count of each section and the
+ * position of the string table), then one 16-byte record per item (name offset, price in centavos, calories,
+ * quantity) for the regular, special and special purchase sections in that order, then the string table of
+ * length-prefixed UTF-8 names. Catalog files are produced by {@link CatalogCompiler}.</p>
+ */
+public class CatalogFile {
+    static final int MAGIC = 0x564D4354; // "VMCT"
+    static final short FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+
+    /**
+     * The sections of a catalog.
+     */
+    public enum Section {
+        REGULAR, SPECIAL, SPECIAL_PURCHASE
+    }
+
+    private final ByteBuffer buffer;
+    private final int[] counts;
+    private final int[] firstRecords;
+    private final int stringTableOffset;
+    private final String[][] names;
+    private final int[][] calories;
+
+    private CatalogFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a vending machine catalog file.");
+        }
+        if (buffer.getShort(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported catalog format version: " + buffer.getShort(4));
+        }
+        Section[] sections = Section.values();
+        counts = new int[sections.length];
+        firstRecords = new int[sections.length];
+        int records = 0;
+        for (int i = 0; i < sections.length; i++) {
+            counts[i] = buffer.getInt(8 + 4 * i);
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException("Corrupt catalog file: negative item count.");
+            }
+            firstRecords[i] = records;
+            records += counts[i];
+        }
+        stringTableOffset = buffer.getInt(20);
+        int stringTableLength = buffer.getInt(24);
+        if (stringTableOffset < HEADER_SIZE + (long) records * RECORD_SIZE
+                || (long) stringTableOffset + stringTableLength > buffer.capacity()) {
+            throw new IllegalArgumentException("Corrupt catalog file: truncated.");
+        }
+        names = new String[sections.length][];
+        calories = new int[sections.length][];
+    }
+
+    /**
+     * Opens a catalog file by mapping it into memory.
+     *
+     * @param path The path of the compiled catalog.
+     * @return The opened catalog.
+     * @throws IOException If the file cannot be read.
+     */
+    public static CatalogFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CatalogFile(mapped);
+        }
+    }
+
+    /**
+     * Wraps catalog bytes that are already in memory.
+     *
+     * @param bytes The compiled catalog.
+     * @return The catalog.
+     */
+    public static CatalogFile wrap(byte[] bytes) {
+        return new CatalogFile(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    /**
+     * Retrieves the number of items in a section.
+     *
+     * @param section The section.
+     * @return The number of items.
+     */
+    public int getCount(Section section) {
+        return counts[section.ordinal()];
+    }
+
+    /**
+     * Retrieves the name of an item, decoding it on first access.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item within its section.
+     * @return The item name.
+     */
+    public synchronized String getName(Section section, int index) {
+        String[] sectionNames = names[section.ordinal()];
+        if (sectionNames == null) {
+            sectionNames = new String[getCount(section)];
+            names[section.ordinal()] = sectionNames;
+        }
+        if (sectionNames[index] == null) {
+            sectionNames[index] = decodeString(buffer.getInt(recordOffset(section, index)));
+        }
+        return sectionNames[index];
+    }
+
+    /**
+     * Retrieves the names of every item in a section, decoding any not yet decoded.
+     *
+     * @param section The section.
+     * @return A new array of item names.
+     */
+    public String[] getNames(Section section) {
+        String[] result = new String[getCount(section)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getName(section, i);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the price of an item.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item within its section.
+     * @return The price.
+     */
+    public double getPrice(Section section, int index) {
+        return buffer.getInt(recordOffset(section, index) + 4) / 100.0;
+    }
+
+    /**
+     * Retrieves the prices of every item in a section.
+     *
+     * @param section The section.
+     * @return A new array of prices.
+     */
+    public double[] getPrices(Section section) {
+        double[] result = new double[getCount(section)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getPrice(section, i);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the calories of every item in a section, decoding them on first access.
+     *
+     * @param section The section.
+     * @return A new array of calories.
+     */
+    public synchronized int[] getCalories(Section section) {
+        int[] sectionCalories = calories[section.ordinal()];
+        if (sectionCalories == null) {
+            sectionCalories = new int[getCount(section)];
+            for (int i = 0; i < sectionCalories.length; i++) {
+                sectionCalories[i] = buffer.getInt(recordOffset(section, i) + 8);
+            }
+            calories[section.ordinal()] = sectionCalories;
+        }
+        return sectionCalories.clone();
+    }
+
+    /**
+     * Retrieves the initial quantities of every item in a section.
+     *
+     * @param section The section.
+     * @return A new array of quantities.
+     */
+    public int[] getQuantities(Section section) {
+        int[] result = new int[getCount(section)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buffer.getInt(recordOffset(section, i) + 12);
+        }
+        return result;
+    }
+
+    private int recordOffset(Section section, int index) {
+        if (index < 0 || index >= getCount(section)) {
+            throw new IndexOutOfBoundsException("No item " + index + " in section " + section);
+        }
+        return HEADER_SIZE + (firstRecords[section.ordinal()] + index) * RECORD_SIZE;
+    }
+
+    private String decodeString(int offset) {
+        int position = stringTableOffset + offset;
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,213 @@
+import javax.swing.*;
+
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * A list model over one of the vending machine's catalogs that backs a virtualized catalog view.
+ * Each element is a slot index; the display label of a slot is built the first time it is rendered and cached
+ * until that slot's name, price or quantity changes. Several views may share one model, so labels survive
+ * closing and reopening a catalog window.
+ */
+public class CatalogListModel extends AbstractListModel<Integer> {
+    private static final long serialVersionUID = 1L;
+    private static final int ROW_HEIGHT = 28;
+    private static final String PROTOTYPE_LABEL = "Corned Beef - ₱000.0 - Calories: 000 - Quantity: 00";
+
+    /**
+     * The catalogs a model can show.
+     */
+    public enum Source {
+        REGULAR, SPECIAL, SPECIAL_PURCHASE
+    }
+
+    /**
+     * Receives clicks on in-stock catalog rows.
+     */
+    public interface SelectionHandler {
+        /**
+         * Called when the customer selects a slot.
+         *
+         * @param index     The index of the slot.
+         * @param itemName  The name of the item.
+         * @param itemPrice The price of the item.
+         */
+        void itemSelected(int index, String itemName, double itemPrice);
+    }
+
+    private final VendingMachine vendingMachine;
+    private final Source source;
+    private String[] labels;
+    private String[] cachedNames;
+    private double[] cachedPrices;
+    private int[] cachedQuantities;
+
+    /**
+     * Constructs a new model over one catalog of a vending machine.
+     *
+     * @param vendingMachine The vending machine to show.
+     * @param source         Which catalog to show.
+     */
+    public CatalogListModel(VendingMachine vendingMachine, Source source) {
+        this.vendingMachine = vendingMachine;
+        this.source = source;
+        resize(getSize());
+    }
+
+    @Override
+    public int getSize() {
+        return vendingMachine.getCatalog().size(section());
+    }
+
+    @Override
+    public Integer getElementAt(int index) {
+        return index;
+    }
+
+    /**
+     * Retrieves the display label of a slot, building it only if the slot changed since it was last built.
+     *
+     * @param index The index of the slot.
+     * @return The display label.
+     */
+    public String getLabel(int index) {
+        if (index >= labels.length) {
+            resize(getSize());
+        }
+        // Name, price and calories come from one catalog version, so a label never mixes two menus
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+        String name = catalog.getName(section(), index);
+        double price = catalog.getPrice(section(), index);
+        int quantity = quantity(index);
+        if (labels[index] == null || cachedNames[index] != name || cachedPrices[index] != price
+                || cachedQuantities[index] != quantity) {
+            labels[index] = buildLabel(name, price, catalog.getCalories(caloriesSection(), index), quantity);
+            cachedNames[index] = name;
+            cachedPrices[index] = price;
+            cachedQuantities[index] = quantity;
+        }
+        return labels[index];
+    }
+
+    /**
+     * Checks whether a slot can be selected.
+     *
+     * @param index The index of the slot.
+     * @return True if the slot can be purchased from this catalog, false otherwise.
+     */
+    public boolean isSelectable(int index) {
+        return vendingMachine.getCatalog().getName(section(), index) != null
+                && (source != Source.REGULAR || quantity(index) > 0);
+    }
+
+    /**
+     * Notifies views about every slot whose name, price or quantity changed since its label was built.
+     * Unchanged slots are not repainted, and slots never rendered are not touched.
+     */
+    public void refresh() {
+        if (getSize() != labels.length) {
+            resize(getSize());
+            fireContentsChanged(this, 0, getSize() - 1);
+            return;
+        }
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+        int[] quantities = quantities();
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != null && (cachedNames[i] != catalog.getName(section(), i)
+                    || cachedPrices[i] != catalog.getPrice(section(), i) || cachedQuantities[i] != quantities[i])) {
+                labels[i] = null;
+                fireContentsChanged(this, i, i);
+            }
+        }
+    }
+
+    /**
+     * Creates a scrollable view of this catalog. Only the visible rows are rendered, through a single
+     * shared renderer component.
+     *
+     * @param handler Receives clicks on selectable rows.
+     * @return The view, ready to be added to a frame.
+     */
+    public JScrollPane createView(SelectionHandler handler) {
+        JList<Integer> list = new JList<>(this);
+        list.setFixedCellHeight(ROW_HEIGHT);
+        list.setFixedCellWidth(new JLabel(PROTOTYPE_LABEL).getPreferredSize().width + 24);
+        list.setVisibleRowCount(Math.min(getSize(), 8));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new Renderer());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if (index < 0 || !list.getCellBounds(index, index).contains(e.getPoint()) || !isSelectable(index)) {
+                    return;
+                }
+                CatalogSnapshot catalog = vendingMachine.getCatalog();
+                handler.itemSelected(index, catalog.getName(section(), index), catalog.getPrice(section(), index));
+                refresh();
+            }
+        });
+        return new JScrollPane(list);
+    }
+
+    private String buildLabel(String name, double price, int itemCalories, int quantity) {
+        if (name == null) {
+            return "Unavailable";
+        }
+        if (source == Source.REGULAR && quantity <= 0) {
+            return "Out of Stock";
+        }
+        return name + " - ₱" + price + " - Calories: " + itemCalories + " - Quantity: " + quantity;
+    }
+
+    private void resize(int size) {
+        labels = new String[size];
+        cachedNames = new String[size];
+        cachedPrices = new double[size];
+        cachedQuantities = new int[size];
+    }
+
+    private CatalogFile.Section section() {
+        switch (source) {
+            case REGULAR:
+                return CatalogFile.Section.REGULAR;
+            case SPECIAL:
+                return CatalogFile.Section.SPECIAL;
+            default:
+                return CatalogFile.Section.SPECIAL_PURCHASE;
+        }
+    }
+
+    // The special items share the calories and quantities of the regular items with the same index.
+    private CatalogFile.Section caloriesSection() {
+        return source == Source.SPECIAL ? CatalogFile.Section.REGULAR : section();
+    }
+
+    private int[] quantities() {
+        return source == Source.SPECIAL_PURCHASE ? vendingMachine.getSpecialPurchaseQuantities()
+                : vendingMachine.getQuantities();
+    }
+
+    // One slot only: a row is rendered far more often than the stock changes, so copying every slot adds up
+    private int quantity(int index) {
+        return source == Source.SPECIAL_PURCHASE ? vendingMachine.getSpecialPurchaseItemQuantity(index)
+                : vendingMachine.getItemQuantity(index);
+    }
+
+    /**
+     * Renders a row from the cached label, greying out rows that cannot be selected.
+     */
+    private final class Renderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            int slot = (Integer) value;
+            super.getListCellRendererComponent(list, getLabel(slot), index, isSelected, cellHasFocus);
+            setEnabled(isSelectable(slot));
+            return this;
+        }
+    }
+}
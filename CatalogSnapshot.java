@@ -0,0 +1,231 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Represents one immutable, versioned version of a vending machine's catalog: the names, prices and calories
+ * of the regular, special and special purchase items. A vending machine publishes its current catalog through
+ * a single volatile reference, so readers never lock and always see a consistent name, price and calorie row.
+ * Changes never modify a snapshot; they build the next version, sharing every section they do not touch.
+ */
+public final class CatalogSnapshot {
+    private static final int SECTIONS = CatalogFile.Section.values().length;
+
+    private final long version;
+    private final CatalogFile source;
+    // Decoded lazily for file-backed catalogs, and shared by the versions that do not change them
+    private final AtomicReferenceArray<String[]> names;
+    private final double[][] prices;
+    private final AtomicReferenceArray<int[]> calories;
+
+    private CatalogSnapshot(long version, CatalogFile source, AtomicReferenceArray<String[]> names,
+            double[][] prices, AtomicReferenceArray<int[]> calories) {
+        this.version = version;
+        this.source = source;
+        this.names = names;
+        this.prices = prices;
+        this.calories = calories;
+    }
+
+    /**
+     * Creates a catalog from item arrays. The arrays are copied.
+     *
+     * @param items                   The names of the regular items.
+     * @param prices                  The prices of the regular items.
+     * @param calories                The calories of the regular items.
+     * @param specialItems            The names of the special items.
+     * @param specialPrices           The prices of the special items.
+     * @param specialPurchaseItems    The names of the special purchase items.
+     * @param specialPurchasePrices   The prices of the special purchase items.
+     * @param specialPurchaseCalories The calories of the special purchase items.
+     * @return The catalog, at version 0.
+     */
+    public static CatalogSnapshot of(String[] items, double[] prices, int[] calories, String[] specialItems,
+            double[] specialPrices, String[] specialPurchaseItems, double[] specialPurchasePrices,
+            int[] specialPurchaseCalories) {
+        String[][] names = { items.clone(), specialItems.clone(), specialPurchaseItems.clone() };
+        double[][] sectionPrices = { prices.clone(), specialPrices.clone(), specialPurchasePrices.clone() };
+        int[][] sectionCalories = { calories.clone(), new int[specialItems.length], specialPurchaseCalories.clone() };
+        return new CatalogSnapshot(0, null, new AtomicReferenceArray<>(names), sectionPrices,
+                new AtomicReferenceArray<>(sectionCalories));
+    }
+
+    /**
+     * Creates a catalog backed by a compiled catalog file. Names and calories are decoded the first time
+     * they are read.
+     *
+     * @param catalogFile The catalog file.
+     * @return The catalog, at version 0.
+     */
+    public static CatalogSnapshot of(CatalogFile catalogFile) {
+        double[][] sectionPrices = new double[SECTIONS][];
+        for (CatalogFile.Section section : CatalogFile.Section.values()) {
+            sectionPrices[section.ordinal()] = catalogFile.getPrices(section);
+        }
+        return new CatalogSnapshot(0, catalogFile, new AtomicReferenceArray<>(SECTIONS), sectionPrices,
+                new AtomicReferenceArray<>(SECTIONS));
+    }
+
+    /**
+     * Retrieves the version of this catalog. Every published change increases it.
+     *
+     * @return The version number.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the number of slots in a section.
+     *
+     * @param section The section.
+     * @return The number of slots.
+     */
+    public int size(CatalogFile.Section section) {
+        return prices[section.ordinal()].length;
+    }
+
+    /**
+     * Retrieves the name of an item.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item.
+     * @return The item name, or null if the item was removed.
+     */
+    public String getName(CatalogFile.Section section, int index) {
+        return names(section)[index];
+    }
+
+    /**
+     * Retrieves the price of an item.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item.
+     * @return The item price.
+     */
+    public double getPrice(CatalogFile.Section section, int index) {
+        return prices[section.ordinal()][index];
+    }
+
+    /**
+     * Retrieves the calories of an item.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item.
+     * @return The item calories.
+     */
+    public int getCalories(CatalogFile.Section section, int index) {
+        return calories(section)[index];
+    }
+
+    /**
+     * Retrieves the names of every item in a section.
+     *
+     * @param section The section.
+     * @return A copy of the item names.
+     */
+    public String[] getNames(CatalogFile.Section section) {
+        return names(section).clone();
+    }
+
+    /**
+     * Retrieves the prices of every item in a section.
+     *
+     * @param section The section.
+     * @return A copy of the item prices.
+     */
+    public double[] getPrices(CatalogFile.Section section) {
+        return prices[section.ordinal()].clone();
+    }
+
+    /**
+     * Retrieves the calories of every item in a section.
+     *
+     * @param section The section.
+     * @return A copy of the item calories.
+     */
+    public int[] getCalories(CatalogFile.Section section) {
+        return calories(section).clone();
+    }
+
+    /**
+     * Finds an item by name.
+     *
+     * @param section  The section to search.
+     * @param itemName The name of the item.
+     * @return The index of the item, or -1 if not found.
+     */
+    public int indexOf(CatalogFile.Section section, String itemName) {
+        String[] sectionNames = names(section);
+        for (int i = 0; i < sectionNames.length; i++) {
+            if (sectionNames[i] != null && sectionNames[i].equals(itemName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the next version with one price changed.
+     *
+     * @param section  The section of the item.
+     * @param index    The index of the item.
+     * @param newPrice The new price.
+     * @return The next catalog version.
+     */
+    public CatalogSnapshot withPrice(CatalogFile.Section section, int index, double newPrice) {
+        double[][] nextPrices = prices.clone();
+        nextPrices[section.ordinal()] = prices[section.ordinal()].clone();
+        nextPrices[section.ordinal()][index] = newPrice;
+        return new CatalogSnapshot(version + 1, source, names, nextPrices, calories);
+    }
+
+    /**
+     * Builds the next version with one item removed: its name is cleared and its price set to 0,
+     * both in the same version.
+     *
+     * @param section The section of the item.
+     * @param index   The index of the item.
+     * @return The next catalog version.
+     */
+    public CatalogSnapshot withoutItem(CatalogFile.Section section, int index) {
+        String[] sectionNames = names(section).clone();
+        sectionNames[index] = null;
+        AtomicReferenceArray<String[]> nextNames = new AtomicReferenceArray<>(SECTIONS);
+        for (CatalogFile.Section each : CatalogFile.Section.values()) {
+            nextNames.set(each.ordinal(), each == section ? sectionNames : names.get(each.ordinal()));
+        }
+        double[][] nextPrices = prices.clone();
+        nextPrices[section.ordinal()] = prices[section.ordinal()].clone();
+        nextPrices[section.ordinal()][index] = 0.0;
+        return new CatalogSnapshot(version + 1, source, nextNames, nextPrices, calories);
+    }
+
+    /**
+     * Re-versions a catalog so that it can replace another one, e.g. for a menu push.
+     *
+     * @param newVersion The version to give the catalog.
+     * @return The same catalog content with the new version.
+     */
+    public CatalogSnapshot withVersion(long newVersion) {
+        return new CatalogSnapshot(newVersion, source, names, prices, calories);
+    }
+
+    // Threads that race to decode a section all decode the same content; the first one to publish it wins, and the
+    // atomic array makes its elements visible to every thread that reads the reference.
+    private String[] names(CatalogFile.Section section) {
+        String[] sectionNames = names.get(section.ordinal());
+        if (sectionNames == null) {
+            names.compareAndSet(section.ordinal(), null, source.getNames(section));
+            sectionNames = names.get(section.ordinal());
+        }
+        return sectionNames;
+    }
+
+    private int[] calories(CatalogFile.Section section) {
+        int[] sectionCalories = calories.get(section.ordinal());
+        if (sectionCalories == null) {
+            calories.compareAndSet(section.ordinal(), null, source.getCalories(section));
+            sectionCalories = calories.get(section.ordinal());
+        }
+        return sectionCalories;
+    }
+}
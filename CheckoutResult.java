@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the outcome of checking out a cart: either every line was sold with a single change amount,
+ * or nothing was changed and the reason is given.
+ */
+public final class CheckoutResult {
+    /**
+     * The reasons a checkout can end with.
+     */
+    public enum Status {
+        SUCCESS, EMPTY_CART, ITEM_NOT_FOUND, INVALID_QUANTITY, OUT_OF_STOCK, INSUFFICIENT_AMOUNT, INSUFFICIENT_CHANGE,
+        PAYMENT_DECLINED
+    }
+
+    private final Status status;
+    private final double total;
+    private final double change;
+    private final String message;
+    private final CatalogSnapshot pricedCatalog;
+    private final boolean cashless;
+    private final List<Cart.Line> soldLines;
+
+    CheckoutResult(Status status, double total, double change, String message) {
+        this(status, total, change, message, null);
+    }
+
+    CheckoutResult(Status status, double total, double change, String message, CatalogSnapshot pricedCatalog) {
+        this(status, total, change, message, pricedCatalog, false);
+    }
+
+    CheckoutResult(Status status, double total, double change, String message, CatalogSnapshot pricedCatalog,
+            boolean cashless) {
+        this(status, total, change, message, pricedCatalog, cashless, Collections.emptyList());
+    }
+
+    CheckoutResult(Status status, double total, double change, String message, CatalogSnapshot pricedCatalog,
+            boolean cashless, List<Cart.Line> soldLines) {
+        this.status = status;
+        this.total = total;
+        this.change = change;
+        this.message = message;
+        this.pricedCatalog = pricedCatalog;
+        this.cashless = cashless;
+        this.soldLines = Collections.unmodifiableList(new ArrayList<>(soldLines));
+    }
+
+    /**
+     * Retrieves the outcome of the checkout.
+     *
+     * @return The checkout status.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Checks whether the checkout succeeded.
+     *
+     * @return True if every line was sold, false otherwise.
+     */
+    public boolean isSuccessful() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * Retrieves the total price of the cart.
+     *
+     * @return The total price, or 0 if the cart could not be priced.
+     */
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * Retrieves the change returned to the customer.
+     *
+     * @return The change, or 0 if the checkout failed.
+     */
+    public double getChange() {
+        return change;
+    }
+
+    /**
+     * Retrieves a message describing the outcome, suitable for showing to the customer.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Retrieves the catalog version the cart was priced from, e.g. to refund part of it at the prices paid.
+     *
+     * @return The catalog, or null if the checkout failed.
+     */
+    public CatalogSnapshot getPricedCatalog() {
+        return pricedCatalog;
+    }
+
+    /**
+     * Retrieves the lines the checkout sold, e.g. to check that a refund only gives back units that were sold.
+     *
+     * @return The sold lines, one per slot, or an empty list if the checkout failed or sold no cart.
+     */
+    public List<Cart.Line> getSoldLines() {
+        return soldLines;
+    }
+
+    /**
+     * Checks whether the cart was paid by card or e-wallet, so a refund goes back to the card instead of in coins.
+     *
+     * @return True if the cart was paid through {@link CashlessPayments}, false if it was paid in coins.
+     */
+    public boolean isCashless() {
+        return cashless;
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Suggests meal and add-on combos that fit a customer's calorie and price budgets, from what is in stock. A combo
+ * is one regular item as the meal plus up to two of each special purchase item as add-ons. The best combo for a
+ * meal is the one with the most calories within both budgets, and the cheapest of those; the suggestions are the
+ * best combos of the different meals, most calories first.
+ *
+ * <p>The add-ons are chosen from precomputed bounded-knapsack tables, so a query only looks up one entry per meal
+ * and walks back through the tables to list the add-ons: a few microseconds, cheap enough for every screen
+ * refresh. There is one table per add-on, holding the most add-on calories for every price and calorie budget
+ * using that add-on and the ones before it. When an add-on's price, calories or available units change, e.g.
+ * because it sold out or was restocked, only its table and the ones after it are rebuilt; meal changes rebuild
+ * nothing. Changes are picked up at the next query by comparing the machine's state version.
+ *
+ * <p>The tables cover add-ons worth up to 200 pesos and 2000 kcal, in steps of 1 peso and 10 kcal. Prices and
+ * calories are rounded up and budgets down, so a suggested combo never exceeds either budget. With the built-in
+ * menu they take about 800 KB.
+ */
+public class ComboRecommender {
+    private static final int MAX_ADD_ON_PESOS = 200;
+    private static final int CALORIE_STEP = 10;
+    private static final int MAX_ADD_ON_CALORIE_STEPS = 200;
+    private static final int MAX_UNITS_PER_ADD_ON = 2;
+    private static final int CALORIE_COLUMNS = MAX_ADD_ON_CALORIE_STEPS + 1;
+    private static final int TABLE_SIZE = (MAX_ADD_ON_PESOS + 1) * CALORIE_COLUMNS;
+
+    /**
+     * Represents one suggested combo.
+     */
+    public static final class Combo {
+        private final int mealIndex;
+        private final String description;
+        private final int[] addOnQuantities;
+        private final int calories;
+        private final long priceCents;
+
+        Combo(int mealIndex, String description, int[] addOnQuantities, int calories, long priceCents) {
+            this.mealIndex = mealIndex;
+            this.description = description;
+            this.addOnQuantities = addOnQuantities;
+            this.calories = calories;
+            this.priceCents = priceCents;
+        }
+
+        /**
+         * Retrieves the index of the meal.
+         *
+         * @return The index of the regular item.
+         */
+        public int getMealIndex() {
+            return mealIndex;
+        }
+
+        /**
+         * Retrieves the number of units of an add-on in the combo.
+         *
+         * @param index The index of the special purchase item.
+         * @return The number of units, 0 if the add-on is not part of the combo.
+         */
+        public int getAddOnQuantity(int index) {
+            return index >= 0 && index < addOnQuantities.length ? addOnQuantities[index] : 0;
+        }
+
+        /**
+         * Retrieves the calories of the whole combo.
+         *
+         * @return The calories.
+         */
+        public int getCalories() {
+            return calories;
+        }
+
+        /**
+         * Retrieves the price of the whole combo.
+         *
+         * @return The price.
+         */
+        public double getPrice() {
+            return priceCents / 100.0;
+        }
+
+        /**
+         * Adds the meal and its add-ons to a cart.
+         *
+         * @param cart The cart.
+         */
+        public void addTo(Cart cart) {
+            cart.addItem(mealIndex, 1);
+            for (int i = 0; i < addOnQuantities.length; i++) {
+                if (addOnQuantities[i] > 0) {
+                    cart.addSpecialPurchaseItem(i, addOnQuantities[i]);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return description + " - " + calories + " kcal, ₱" + getPrice();
+        }
+    }
+
+    private final VendingMachine vendingMachine;
+    private long version;
+    private CatalogSnapshot catalog;
+    private int[] mealQuantities;
+    // Per add-on: the rounded price and calories the tables were built with, and the units available
+    private int[] addOnPesos;
+    private int[] addOnCalorieSteps;
+    private int[] addOnBounds;
+    // tables[k][pesos * CALORIE_COLUMNS + steps]: the most add-on calorie steps using add-ons 0 to k
+    private short[][] tables;
+    private long rebuiltTables;
+
+    /**
+     * Constructs a new recommender for a vending machine. The tables are built at the first query.
+     *
+     * @param vendingMachine The vending machine whose stock and prices are used.
+     */
+    public ComboRecommender(VendingMachine vendingMachine) {
+        this.vendingMachine = vendingMachine;
+        this.version = -1;
+    }
+
+    /**
+     * Suggests the best combos within a calorie budget and a price budget.
+     *
+     * @param calorieBudget The most calories the combo may have.
+     * @param priceBudget   The most the combo may cost.
+     * @param limit         The most combos to suggest.
+     * @return The combos, most calories first and the cheapest first among equals; one per meal at most.
+     */
+    public synchronized List<Combo> recommend(int calorieBudget, double priceBudget, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be positive.");
+        }
+        refresh();
+        long budgetCents = InventorySnapshot.toCents(priceBudget);
+        List<Combo> combos = new ArrayList<>();
+        for (int meal = 0; meal < mealQuantities.length; meal++) {
+            String mealName = catalog.getName(CatalogFile.Section.REGULAR, meal);
+            if (mealQuantities[meal] <= 0 || mealName == null) {
+                continue;
+            }
+            long mealCents = InventorySnapshot.toCents(catalog.getPrice(CatalogFile.Section.REGULAR, meal));
+            int mealCalories = catalog.getCalories(CatalogFile.Section.REGULAR, meal);
+            if (mealCents > budgetCents || mealCalories > calorieBudget) {
+                continue;
+            }
+            int pesos = (int) Math.min(MAX_ADD_ON_PESOS, (budgetCents - mealCents) / 100);
+            int steps = Math.min(MAX_ADD_ON_CALORIE_STEPS, (calorieBudget - mealCalories) / CALORIE_STEP);
+            combos.add(combine(meal, mealName, mealCents, mealCalories, pesos, steps));
+        }
+        combos.sort(Comparator.comparingInt(Combo::getCalories).reversed()
+                .thenComparingLong(combo -> combo.priceCents));
+        return combos.size() > limit ? new ArrayList<>(combos.subList(0, limit)) : combos;
+    }
+
+    /**
+     * Retrieves the number of add-on tables built so far, e.g. to check that a change rebuilt only a few.
+     *
+     * @return The number of tables built.
+     */
+    public synchronized long getRebuiltTableCount() {
+        return rebuiltTables;
+    }
+
+    private Combo combine(int meal, String mealName, long mealCents, int mealCalories, int pesos, int steps) {
+        int[] quantities = new int[addOnBounds.length];
+        StringBuilder description = new StringBuilder(mealName);
+        long priceCents = mealCents;
+        int calories = mealCalories;
+        if (tables.length > 0) {
+            short[] last = tables[tables.length - 1];
+            int best = last[pesos * CALORIE_COLUMNS + steps];
+            // The table never gets worse with more money, so step down to the least that still buys the best
+            while (pesos > 0 && last[(pesos - 1) * CALORIE_COLUMNS + steps] == best) {
+                pesos--;
+            }
+            for (int k = tables.length - 1; k >= 0; k--) {
+                int units = unitsChosen(k, pesos, steps);
+                quantities[k] = units;
+                pesos -= units * addOnPesos[k];
+                steps -= units * addOnCalorieSteps[k];
+            }
+            for (int k = 0; k < quantities.length; k++) {
+                if (quantities[k] > 0) {
+                    description.append(" + ").append(quantities[k] > 1 ? quantities[k] + " x " : "")
+                            .append(catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, k));
+                    priceCents += quantities[k]
+                            * InventorySnapshot.toCents(catalog.getPrice(CatalogFile.Section.SPECIAL_PURCHASE, k));
+                    calories += quantities[k] * catalog.getCalories(CatalogFile.Section.SPECIAL_PURCHASE, k);
+                }
+            }
+        }
+        return new Combo(meal, description.toString(), quantities, calories, priceCents);
+    }
+
+    // Finds how many units of add-on k the best entry at (pesos, steps) of its table was built with
+    private int unitsChosen(int k, int pesos, int steps) {
+        int target = tables[k][pesos * CALORIE_COLUMNS + steps];
+        for (int units = addOnBounds[k]; units > 0; units--) {
+            int restPesos = pesos - units * addOnPesos[k];
+            int restSteps = steps - units * addOnCalorieSteps[k];
+            if (restPesos >= 0 && restSteps >= 0
+                    && previous(k, restPesos, restSteps) + units * addOnCalorieSteps[k] == target) {
+                return units;
+            }
+        }
+        return 0;
+    }
+
+    private int previous(int k, int pesos, int steps) {
+        return k == 0 ? 0 : tables[k - 1][pesos * CALORIE_COLUMNS + steps];
+    }
+
+    // Picks up changes since the last query and rebuilds the tables from the first add-on that changed
+    private void refresh() {
+        if (vendingMachine.getStateVersion() == version) {
+            return;
+        }
+        try (ReadView view = vendingMachine.openReadView()) {
+            catalog = view.getCatalog();
+            mealQuantities = view.getQuantities();
+            int[] quantities = view.getSpecialPurchaseQuantities();
+            int addOns = Math.min(quantities.length, catalog.size(CatalogFile.Section.SPECIAL_PURCHASE));
+            int firstChanged = addOns;
+            if (tables == null || tables.length != addOns) {
+                tables = new short[addOns][];
+                addOnPesos = new int[addOns];
+                addOnCalorieSteps = new int[addOns];
+                addOnBounds = new int[addOns];
+                firstChanged = 0;
+            }
+            for (int k = 0; k < addOns; k++) {
+                long cents = InventorySnapshot.toCents(catalog.getPrice(CatalogFile.Section.SPECIAL_PURCHASE, k));
+                int pesos = (int) ((cents + 99) / 100);
+                int calories = catalog.getCalories(CatalogFile.Section.SPECIAL_PURCHASE, k);
+                int steps = (calories + CALORIE_STEP - 1) / CALORIE_STEP;
+                int bound = catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, k) == null ? 0
+                        : Math.min(quantities[k], MAX_UNITS_PER_ADD_ON);
+                if (pesos != addOnPesos[k] || steps != addOnCalorieSteps[k] || bound != addOnBounds[k]) {
+                    addOnPesos[k] = pesos;
+                    addOnCalorieSteps[k] = steps;
+                    addOnBounds[k] = bound;
+                    firstChanged = Math.min(firstChanged, k);
+                }
+            }
+            for (int k = firstChanged; k < addOns; k++) {
+                build(k);
+            }
+            version = view.getVersion();
+        }
+    }
+
+    private void build(int k) {
+        short[] table = tables[k] == null ? new short[TABLE_SIZE] : tables[k];
+        int pesosPerUnit = addOnPesos[k];
+        int stepsPerUnit = addOnCalorieSteps[k];
+        for (int pesos = 0; pesos <= MAX_ADD_ON_PESOS; pesos++) {
+            for (int steps = 0; steps <= MAX_ADD_ON_CALORIE_STEPS; steps++) {
+                int best = previous(k, pesos, steps);
+                for (int units = 1; units <= addOnBounds[k]; units++) {
+                    int restPesos = pesos - units * pesosPerUnit;
+                    int restSteps = steps - units * stepsPerUnit;
+                    if (restPesos < 0 || restSteps < 0) {
+                        break;
+                    }
+                    best = Math.max(best, previous(k, restPesos, restSteps) + units * stepsPerUnit);
+                }
+                table[pesos * CALORIE_COLUMNS + steps] = (short) best;
+            }
+        }
+        tables[k] = table;
+        rebuiltTables++;
+    }
+}
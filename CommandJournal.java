@@ -0,0 +1,272 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the sales, refunds, restocks and price changes of a vending machine to a file, as fixed-size binary
+ * records. Install it with {@link VendingMachine#setCommandJournal}; the GUI and the terminal do so when the
+ * {@code vending.journal} system property names a segment directory.
+ *
+ * <p>The machine appends under its own lock, so an append only copies the record into a buffer. A flush thread
+ * swaps the buffer for an empty one every second and writes the whole batch outside that lock, so a sale never
+ * waits on the file: a batch costs one write and at most one sync. A write error stops the journal rather than
+ * the sale; {@link #getError()} tells whether that happened.
+ *
+ * <p>A journal opened on {@link JournalSegments} rolls over to a new segment when the current one is full and
+ * leaves compression and retention of the old one to the segments' background thread.
+ *
+ * <pre>
+ * time:long command:byte kind:byte index:short quantity:int amountCents:long successful:byte
+ * </pre>
+ */
+public class CommandJournal implements Closeable {
+    /**
+     * The size of a record, in bytes.
+     */
+    public static final int RECORD_SIZE = 25;
+
+    private static final int BUFFER_RECORDS = 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    /**
+     * The commands a journal records.
+     */
+    public enum Command {
+        PURCHASE, RESTOCK, SET_PRICE, REFUND
+    }
+
+    /**
+     * Receives the records of a journal.
+     */
+    public interface RecordVisitor {
+        /**
+         * Receives one record.
+         *
+         * @param time        When the command was applied, in milliseconds since the epoch.
+         * @param command     The command.
+         * @param kind        Whether the command was for a regular or a special purchase item.
+         * @param index       The slot index.
+         * @param quantity    The quantity sold, refunded or restocked; a negative restock took units out.
+         * @param amountCents The amount paid or refunded, or the new price, in centavos.
+         * @param successful  Whether the command was applied.
+         */
+        void visit(long time, Command command, Cart.Kind kind, int index, int quantity, long amountCents,
+                boolean successful);
+    }
+
+    private final JournalSegments segments;
+    private final boolean syncEachBatch;
+    // The buffer appends go to; guarded by this, like the error and the closed flag
+    private ByteBuffer filling;
+    private IOException error;
+    private boolean closed;
+    // The file and the buffer being written; guarded by writeLock, which is never taken while holding this
+    private final Object writeLock;
+    private Path path;
+    private FileChannel channel;
+    private ByteBuffer draining;
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Opens a journal for appending, creating the file if needed.
+     *
+     * @param path          The journal file.
+     * @param syncEachBatch Whether every flush waits for the records to reach the storage device.
+     * @throws IOException If the file cannot be opened.
+     */
+    public CommandJournal(Path path, boolean syncEachBatch) throws IOException {
+        this(null, path, syncEachBatch);
+    }
+
+    /**
+     * Opens a journal that appends to a new segment of a segment directory.
+     *
+     * @param segments      The segment directory.
+     * @param syncEachBatch Whether every flush waits for the records to reach the storage device.
+     * @throws IOException If the segment cannot be created.
+     */
+    public CommandJournal(JournalSegments segments, boolean syncEachBatch) throws IOException {
+        this(segments, segments.nextLiveSegment(), syncEachBatch);
+    }
+
+    private CommandJournal(JournalSegments segments, Path path, boolean syncEachBatch) throws IOException {
+        this.segments = segments;
+        this.syncEachBatch = syncEachBatch;
+        this.filling = newBuffer();
+        this.writeLock = new Object();
+        this.path = path;
+        this.channel = open(path);
+        this.draining = newBuffer();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vending-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers one record; it is written by the next flush. It never touches the file, so it is safe to call while
+     * holding the vending machine's lock.
+     *
+     * @param time        When the command was applied, in milliseconds since the epoch.
+     * @param command     The command.
+     * @param kind        Whether the command was for a regular or a special purchase item.
+     * @param index       The slot index.
+     * @param quantity    The quantity sold, refunded or restocked; a negative restock took units out.
+     * @param amountCents The amount paid or refunded, or the new price, in centavos.
+     * @param successful  Whether the command was applied.
+     */
+    public synchronized void append(long time, Command command, Cart.Kind kind, int index, int quantity,
+            long amountCents, boolean successful) {
+        if (closed || error != null) {
+            return;
+        }
+        if (filling.remaining() < RECORD_SIZE) {
+            // More records than the flush thread drains in an interval: grow instead of writing from here
+            ByteBuffer larger = ByteBuffer.allocate(filling.capacity() * 2);
+            filling.flip();
+            filling = larger.put(filling);
+        }
+        filling.putLong(time)
+                .put((byte) command.ordinal())
+                .put((byte) kind.ordinal())
+                .putShort((short) index)
+                .putInt(quantity)
+                .putLong(amountCents)
+                .put(successful ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes every buffered record now instead of at the next interval.
+     *
+     * @throws IOException If the records cannot be written; the journal then stops.
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            ByteBuffer batch;
+            synchronized (this) {
+                if (error != null) {
+                    throw error;
+                }
+                if (filling.position() == 0) {
+                    return;
+                }
+                batch = filling;
+                filling = draining;
+            }
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                if (syncEachBatch) {
+                    channel.force(false);
+                }
+                if (segments != null && channel.position() >= segments.getSegmentBytes()) {
+                    roll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+                throw e;
+            } finally {
+                batch.clear();
+                // A buffer grown during a burst is dropped, so the next swap hands out one of the usual size
+                draining = batch.capacity() > RECORD_SIZE * BUFFER_RECORDS ? newBuffer() : batch;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the error that stopped the journal.
+     *
+     * @return The error, or null if the journal is intact.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * Stops the flush thread, writes the buffered records and closes the file. Records appended afterwards are
+     * dropped.
+     *
+     * @throws IOException If the records cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+        }
+        synchronized (writeLock) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // Kept as the journal's error; later appends are dropped
+        }
+    }
+
+    // Runs with writeLock held
+    private void roll() throws IOException {
+        channel.close();
+        Path sealed = path;
+        path = segments.nextLiveSegment();
+        channel = open(path);
+        segments.sealed(sealed);
+    }
+
+    private static ByteBuffer newBuffer() {
+        return ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads every complete record of a journal file, oldest first. A record torn by a crash is ignored.
+     *
+     * @param path    The journal file.
+     * @param visitor The visitor.
+     * @throws IOException If the file cannot be read.
+     */
+    public static void read(Path path, RecordVisitor visitor) throws IOException {
+        Command[] commands = Command.values();
+        Cart.Kind[] kinds = Cart.Kind.values();
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * BUFFER_RECORDS);
+            while (in.read(records) >= 0 || records.position() >= RECORD_SIZE) {
+                records.flip();
+                while (records.remaining() >= RECORD_SIZE) {
+                    visitor.visit(records.getLong(), commands[records.get()], kinds[records.get()],
+                            records.getShort(), records.getInt(), records.getLong(), records.get() != 0);
+                }
+                records.compact();
+            }
+        }
+    }
+}
@@ -0,0 +1,612 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Stress-checks the invariants a vending machine must keep while many customers and operators use it at once,
+ * in the manner of a jcstress test. Each scenario runs for many short rounds on a fresh machine: every thread
+ * waits at a barrier, then all of them hit the machine together with a few sales, restocks or cash operations,
+ * counting what each call reported. After the round, the arbiter checks the machine against those counts:
+ *
+ * <ul>
+ *     <li>no quantity is ever negative, during the round or after it;</li>
+ *     <li>no decrement is lost: every sale that was reported took exactly one unit;</li>
+ *     <li>the stock left equals the stock at the start, plus the units restocked, minus the units sold;</li>
+ *     <li>the ledger balances, and the change float, cash box, revenue and operator accounts moved by exactly the
+ *         amounts the calls reported.</li>
+ * </ul>
+ *
+ * Regular and special purchase items are covered separately, then together through cart checkouts. Every scenario
+ * runs with 1, 2, 4 and so on up to twice the number of processors, so the same checks hold at every level of
+ * contention. A violated invariant is printed with the round it was found in, and makes the exit status 1.
+ *
+ * <pre>
+ *     java ConcurrencyStress [--rounds 2000] [--max-threads 16]
+ * </pre>
+ */
+public class ConcurrencyStress {
+    private static final int DEFAULT_ROUNDS = 2000;
+    private static final int OPERATIONS_PER_ROUND = 8;
+    private static final int RACE_QUANTITY = 2;
+
+    /**
+     * Counts what one thread was told by the machine during a round. The arbiter adds up every thread's tally
+     * once the round is over.
+     */
+    static final class Tally {
+        long sold;
+        long specialPurchaseSold;
+        long restocked;
+        long specialPurchaseRestocked;
+        long paidInCents;
+        long revenueCents;
+        long changePaidCents;
+        long heldCreditCents;
+        long creditReturnedCents;
+        long replenishedCents;
+        long collectedCents;
+        String violation;
+
+        void reset() {
+            sold = 0;
+            specialPurchaseSold = 0;
+            restocked = 0;
+            specialPurchaseRestocked = 0;
+            paidInCents = 0;
+            revenueCents = 0;
+            changePaidCents = 0;
+            heldCreditCents = 0;
+            creditReturnedCents = 0;
+            replenishedCents = 0;
+            collectedCents = 0;
+            violation = null;
+        }
+
+        void add(Tally other) {
+            sold += other.sold;
+            specialPurchaseSold += other.specialPurchaseSold;
+            restocked += other.restocked;
+            specialPurchaseRestocked += other.specialPurchaseRestocked;
+            paidInCents += other.paidInCents;
+            revenueCents += other.revenueCents;
+            changePaidCents += other.changePaidCents;
+            heldCreditCents += other.heldCreditCents;
+            creditReturnedCents += other.creditReturnedCents;
+            replenishedCents += other.replenishedCents;
+            collectedCents += other.collectedCents;
+            if (violation == null) {
+                violation = other.violation;
+            }
+        }
+
+        void violate(String message) {
+            if (violation == null) {
+                violation = message;
+            }
+        }
+    }
+
+    /**
+     * Represents one stress scenario: how the machine starts, what each thread does to it, and what must hold
+     * afterwards. The set-up and the check run on the arbiter thread, between rounds.
+     */
+    abstract static class Scenario {
+        private final String name;
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Prepares a fresh machine for a round.
+         *
+         * @param vendingMachine The machine.
+         * @param threads        The number of threads that will act on it.
+         */
+        abstract void setUp(VendingMachine vendingMachine, int threads);
+
+        /**
+         * Acts on the machine from one thread, recording what the machine reported.
+         *
+         * @param vendingMachine The machine.
+         * @param random         The thread's random numbers.
+         * @param tally          The thread's tally for the round.
+         */
+        abstract void act(VendingMachine vendingMachine, Random random, Tally tally);
+
+        /**
+         * Checks the machine once every thread is done.
+         *
+         * @param vendingMachine The machine.
+         * @param threads        The number of threads that acted on it.
+         * @param total          The tallies of every thread, added up.
+         * @return The violated invariant, or null if every invariant holds.
+         */
+        abstract String check(VendingMachine vendingMachine, int threads, Tally total);
+    }
+
+    /**
+     * Holds the outcome of one scenario at one thread count.
+     */
+    static final class Result {
+        final String scenario;
+        final int threads;
+        final int rounds;
+        final int failedRounds;
+        final String firstViolation;
+        final long elapsedNanos;
+
+        Result(String scenario, int threads, int rounds, int failedRounds, String firstViolation,
+                long elapsedNanos) {
+            this.scenario = scenario;
+            this.threads = threads;
+            this.rounds = rounds;
+            this.failedRounds = failedRounds;
+            this.firstViolation = firstViolation;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        boolean passed() {
+            return failedRounds == 0;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = passed() ? "ok"
+                    : "FAILED in " + failedRounds + " rounds, first: " + firstViolation;
+            return String.format("%-28s threads=%-3d rounds=%-6d %6d ms  %s", scenario, threads, rounds,
+                    elapsedNanos / 1_000_000, outcome);
+        }
+    }
+
+    private static final CatalogSnapshot CATALOG = builtInCatalog();
+
+    /**
+     * Runs one scenario for many rounds at one thread count.
+     *
+     * @param scenario The scenario.
+     * @param threads  The number of threads acting at once.
+     * @param rounds   The number of rounds, each on a fresh machine.
+     * @return The outcome.
+     * @throws InterruptedException If the arbiter is interrupted.
+     */
+    public static Result run(Scenario scenario, int threads, int rounds) throws InterruptedException {
+        if (threads <= 0 || rounds <= 0) {
+            throw new IllegalArgumentException("The thread and round counts must be positive.");
+        }
+        // The barriers also publish the machine and the tallies between the arbiter and the actors
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        CyclicBarrier finish = new CyclicBarrier(threads + 1);
+        VendingMachine[] current = new VendingMachine[1];
+        Tally[] tallies = new Tally[threads];
+        Thread[] actors = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Tally tally = new Tally();
+            Random random = new Random(31L * t + rounds);
+            tallies[t] = tally;
+            actors[t] = new Thread(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        start.await();
+                        try {
+                            scenario.act(current[0], random, tally);
+                        } catch (RuntimeException e) {
+                            tally.violate("an actor threw " + e);
+                        }
+                        finish.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "vending-stress-" + t);
+            actors[t].setDaemon(true);
+            actors[t].start();
+        }
+
+        int failedRounds = 0;
+        String firstViolation = null;
+        Tally total = new Tally();
+        long started = System.nanoTime();
+        try {
+            for (int round = 0; round < rounds; round++) {
+                VendingMachine vendingMachine = new VendingMachine();
+                scenario.setUp(vendingMachine, threads);
+                current[0] = vendingMachine;
+                for (Tally tally : tallies) {
+                    tally.reset();
+                }
+                start.await();
+                finish.await();
+
+                total.reset();
+                for (Tally tally : tallies) {
+                    total.add(tally);
+                }
+                String violation = total.violation != null ? total.violation
+                        : scenario.check(vendingMachine, threads, total);
+                if (violation != null) {
+                    failedRounds++;
+                    if (firstViolation == null) {
+                        firstViolation = "round " + round + ": " + violation;
+                    }
+                }
+            }
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("An actor stopped before the last round.", e);
+        } finally {
+            for (Thread actor : actors) {
+                actor.interrupt();
+            }
+        }
+        return new Result(scenario.getName(), threads, rounds, failedRounds, firstViolation,
+                System.nanoTime() - started);
+    }
+
+    /**
+     * Retrieves the scenarios the harness runs.
+     *
+     * @return The scenarios, regular items first.
+     */
+    public static List<Scenario> scenarios() {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("regular-no-lost-decrements") {
+            private String itemName;
+            private int stock;
+
+            @Override
+            void setUp(VendingMachine vendingMachine, int threads) {
+                stock = 2 * threads;
+                vendingMachine.initializeItems(CATALOG, fill(CATALOG.size(CatalogFile.Section.REGULAR), stock),
+                        fill(CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE), 0));
+                itemName = CATALOG.getName(CatalogFile.Section.REGULAR, 0);
+            }
+
+            @Override
+            void act(VendingMachine vendingMachine, Random random, Tally tally) {
+                // Twice as many attempts as units, so the last unit is always contended
+                for (int i = 0; i < 4; i++) {
+                    if (purchase(vendingMachine, itemName)) {
+                        tally.sold++;
+                    }
+                }
+            }
+
+            @Override
+            String check(VendingMachine vendingMachine, int threads, Tally total) {
+                int left = vendingMachine.getQuantities()[0];
+                if (total.sold != stock) {
+                    return total.sold + " units sold out of " + stock + " with " + 4 * threads + " attempts";
+                }
+                return left == 0 ? null : left + " units left after selling out";
+            }
+        });
+        scenarios.add(new Scenario("special-no-lost-decrements") {
+            private int stock;
+
+            @Override
+            void setUp(VendingMachine vendingMachine, int threads) {
+                stock = 2 * threads;
+                vendingMachine.initializeItems(CATALOG, fill(CATALOG.size(CatalogFile.Section.REGULAR), 0),
+                        fill(CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE), stock));
+            }
+
+            @Override
+            void act(VendingMachine vendingMachine, Random random, Tally tally) {
+                for (int i = 0; i < 4; i++) {
+                    if (vendingMachine.purchaseSpecialPurchaseItem(0)) {
+                        tally.specialPurchaseSold++;
+                    }
+                }
+            }
+
+            @Override
+            String check(VendingMachine vendingMachine, int threads, Tally total) {
+                int left = vendingMachine.getSpecialPurchaseQuantities()[0];
+                if (total.specialPurchaseSold != stock) {
+                    return total.specialPurchaseSold + " units sold out of " + stock + " with " + 4 * threads
+                            + " attempts";
+                }
+                return left == 0 ? null : left + " units left after selling out";
+            }
+        });
+        scenarios.add(new Scenario("regular-sales-vs-restocks") {
+            private int[] initial;
+
+            @Override
+            void setUp(VendingMachine vendingMachine, int threads) {
+                initial = fill(CATALOG.size(CatalogFile.Section.REGULAR), RACE_QUANTITY);
+                vendingMachine.initializeItems(CATALOG, initial,
+                        fill(CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE), 0));
+            }
+
+            @Override
+            void act(VendingMachine vendingMachine, Random random, Tally tally) {
+                int slots = initial.length;
+                for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                    int choice = random.nextInt(8);
+                    if (choice == 0) {
+                        tally.restocked += vendingMachine.restockAllItems();
+                    } else if (choice == 1) {
+                        tally.restocked += vendingMachine.updateItemQuantity(random.nextInt(slots),
+                                random.nextInt(RACE_QUANTITY + 1));
+                    } else if (purchase(vendingMachine, CATALOG.getName(CatalogFile.Section.REGULAR,
+                            random.nextInt(slots)))) {
+                        tally.sold++;
+                    }
+                    checkNotNegative("regular", vendingMachine.getQuantities(), tally);
+                }
+            }
+
+            @Override
+            String check(VendingMachine vendingMachine, int threads, Tally total) {
+                return checkStock("regular", initial, vendingMachine.getQuantities(), total.restocked, total.sold);
+            }
+        });
+        scenarios.add(new Scenario("special-sales-vs-restocks") {
+            private int[] initial;
+
+            @Override
+            void setUp(VendingMachine vendingMachine, int threads) {
+                initial = fill(CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE), RACE_QUANTITY);
+                vendingMachine.initializeItems(CATALOG, fill(CATALOG.size(CatalogFile.Section.REGULAR), 0),
+                        initial);
+            }
+
+            @Override
+            void act(VendingMachine vendingMachine, Random random, Tally tally) {
+                int slots = initial.length;
+                for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                    int choice = random.nextInt(8);
+                    if (choice == 0) {
+                        tally.specialPurchaseRestocked += vendingMachine.restockSpecialItems();
+                    } else if (choice == 1) {
+                        tally.specialPurchaseRestocked += vendingMachine.updateSpecialPurchaseItemQuantity(
+                                random.nextInt(slots), random.nextInt(RACE_QUANTITY + 1));
+                    } else if (vendingMachine.purchaseSpecialPurchaseItem(random.nextInt(slots))) {
+                        tally.specialPurchaseSold++;
+                    }
+                    checkNotNegative("special purchase", vendingMachine.getSpecialPurchaseQuantities(), tally);
+                }
+            }
+
+            @Override
+            String check(VendingMachine vendingMachine, int threads, Tally total) {
+                return checkStock("special purchase", initial, vendingMachine.getSpecialPurchaseQuantities(),
+                        total.specialPurchaseRestocked, total.specialPurchaseSold);
+            }
+        });
+        scenarios.add(new Scenario("checkouts-and-cash-ledger") {
+            private int[] initial;
+            private int[] specialPurchaseInitial;
+            private long[] openingBalances;
+
+            @Override
+            void setUp(VendingMachine vendingMachine, int threads) {
+                initial = fill(CATALOG.size(CatalogFile.Section.REGULAR), RACE_QUANTITY);
+                specialPurchaseInitial = fill(CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE), RACE_QUANTITY);
+                vendingMachine.initializeItems(CATALOG, initial, specialPurchaseInitial);
+                openingBalances = vendingMachine.getLedger().getBalances();
+            }
+
+            @Override
+            void act(VendingMachine vendingMachine, Random random, Tally tally) {
+                for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                    int choice = random.nextInt(10);
+                    if (choice < 5) {
+                        checkout(vendingMachine, random, tally);
+                    } else if (choice < 7) {
+                        // A customer inserts coins, then cancels and is paid back from the change float
+                        long changeCents = 100 * (1 + random.nextInt(20));
+                        vendingMachine.holdCredit(changeCents / 100.0);
+                        tally.paidInCents += changeCents;
+                        tally.heldCreditCents += changeCents;
+                        if (vendingMachine.performTransaction(changeCents / 100.0)) {
+                            tally.changePaidCents += changeCents;
+                            tally.creditReturnedCents += changeCents;
+                        }
+                    } else if (choice < 9) {
+                        long amountCents = 1000 * (1 + random.nextInt(5));
+                        vendingMachine.replenishChange(amountCents / 100.0);
+                        tally.replenishedCents += amountCents;
+                    } else {
+                        tally.collectedCents += InventorySnapshot.toCents(vendingMachine.collectCash());
+                    }
+                    checkAccountSigns(vendingMachine.getLedger().getBalances(), tally);
+                    checkNotNegative("regular", vendingMachine.getQuantities(), tally);
+                    checkNotNegative("special purchase", vendingMachine.getSpecialPurchaseQuantities(), tally);
+                }
+            }
+
+            private void checkout(VendingMachine vendingMachine, Random random, Tally tally) {
+                Cart cart = new Cart();
+                int regularUnits = 0;
+                int specialPurchaseUnits = 0;
+                for (int line = 1 + random.nextInt(2); line > 0; line--) {
+                    if (random.nextBoolean()) {
+                        cart.addItem(random.nextInt(initial.length), 1);
+                        regularUnits++;
+                    } else {
+                        cart.addSpecialPurchaseItem(random.nextInt(specialPurchaseInitial.length), 1);
+                        specialPurchaseUnits++;
+                    }
+                }
+                // Quote from the catalog, which no scenario changes, and overpay by up to 10 pesos
+                long totalCents = 0;
+                for (Cart.Line line : cart.getLines()) {
+                    CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                            : CatalogFile.Section.SPECIAL_PURCHASE;
+                    totalCents += InventorySnapshot.toCents(CATALOG.getPrice(section, line.getIndex()))
+                            * line.getQuantity();
+                }
+                long paidCents = totalCents + 500 * random.nextInt(3);
+                CheckoutResult result = vendingMachine.checkout(cart, paidCents / 100.0);
+                if (result.isSuccessful()) {
+                    tally.sold += regularUnits;
+                    tally.specialPurchaseSold += specialPurchaseUnits;
+                    tally.paidInCents += paidCents;
+                    tally.revenueCents += InventorySnapshot.toCents(result.getTotal());
+                    tally.changePaidCents += InventorySnapshot.toCents(result.getChange());
+                    if (InventorySnapshot.toCents(result.getTotal()) != totalCents) {
+                        tally.violate("a cart quoted at " + totalCents + " was sold for " + result.getTotal());
+                    }
+                }
+            }
+
+            @Override
+            String check(VendingMachine vendingMachine, int threads, Tally total) {
+                CashLedger.Reconciliation reconciliation = vendingMachine.getLedger().reconcile();
+                if (!reconciliation.isReconciled()) {
+                    return "the ledger is off by " + reconciliation.getImbalanceCents() + " centavos";
+                }
+                String violation = checkBalance(reconciliation, CashLedger.Account.CHANGE_FLOAT,
+                        total.replenishedCents - total.changePaidCents);
+                if (violation == null) {
+                    violation = checkBalance(reconciliation, CashLedger.Account.CASH_BOX,
+                            total.paidInCents - total.collectedCents);
+                }
+                if (violation == null) {
+                    violation = checkBalance(reconciliation, CashLedger.Account.REVENUE, total.revenueCents);
+                }
+                if (violation == null) {
+                    violation = checkBalance(reconciliation, CashLedger.Account.OPERATOR,
+                            total.replenishedCents - total.collectedCents);
+                }
+                if (violation == null) {
+                    violation = checkBalance(reconciliation, CashLedger.Account.CUSTOMER_CREDIT,
+                            total.heldCreditCents - total.creditReturnedCents);
+                }
+                if (violation == null) {
+                    Tally signs = new Tally();
+                    long[] balances = new long[CashLedger.Account.values().length];
+                    for (CashLedger.Account account : CashLedger.Account.values()) {
+                        balances[account.ordinal()] = reconciliation.getBalanceCents(account);
+                    }
+                    checkAccountSigns(balances, signs);
+                    violation = signs.violation;
+                }
+                if (violation == null) {
+                    violation = checkStock("regular", initial, vendingMachine.getQuantities(), 0, total.sold);
+                }
+                if (violation == null) {
+                    violation = checkStock("special purchase", specialPurchaseInitial,
+                            vendingMachine.getSpecialPurchaseQuantities(), 0, total.specialPurchaseSold);
+                }
+                return violation;
+            }
+
+            private String checkBalance(CashLedger.Reconciliation reconciliation, CashLedger.Account account,
+                    long expectedChangeCents) {
+                long expected = openingBalances[account.ordinal()] + expectedChangeCents;
+                long actual = reconciliation.getBalanceCents(account);
+                return actual == expected ? null : account + " holds " + actual + " centavos, expected " + expected;
+            }
+        });
+        return scenarios;
+    }
+
+    /**
+     * Runs every scenario at every thread count and prints the outcomes.
+     *
+     * @param args The options.
+     * @throws InterruptedException If the harness is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = DEFAULT_ROUNDS;
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rounds":
+                        rounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-threads":
+                        maxThreads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        rounds = 0;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            rounds = 0;
+        }
+        if (rounds <= 0 || maxThreads <= 0) {
+            System.err.println("Usage: java ConcurrencyStress [--rounds <count>] [--max-threads <count>]");
+            System.exit(2);
+        }
+
+        boolean passed = true;
+        for (Scenario scenario : scenarios()) {
+            for (int threads : threadCounts(maxThreads)) {
+                Result result = run(scenario, threads, rounds);
+                System.out.println(result);
+                passed &= result.passed();
+            }
+        }
+        System.out.println(passed ? "All invariants held." : "Some invariants were violated.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static int[] threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean purchase(VendingMachine vendingMachine, String itemName) {
+        return vendingMachine.purchaseItem(itemName).isSuccessful();
+    }
+
+    // Every account but the operator's holds money that exists or is owed, so it can never go below zero; the
+    // operator's may, once more cash was collected than was put in
+    private static void checkAccountSigns(long[] balances, Tally tally) {
+        for (CashLedger.Account account : CashLedger.Account.values()) {
+            if (account != CashLedger.Account.OPERATOR && balances[account.ordinal()] < 0) {
+                tally.violate(account + " went down to " + balances[account.ordinal()] + " centavos");
+            }
+        }
+    }
+
+    private static void checkNotNegative(String section, int[] quantities, Tally tally) {
+        for (int i = 0; i < quantities.length; i++) {
+            if (quantities[i] < 0) {
+                tally.violate(section + " slot " + i + " went down to " + quantities[i]);
+            }
+        }
+    }
+
+    private static String checkStock(String section, int[] initial, int[] left, long restocked, long sold) {
+        long expected = Arrays.stream(initial).asLongStream().sum() + restocked - sold;
+        long actual = Arrays.stream(left).asLongStream().sum();
+        for (int i = 0; i < left.length; i++) {
+            if (left[i] < 0) {
+                return section + " slot " + i + " ended at " + left[i];
+            }
+        }
+        return actual == expected ? null : section + " stock is " + actual + ", expected " + expected + " after "
+                + restocked + " restocked and " + sold + " sold";
+    }
+
+    private static int[] fill(int length, int quantity) {
+        int[] quantities = new int[length];
+        Arrays.fill(quantities, quantity);
+        return quantities;
+    }
+
+    private static CatalogSnapshot builtInCatalog() {
+        VendingMachine template = new VendingMachine();
+        template.initializeItems();
+        return template.getCatalog();
+    }
+}
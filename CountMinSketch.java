@@ -0,0 +1,106 @@
+/**
+ * Estimates how often each item was seen in a stream using a fixed amount of memory. Estimates never undercount;
+ * they overcount by at most a small fraction of the total, with high probability. Two sketches of the same size
+ * can be merged by adding their counters, which gives the sketch of both streams combined.
+ */
+public class CountMinSketch {
+    // Fixed seeds, so sketches built on different machines hash items the same way and can be merged
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L
+    };
+
+    private final int depth;
+    private final int width;
+    private final long[][] counts;
+    private long total;
+
+    /**
+     * Constructs a new, empty sketch.
+     *
+     * @param depth The number of hash rows; more rows lower the chance of a large overcount.
+     * @param width The number of counters per row; more counters lower the size of an overcount.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || depth > SEEDS.length || width <= 0) {
+            throw new IllegalArgumentException("Depth must be 1-" + SEEDS.length + " and width positive.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counts = new long[depth][width];
+    }
+
+    /**
+     * Adds occurrences of an item.
+     *
+     * @param item  The item.
+     * @param count The number of occurrences to add.
+     */
+    public void add(String item, long count) {
+        int hash = item.hashCode();
+        for (int row = 0; row < depth; row++) {
+            counts[row][bucket(hash, row)] += count;
+        }
+        total += count;
+    }
+
+    /**
+     * Estimates how often an item was seen.
+     *
+     * @param item The item.
+     * @return The estimated count, never less than the true count.
+     */
+    public long estimate(String item) {
+        int hash = item.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[row][bucket(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Retrieves the total number of occurrences added.
+     *
+     * @return The total count.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Adds the counts of another sketch of the same size to this one.
+     *
+     * @param other The sketch to merge in.
+     */
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("Only sketches of the same size can be merged.");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int column = 0; column < width; column++) {
+                counts[row][column] += other.counts[row][column];
+            }
+        }
+        total += other.total;
+    }
+
+    /**
+     * Creates an independent copy of this sketch.
+     *
+     * @return The copy.
+     */
+    public CountMinSketch copy() {
+        CountMinSketch copy = new CountMinSketch(depth, width);
+        copy.merge(this);
+        return copy;
+    }
+
+    private int bucket(int hash, int row) {
+        long mixed = hash + SEEDS[row];
+        mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        mixed ^= mixed >>> 31;
+        return (int) Long.remainderUnsigned(mixed, width);
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Drives the spiral motors that push items into the delivery tray. Every slot has its own motor, so the motors
+ * of different slots may turn at the same time, up to what the power supply can drive. {@link DispenseScheduler}
+ * never turns the same motor from two threads at once, so an implementation need not guard against it.
+ */
+public interface DispenseActuator {
+    /**
+     * Turns the motor of a slot once, so one item drops into the tray, and waits until the drop sensor saw it or
+     * the turn timed out. This takes as long as the mechanism does, typically a second or more.
+     *
+     * @param kind  Whether the slot holds a regular item or a special purchase item.
+     * @param index The index of the slot.
+     * @return True if the item dropped; false if the spiral jammed or the slot turned out empty.
+     * @throws InterruptedException If the thread is interrupted while the motor turns.
+     */
+    boolean vend(Cart.Kind kind, int index) throws InterruptedException;
+
+    /**
+     * Retrieves how many motors may turn at once.
+     *
+     * @return The number of motors, at least 1.
+     */
+    int getMaxRunningMotors();
+}
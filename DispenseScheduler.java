@@ -0,0 +1,231 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispenses paid orders through a {@link DispenseActuator}, so a sale no longer waits for the mechanism. A checkout
+ * only queues its order and returns, and the next customer can pay while the current order is still dropping.
+ *
+ * <p>Orders leave through one delivery tray, so they are dispensed one after the other, in the order they were
+ * paid. Within an order, every slot has its own spiral motor: the motors of different slots turn at the same time,
+ * as many as the actuator can drive, while the units of one slot drop one by one. The slots with the most units
+ * start first, so an order takes about as long as its longest slot rather than the sum of all of them. A slot that
+ * jams is not turned again for that order; its remaining units are reported as undelivered.
+ */
+public class DispenseScheduler implements Closeable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Represents how a dispensed order ended.
+     */
+    public static final class Delivery {
+        private final int orderedUnits;
+        private final int deliveredUnits;
+        private final Cart undelivered;
+        private final long waitNanos;
+        private final long dispenseNanos;
+
+        Delivery(int orderedUnits, int deliveredUnits, Cart undelivered, long waitNanos, long dispenseNanos) {
+            this.orderedUnits = orderedUnits;
+            this.deliveredUnits = deliveredUnits;
+            this.undelivered = undelivered;
+            this.waitNanos = waitNanos;
+            this.dispenseNanos = dispenseNanos;
+        }
+
+        /**
+         * Retrieves the number of units the order was for.
+         *
+         * @return The number of units.
+         */
+        public int getOrderedUnits() {
+            return orderedUnits;
+        }
+
+        /**
+         * Retrieves the number of units that dropped into the tray.
+         *
+         * @return The number of units.
+         */
+        public int getDeliveredUnits() {
+            return deliveredUnits;
+        }
+
+        /**
+         * Retrieves whether every unit of the order dropped.
+         *
+         * @return True if the order was delivered in full.
+         */
+        public boolean isComplete() {
+            return deliveredUnits == orderedUnits;
+        }
+
+        /**
+         * Retrieves the units that could not be dispensed, e.g. to refund them.
+         *
+         * @return The undelivered units, as a cart; empty if the order was delivered in full.
+         */
+        public Cart getUndelivered() {
+            return undelivered;
+        }
+
+        /**
+         * Retrieves how long the order waited for the orders before it.
+         *
+         * @return The wait, in milliseconds.
+         */
+        public long getWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        }
+
+        /**
+         * Retrieves how long the order took to dispense once its turn came.
+         *
+         * @return The dispense time, in milliseconds.
+         */
+        public long getDispenseMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(dispenseNanos);
+        }
+    }
+
+    private final DispenseActuator actuator;
+    private final ExecutorService tray;
+    private final ExecutorService motors;
+    private final AtomicInteger queuedOrders;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new dispense scheduler.
+     *
+     * @param actuator The actuator that drives the motors.
+     */
+    public DispenseScheduler(DispenseActuator actuator) {
+        int maxRunningMotors = actuator.getMaxRunningMotors();
+        if (maxRunningMotors <= 0) {
+            throw new IllegalArgumentException("The actuator must be able to turn at least one motor.");
+        }
+        this.actuator = actuator;
+        this.tray = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vending-dispense-tray");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger motorThreads = new AtomicInteger();
+        this.motors = Executors.newFixedThreadPool(maxRunningMotors, runnable -> {
+            Thread thread = new Thread(runnable, "vending-dispense-motor-" + motorThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queuedOrders = new AtomicInteger();
+    }
+
+    /**
+     * Queues a paid order for dispensing. It returns at once; the future completes on the dispenser's thread once
+     * the last unit dropped, so a UI should hand the result back to its own thread.
+     *
+     * @param order The order to dispense. It is copied, so it may be cleared right away.
+     * @return How the order ended.
+     */
+    public CompletableFuture<Delivery> dispense(Cart order) {
+        if (closed) {
+            throw new IllegalStateException("The dispenser is closed.");
+        }
+        List<Cart.Line> lines = new ArrayList<>(order.getLines());
+        long queuedAt = System.nanoTime();
+        queuedOrders.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            queuedOrders.decrementAndGet();
+            return deliver(lines, queuedAt);
+        }, tray);
+    }
+
+    /**
+     * Retrieves the number of orders waiting for the tray, not counting the one dispensing.
+     *
+     * @return The number of orders.
+     */
+    public int getQueuedOrderCount() {
+        return queuedOrders.get();
+    }
+
+    /**
+     * Stops taking orders, dispenses the queued ones, waiting up to a minute, and stops the motor threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        tray.shutdown();
+        try {
+            tray.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            motors.shutdown();
+        }
+    }
+
+    // Runs on the tray thread only
+    private Delivery deliver(List<Cart.Line> lines, long queuedAt) {
+        long started = System.nanoTime();
+        VendingEvents.Dispense event = new VendingEvents.Dispense();
+        event.begin();
+
+        // Longest slots first, so the last motor to start is also one of the first to finish
+        List<Cart.Line> byUnits = new ArrayList<>(lines);
+        byUnits.sort(Comparator.comparingInt(Cart.Line::getQuantity).reversed());
+        List<CompletableFuture<Integer>> turns = new ArrayList<>(byUnits.size());
+        for (Cart.Line line : byUnits) {
+            turns.add(CompletableFuture.supplyAsync(() -> turn(line), motors));
+        }
+
+        int orderedUnits = 0;
+        int deliveredUnits = 0;
+        Cart undelivered = new Cart();
+        for (int i = 0; i < byUnits.size(); i++) {
+            Cart.Line line = byUnits.get(i);
+            int dropped = turns.get(i).join();
+            orderedUnits += line.getQuantity();
+            deliveredUnits += dropped;
+            if (dropped < line.getQuantity()) {
+                if (line.getKind() == Cart.Kind.REGULAR) {
+                    undelivered.addItem(line.getIndex(), line.getQuantity() - dropped);
+                } else {
+                    undelivered.addSpecialPurchaseItem(line.getIndex(), line.getQuantity() - dropped);
+                }
+            }
+        }
+
+        long finished = System.nanoTime();
+        event.end();
+        if (event.shouldCommit()) {
+            event.units = orderedUnits;
+            event.undeliveredUnits = orderedUnits - deliveredUnits;
+            event.motors = byUnits.size();
+            event.waitMillis = TimeUnit.NANOSECONDS.toMillis(started - queuedAt);
+            event.outcome = deliveredUnits == orderedUnits ? "DELIVERED" : "INCOMPLETE";
+            event.commit();
+        }
+        return new Delivery(orderedUnits, deliveredUnits, undelivered, started - queuedAt, finished - started);
+    }
+
+    // Runs on a motor thread; one line is one motor, so no motor is ever turned from two threads
+    private int turn(Cart.Line line) {
+        int dropped = 0;
+        try {
+            while (dropped < line.getQuantity() && actuator.vend(line.getKind(), line.getIndex())) {
+                dropped++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // A motor fault counts as a jam: the slot is left for the operator
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes fleet-wide totals over many vending machines in parallel. The list of machines is split in halves
+ * until the pieces are small, the pieces are summarized on the fork/join pool, and the partial summaries are
+ * combined in list order. Because the combination is exact and associative, the result does not depend on the
+ * number of threads or on scheduling.
+ */
+public class FleetAggregator {
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    /**
+     * Constructs a new aggregator that runs on the common fork/join pool.
+     */
+    public FleetAggregator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new aggregator.
+     *
+     * @param pool      The pool to run on.
+     * @param batchSize The number of machines summarized in one task without splitting further.
+     */
+    public FleetAggregator(ForkJoinPool pool, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Summarizes a fleet of vending machines. Each machine is read through its own consistent read view;
+     * sales may continue while the fleet is being summarized.
+     *
+     * @param machines The vending machines.
+     * @return The fleet summary.
+     */
+    public FleetSummary aggregate(List<VendingMachine> machines) {
+        return pool.invoke(new AggregationTask(machines, 0, machines.size()));
+    }
+
+    /**
+     * Summarizes a range of the fleet, splitting it while it is larger than one batch.
+     */
+    private final class AggregationTask extends RecursiveTask<FleetSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<VendingMachine> machines;
+        private final int from;
+        private final int to;
+
+        AggregationTask(List<VendingMachine> machines, int from, int to) {
+            this.machines = machines;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected FleetSummary compute() {
+            if (to - from <= batchSize) {
+                FleetSummary summary = FleetSummary.EMPTY;
+                for (int i = from; i < to; i++) {
+                    summary = summary.combine(FleetSummary.of(machines.get(i)));
+                }
+                return summary;
+            }
+            int middle = (from + to) >>> 1;
+            AggregationTask left = new AggregationTask(machines, from, middle);
+            AggregationTask right = new AggregationTask(machines, middle, to);
+            right.fork();
+            FleetSummary leftSummary = left.compute();
+            return leftSummary.combine(right.join());
+        }
+    }
+}
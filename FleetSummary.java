@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+/**
+ * Holds fleet-wide totals of stock, revenue, balances and special purchase consumption. Every amount is kept in
+ * centavos or units as a long, so combining summaries is exact and associative: any grouping of the same machines
+ * gives the same totals. Stock is totalled per slot index; a machine with fewer slots contributes 0 to the rest.
+ */
+public final class FleetSummary {
+    /**
+     * The summary of no machines.
+     */
+    public static final FleetSummary EMPTY = new FleetSummary(0, new long[0], new long[0], new long[0], 0, 0, 0, 0);
+
+    private final int machineCount;
+    private final long[] stock;
+    private final long[] specialPurchaseStock;
+    private final long[] specialPurchaseUnitsSold;
+    private final long revenueCents;
+    private final long cashBoxCents;
+    private final long changeFloatCents;
+    private final long emptySlots;
+
+    private FleetSummary(int machineCount, long[] stock, long[] specialPurchaseStock,
+            long[] specialPurchaseUnitsSold, long revenueCents, long cashBoxCents, long changeFloatCents,
+            long emptySlots) {
+        this.machineCount = machineCount;
+        this.stock = stock;
+        this.specialPurchaseStock = specialPurchaseStock;
+        this.specialPurchaseUnitsSold = specialPurchaseUnitsSold;
+        this.revenueCents = revenueCents;
+        this.cashBoxCents = cashBoxCents;
+        this.changeFloatCents = changeFloatCents;
+        this.emptySlots = emptySlots;
+    }
+
+    /**
+     * Summarizes one vending machine from a consistent read view of its state.
+     *
+     * @param vendingMachine The vending machine.
+     * @return The summary of that machine alone.
+     */
+    static FleetSummary of(VendingMachine vendingMachine) {
+        SalesAnalytics sales = vendingMachine.getSalesAnalytics();
+        try (ReadView view = vendingMachine.openReadView()) {
+            int[] quantities = view.getQuantities();
+            int[] specialPurchaseQuantities = view.getSpecialPurchaseQuantities();
+            CatalogSnapshot catalog = view.getCatalog();
+
+            long[] stock = new long[quantities.length];
+            long emptySlots = 0;
+            for (int i = 0; i < quantities.length; i++) {
+                stock[i] = quantities[i];
+                if (quantities[i] == 0 && catalog.getName(CatalogFile.Section.REGULAR, i) != null) {
+                    emptySlots++;
+                }
+            }
+            long[] specialPurchaseStock = new long[specialPurchaseQuantities.length];
+            long[] specialPurchaseUnitsSold = new long[specialPurchaseQuantities.length];
+            for (int i = 0; i < specialPurchaseQuantities.length; i++) {
+                specialPurchaseStock[i] = specialPurchaseQuantities[i];
+                String name = catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, i);
+                if (name != null) {
+                    specialPurchaseUnitsSold[i] = sales.estimateUnitsSold(name);
+                    if (specialPurchaseQuantities[i] == 0) {
+                        emptySlots++;
+                    }
+                }
+            }
+            return new FleetSummary(1, stock, specialPurchaseStock, specialPurchaseUnitsSold,
+                    view.getBalanceCents(CashLedger.Account.REVENUE),
+                    view.getBalanceCents(CashLedger.Account.CASH_BOX),
+                    view.getBalanceCents(CashLedger.Account.CHANGE_FLOAT), emptySlots);
+        }
+    }
+
+    /**
+     * Combines this summary with the summary of other machines.
+     *
+     * @param other The other summary.
+     * @return The summary of both groups of machines.
+     */
+    public FleetSummary combine(FleetSummary other) {
+        return new FleetSummary(machineCount + other.machineCount, add(stock, other.stock),
+                add(specialPurchaseStock, other.specialPurchaseStock),
+                add(specialPurchaseUnitsSold, other.specialPurchaseUnitsSold), revenueCents + other.revenueCents,
+                cashBoxCents + other.cashBoxCents, changeFloatCents + other.changeFloatCents,
+                emptySlots + other.emptySlots);
+    }
+
+    /**
+     * Retrieves the number of machines summarized.
+     *
+     * @return The number of machines.
+     */
+    public int getMachineCount() {
+        return machineCount;
+    }
+
+    /**
+     * Retrieves the total stock of each regular item slot.
+     *
+     * @return A copy of the stock per slot.
+     */
+    public long[] getStock() {
+        return stock.clone();
+    }
+
+    /**
+     * Retrieves the total stock of each special purchase item slot.
+     *
+     * @return A copy of the stock per slot.
+     */
+    public long[] getSpecialPurchaseStock() {
+        return specialPurchaseStock.clone();
+    }
+
+    /**
+     * Retrieves the units sold of each special purchase item slot. Each machine's count comes from its sales
+     * sketch, so it may slightly overestimate.
+     *
+     * @return A copy of the units sold per slot.
+     */
+    public long[] getSpecialPurchaseUnitsSold() {
+        return specialPurchaseUnitsSold.clone();
+    }
+
+    /**
+     * Retrieves the total revenue.
+     *
+     * @return The revenue, in centavos.
+     */
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+
+    /**
+     * Retrieves the total money in the cash boxes.
+     *
+     * @return The cash box balance, in centavos.
+     */
+    public long getCashBoxCents() {
+        return cashBoxCents;
+    }
+
+    /**
+     * Retrieves the total change available.
+     *
+     * @return The change float balance, in centavos.
+     */
+    public long getChangeFloatCents() {
+        return changeFloatCents;
+    }
+
+    /**
+     * Retrieves the number of item slots that are sold out.
+     *
+     * @return The number of empty slots.
+     */
+    public long getEmptySlots() {
+        return emptySlots;
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] sum = Arrays.copyOf(a.length >= b.length ? a : b, Math.max(a.length, b.length));
+        long[] shorter = a.length >= b.length ? b : a;
+        for (int i = 0; i < shorter.length; i++) {
+            sum[i] += shorter[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes a flight recording of a vending machine offline, so a slow machine can be diagnosed from the
+ * {@code .jfr} file alone. It reports the latency of each operation recorded by {@link VendingEvents}, how the
+ * checkouts ended, the slowest operations, and the GC pauses and lock contention that ran alongside them.
+ *
+ * <pre>
+ *     java FlightRecordingAnalyzer kiosk.jfr
+ * </pre>
+ */
+public class FlightRecordingAnalyzer {
+    private static final String EVENT_PREFIX = "vending.";
+    private static final int SLOWEST_LIMIT = 10;
+
+    /**
+     * Collects the durations of one kind of operation.
+     */
+    private static final class Latencies {
+        long[] nanos = new long[64];
+        int count;
+
+        void add(long duration) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = duration;
+        }
+
+        long percentile(long[] sorted, double fraction) {
+            return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+        }
+
+        String describe(String operation) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long duration : sorted) {
+                total += duration;
+            }
+            return String.format("%-40s %8d %10s %10s %10s %10s %10s", operation, count, millis(total / count),
+                    millis(percentile(sorted, 0.5)), millis(percentile(sorted, 0.95)),
+                    millis(percentile(sorted, 0.99)), millis(sorted[count - 1]));
+        }
+    }
+
+    private final Map<String, Latencies> latencies;
+    private final Map<String, Integer> outcomes;
+    private final List<RecordedEvent> slowest;
+    private final Latencies gcPauses;
+    private final Latencies lockWaits;
+
+    private FlightRecordingAnalyzer() {
+        latencies = new TreeMap<>();
+        outcomes = new TreeMap<>();
+        slowest = new ArrayList<>();
+        gcPauses = new Latencies();
+        lockWaits = new Latencies();
+    }
+
+    /**
+     * Reads a recording and builds its report.
+     *
+     * @param recording The path of the {@code .jfr} file.
+     * @return The report text.
+     * @throws IOException If the recording cannot be read.
+     */
+    public static String analyze(Path recording) throws IOException {
+        FlightRecordingAnalyzer analyzer = new FlightRecordingAnalyzer();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                analyzer.accept(file.readEvent());
+            }
+        }
+        return analyzer.report();
+    }
+
+    private void accept(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        long duration = event.getDuration().toNanos();
+        if (name.equals("jdk.GarbageCollection")) {
+            gcPauses.add(event.getDuration("longestPause").toNanos());
+            return;
+        }
+        if (name.equals("jdk.JavaMonitorEnter")) {
+            lockWaits.add(duration);
+            return;
+        }
+        if (!name.startsWith(EVENT_PREFIX)) {
+            return;
+        }
+
+        String operation = event.getEventType().getLabel();
+        if (event.hasField("operation")) {
+            operation += " (" + event.getString("operation") + ")";
+        } else if (event.hasField("kind")) {
+            operation += " (" + event.getString("kind") + ")";
+        } else if (event.hasField("frontEnd")) {
+            operation += " (" + event.getString("frontEnd") + ")";
+        }
+        latencies.computeIfAbsent(operation, key -> new Latencies()).add(duration);
+        if (event.hasField("outcome")) {
+            outcomes.merge(event.getEventType().getLabel() + " " + event.getString("outcome"), 1, Integer::sum);
+        }
+
+        // Keep only the slowest few, so a week-long recording needs no more memory than an hour-long one
+        slowest.add(event);
+        if (slowest.size() > SLOWEST_LIMIT * 4) {
+            trimSlowest();
+        }
+    }
+
+    private void trimSlowest() {
+        slowest.sort(Comparator.comparing((RecordedEvent event) -> event.getDuration()).reversed());
+        slowest.subList(Math.min(SLOWEST_LIMIT, slowest.size()), slowest.size()).clear();
+    }
+
+    private String report() {
+        StringBuilder report = new StringBuilder("Latency by operation (ms):\n");
+        report.append(String.format("%-40s %8s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Mean", "p50",
+                "p95", "p99", "Max"));
+        if (latencies.isEmpty()) {
+            report.append("No vending machine events. Was the recording started with vending.jfc?\n");
+        }
+        for (Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            report.append(entry.getValue().describe(entry.getKey())).append("\n");
+        }
+
+        if (!outcomes.isEmpty()) {
+            report.append("\nOutcomes:\n");
+            for (Map.Entry<String, Integer> entry : outcomes.entrySet()) {
+                report.append(String.format("%-40s %8d%n", entry.getKey(), entry.getValue()));
+            }
+        }
+
+        trimSlowest();
+        if (!slowest.isEmpty()) {
+            report.append("\nSlowest operations:\n");
+            for (RecordedEvent event : slowest) {
+                report.append(String.format("%10s ms  %s  %s%s%n", millis(event.getDuration().toNanos()),
+                        event.getStartTime(), event.getEventType().getLabel(),
+                        event.hasField("sku") ? "  " + event.getString("sku") : ""));
+            }
+        }
+
+        report.append("\nAlongside:\n");
+        report.append(describeTotal("GC pauses", gcPauses));
+        report.append(describeTotal("Lock waits over threshold", lockWaits));
+        return report.toString();
+    }
+
+    private static String describeTotal(String label, Latencies latencies) {
+        long total = 0;
+        long longest = 0;
+        for (int i = 0; i < latencies.count; i++) {
+            total += latencies.nanos[i];
+            longest = Math.max(longest, latencies.nanos[i]);
+        }
+        return String.format("%-40s %8d  total %s ms, longest %s ms%n", label, latencies.count, millis(total),
+                millis(longest));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / (double) Duration.ofMillis(1).toNanos());
+    }
+
+    /**
+     * Prints the report of a recording.
+     *
+     * @param args The path of the {@code .jfr} file.
+     * @throws IOException If the recording cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java FlightRecordingAnalyzer <recording.jfr>");
+            System.exit(2);
+        }
+        System.out.print(analyze(Paths.get(args[0])));
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the results of recently executed commands by idempotency key, so a retried command returns the
+ * original outcome instead of running again. Lookups are lock-free. The cache is bounded: entries expire after a
+ * fixed time, and when it is full the oldest entries are evicted unless they were read since they were last
+ * considered (a CLOCK approximation of LRU that needs no lock on the read path).
+ *
+ * @param <V> The type of the command results.
+ */
+public class IdempotencyCache<V> {
+    private final ConcurrentHashMap<String, Entry<V>> entries;
+    private final Queue<Entry<V>> evictionOrder;
+    private final AtomicInteger size;
+    private final AtomicInteger queued;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * Holds a result, or the promise of one while the first attempt is still running.
+     */
+    private static final class Entry<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final String key;
+        final long createdAt;
+        volatile boolean referenced;
+
+        Entry(String key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * Constructs a new cache that uses the system clock.
+     *
+     * @param maxEntries The maximum number of results to keep.
+     * @param ttl        How long a result is kept.
+     * @param unit       The unit of the time to live.
+     */
+    public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, System::nanoTime);
+    }
+
+    /**
+     * Constructs a new cache with an explicit clock.
+     *
+     * @param maxEntries The maximum number of results to keep.
+     * @param ttl        How long a result is kept.
+     * @param unit       The unit of the time to live.
+     * @param clock      The source of the current time, in nanoseconds.
+     */
+    public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The cache must hold at least one entry.");
+        }
+        this.entries = new ConcurrentHashMap<>();
+        this.evictionOrder = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.queued = new AtomicInteger();
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Runs a command once per key. A retry with the same key returns the first result without running the command;
+     * a retry that arrives while the first attempt is still running waits for its result.
+     * If the command throws, nothing is remembered and the next retry runs it again.
+     *
+     * @param key       The idempotency key chosen by the caller.
+     * @param operation The command to run.
+     * @return The result of the first successful run for this key.
+     */
+    public V execute(String key, Supplier<V> operation) {
+        long now = clock.getAsLong();
+        while (true) {
+            Entry<V> existing = entries.get(key);
+            if (existing != null && !isExpired(existing, now)) {
+                existing.referenced = true;
+                return await(existing);
+            }
+            Entry<V> created = new Entry<>(key, now);
+            boolean installed = existing == null ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, existing, created);
+            if (!installed) {
+                continue; // Another attempt got there first; use its entry
+            }
+            if (existing == null) {
+                size.incrementAndGet();
+            }
+            enqueue(created);
+            try {
+                created.result.complete(operation.get());
+            } catch (RuntimeException | Error e) {
+                created.result.completeExceptionally(e);
+                if (entries.remove(key, created)) {
+                    size.decrementAndGet();
+                }
+                throw e;
+            }
+            evictIfFull(now);
+            return created.result.join();
+        }
+    }
+
+    /**
+     * Retrieves the remembered result for a key without running anything.
+     *
+     * @param key The idempotency key.
+     * @return The remembered result, or null if there is none or it is still being computed.
+     */
+    public V getIfPresent(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || isExpired(entry, clock.getAsLong()) || !entry.result.isDone()
+                || entry.result.isCompletedExceptionally()) {
+            return null;
+        }
+        entry.referenced = true;
+        return entry.result.join();
+    }
+
+    /**
+     * Retrieves the number of remembered results.
+     *
+     * @return The number of entries, including expired ones not yet evicted.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return now - entry.createdAt > ttlNanos;
+    }
+
+    private V await(Entry<V> entry) {
+        try {
+            return entry.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a retried command.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void enqueue(Entry<V> entry) {
+        evictionOrder.add(entry);
+        queued.incrementAndGet();
+    }
+
+    // Runs only on the write path. Each queue slot is examined at most twice per call, so eviction stays bounded.
+    // Replacing an expired entry leaves a stale slot behind, so the queue is also trimmed when it grows too long.
+    private void evictIfFull(long now) {
+        int budget = 2 * queued.get();
+        while ((size.get() > maxEntries || queued.get() > 2 * maxEntries) && budget-- > 0) {
+            Entry<V> entry = evictionOrder.poll();
+            if (entry == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (entries.get(entry.key) != entry) {
+                continue; // Stale slot of an entry already removed or replaced
+            }
+            if (size.get() <= maxEntries) {
+                enqueue(entry); // Only trimming stale slots; keep live entries
+                continue;
+            }
+            if (entry.referenced && !isExpired(entry, now)) {
+                entry.referenced = false;
+                enqueue(entry); // Second chance
+                continue;
+            }
+            if (entries.remove(entry.key, entry)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the history of a vending machine's stock levels and ledger balances in a {@link TimeSeriesStore}.
+ * Each slot and each account is its own series, and a sample is only stored when its level changes. The machine
+ * marks the slots a change touched, so sampling after a sale reads one slot rather than all of them. Samples
+ * older than the retention period are dropped once a day, keeping the level they ended on.
+ *
+ * <p>A level can drop for reasons other than a sale: an operator takes units out, removes an item or restocks
+ * below the current level. Sales are therefore also counted in a series of their own per slot, holding the
+ * units sold so far, so demand is never read from level changes.</p>
+ */
+public class InventoryHistory {
+    /**
+     * How long samples are kept by default: long enough for a four-week restock lookback.
+     */
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(35);
+
+    private static final long ROLL_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Series names are built once per slot and shared by every machine, since sampling runs after every change
+    private static final String[] BALANCE_NAMES = new String[CashLedger.Account.values().length];
+    private static volatile String[] regularNames = new String[0];
+    private static volatile String[] specialPurchaseNames = new String[0];
+
+    static {
+        for (CashLedger.Account account : CashLedger.Account.values()) {
+            BALANCE_NAMES[account.ordinal()] = balanceSeries(account);
+        }
+    }
+
+    private final TimeSeriesStore store;
+    private final long retentionMillis;
+    private final BitSet changedSlots;
+    private final BitSet changedSpecialPurchaseSlots;
+    private long lastTime;
+    private long lastRoll;
+
+    /**
+     * Constructs a new, empty history that keeps samples for {@link #DEFAULT_RETENTION_MILLIS}.
+     */
+    public InventoryHistory() {
+        this(DEFAULT_RETENTION_MILLIS);
+    }
+
+    /**
+     * Constructs a new, empty history.
+     *
+     * @param retentionMillis How long samples are kept, in milliseconds.
+     */
+    public InventoryHistory(long retentionMillis) {
+        if (retentionMillis <= 0) {
+            throw new IllegalArgumentException("The retention must be positive.");
+        }
+        this.store = new TimeSeriesStore();
+        this.retentionMillis = retentionMillis;
+        this.changedSlots = new BitSet();
+        this.changedSpecialPurchaseSlots = new BitSet();
+    }
+
+    /**
+     * Retrieves the name of the series of a regular item slot.
+     *
+     * @param index The slot index.
+     * @return The series name.
+     */
+    public static String regularSeries(int index) {
+        return "regular/" + index;
+    }
+
+    /**
+     * Retrieves the name of the series of a special purchase item slot.
+     *
+     * @param index The slot index.
+     * @return The series name.
+     */
+    public static String specialPurchaseSeries(int index) {
+        return "special-purchase/" + index;
+    }
+
+    /**
+     * Retrieves the name of the series counting the units sold from a regular item slot.
+     *
+     * @param index The slot index.
+     * @return The series name.
+     */
+    public static String soldSeries(int index) {
+        return "sold/regular/" + index;
+    }
+
+    /**
+     * Retrieves the name of the series counting the units sold from a special purchase item slot.
+     *
+     * @param index The slot index.
+     * @return The series name.
+     */
+    public static String specialPurchaseSoldSeries(int index) {
+        return "sold/special-purchase/" + index;
+    }
+
+    /**
+     * Retrieves the name of the series of a ledger account balance.
+     *
+     * @param account The account.
+     * @return The series name.
+     */
+    public static String balanceSeries(CashLedger.Account account) {
+        return "balance/" + account.name();
+    }
+
+    /**
+     * Marks a regular item slot as changed, so the next sample reads it.
+     *
+     * @param index The slot index.
+     */
+    synchronized void slotChanged(int index) {
+        changedSlots.set(index);
+    }
+
+    /**
+     * Marks a special purchase item slot as changed, so the next sample reads it.
+     *
+     * @param index The slot index.
+     */
+    synchronized void specialPurchaseSlotChanged(int index) {
+        changedSpecialPurchaseSlots.set(index);
+    }
+
+    /**
+     * Counts units sold from a slot, adding them to the slot's running total of units sold.
+     *
+     * @param series The sold series of the slot, from {@link #soldSeries(int)} or
+     *               {@link #specialPurchaseSoldSeries(int)}.
+     * @param time   When the units were sold, in milliseconds since the epoch.
+     * @param units  The number of units sold; negative for units refunded because they were not dispensed.
+     */
+    synchronized void sold(String series, long time, int units) {
+        time = Math.max(time, lastTime);
+        lastTime = time;
+        store.append(series, time, store.getLatest(series, 0) + units);
+    }
+
+    /**
+     * Marks every slot as changed, e.g. after a restock or a new catalog.
+     *
+     * @param slots                The number of regular item slots.
+     * @param specialPurchaseSlots The number of special purchase item slots.
+     */
+    synchronized void allSlotsChanged(int slots, int specialPurchaseSlots) {
+        changedSlots.set(0, slots);
+        changedSpecialPurchaseSlots.set(0, specialPurchaseSlots);
+    }
+
+    /**
+     * Samples the slots marked as changed since the last sample and the ledger balances, storing only the levels
+     * that differ from the previous sample.
+     *
+     * @param time                      When the levels were read, in milliseconds since the epoch.
+     * @param quantities                The regular item quantities.
+     * @param specialPurchaseQuantities The special purchase item quantities.
+     * @param balanceCents              The ledger balances, in the order of {@link CashLedger.Account}.
+     */
+    synchronized void sample(long time, short[] quantities, short[] specialPurchaseQuantities, long[] balanceCents) {
+        // The wall clock can step back; keep every series in time order regardless
+        time = Math.max(time, lastTime);
+        lastTime = time;
+        String[] regular = regularNames;
+        if (regular.length < quantities.length) {
+            regular = growRegularNames(quantities.length);
+        }
+        String[] specialPurchase = specialPurchaseNames;
+        if (specialPurchase.length < specialPurchaseQuantities.length) {
+            specialPurchase = growSpecialPurchaseNames(specialPurchaseQuantities.length);
+        }
+        for (int i = changedSlots.nextSetBit(0); i >= 0 && i < quantities.length; i = changedSlots.nextSetBit(i + 1)) {
+            store.appendIfChanged(regular[i], time, quantities[i]);
+        }
+        for (int i = changedSpecialPurchaseSlots.nextSetBit(0); i >= 0 && i < specialPurchaseQuantities.length;
+                i = changedSpecialPurchaseSlots.nextSetBit(i + 1)) {
+            store.appendIfChanged(specialPurchase[i], time, specialPurchaseQuantities[i]);
+        }
+        changedSlots.clear();
+        changedSpecialPurchaseSlots.clear();
+        for (int i = 0; i < BALANCE_NAMES.length; i++) {
+            store.appendIfChanged(BALANCE_NAMES[i], time, balanceCents[i]);
+        }
+        if (time - lastRoll >= ROLL_INTERVAL_MILLIS) {
+            store.dropBefore(time - retentionMillis);
+            lastRoll = time;
+        }
+    }
+
+    private static synchronized String[] growRegularNames(int slots) {
+        if (regularNames.length < slots) {
+            String[] names = new String[slots];
+            for (int i = 0; i < slots; i++) {
+                names[i] = regularSeries(i);
+            }
+            regularNames = names;
+        }
+        return regularNames;
+    }
+
+    private static synchronized String[] growSpecialPurchaseNames(int slots) {
+        if (specialPurchaseNames.length < slots) {
+            String[] names = new String[slots];
+            for (int i = 0; i < slots; i++) {
+                names[i] = specialPurchaseSeries(i);
+            }
+            specialPurchaseNames = names;
+        }
+        return specialPurchaseNames;
+    }
+
+    /**
+     * Retrieves the underlying store, e.g. to query a series for a dashboard.
+     *
+     * @return The time-series store.
+     */
+    public TimeSeriesStore getStore() {
+        return store;
+    }
+}
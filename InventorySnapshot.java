@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * Represents an immutable, versioned copy of a vending machine's synchronizable state.
+ * Prices and balances are stored in centavos so that they can be compared and delta-encoded exactly.
+ */
+public final class InventorySnapshot {
+    /** The empty snapshot every receiver starts from; a delta against it is a full snapshot. */
+    public static final InventorySnapshot EMPTY = new InventorySnapshot(0, new int[0], new long[0], new int[0],
+            new long[0]);
+
+    private final long version;
+    private final int[] quantities;
+    private final long[] priceCents;
+    private final int[] specialPurchaseQuantities;
+    private final long[] balanceCents;
+
+    /**
+     * Constructs a new snapshot. The arrays are copied, so later changes by the caller are not visible.
+     *
+     * @param version                   The version number of this snapshot.
+     * @param quantities                The quantities of the regular items.
+     * @param priceCents                The prices of the regular items, in centavos.
+     * @param specialPurchaseQuantities The quantities of the special purchase items.
+     * @param balanceCents              The machine balances, in centavos.
+     */
+    public InventorySnapshot(long version, int[] quantities, long[] priceCents, int[] specialPurchaseQuantities,
+            long[] balanceCents) {
+        this.version = version;
+        this.quantities = Arrays.copyOf(quantities, quantities.length);
+        this.priceCents = Arrays.copyOf(priceCents, priceCents.length);
+        this.specialPurchaseQuantities = Arrays.copyOf(specialPurchaseQuantities, specialPurchaseQuantities.length);
+        this.balanceCents = Arrays.copyOf(balanceCents, balanceCents.length);
+    }
+
+    /**
+     * Converts an amount in pesos to centavos.
+     *
+     * @param amount The amount in pesos.
+     * @return The amount in centavos, rounded to the nearest centavo.
+     */
+    public static long toCents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    /**
+     * Converts an array of peso amounts to centavos.
+     *
+     * @param amounts The amounts in pesos.
+     * @return A new array holding the amounts in centavos.
+     */
+    public static long[] toCents(double[] amounts) {
+        long[] cents = new long[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            cents[i] = toCents(amounts[i]);
+        }
+        return cents;
+    }
+
+    /**
+     * Returns a copy of this snapshot carrying a different version number.
+     *
+     * @param newVersion The version number of the copy.
+     * @return The re-versioned snapshot.
+     */
+    public InventorySnapshot withVersion(long newVersion) {
+        return new InventorySnapshot(newVersion, quantities, priceCents, specialPurchaseQuantities, balanceCents);
+    }
+
+    /**
+     * Retrieves the version number of this snapshot.
+     *
+     * @return The version number.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the quantities of the regular items.
+     *
+     * @return A copy of the regular item quantities.
+     */
+    public int[] getQuantities() {
+        return Arrays.copyOf(quantities, quantities.length);
+    }
+
+    /**
+     * Retrieves the prices of the regular items.
+     *
+     * @return A copy of the regular item prices, in centavos.
+     */
+    public long[] getPriceCents() {
+        return Arrays.copyOf(priceCents, priceCents.length);
+    }
+
+    /**
+     * Retrieves the quantities of the special purchase items.
+     *
+     * @return A copy of the special purchase item quantities.
+     */
+    public int[] getSpecialPurchaseQuantities() {
+        return Arrays.copyOf(specialPurchaseQuantities, specialPurchaseQuantities.length);
+    }
+
+    /**
+     * Retrieves the machine balances.
+     *
+     * @return A copy of the balances, in centavos.
+     */
+    public long[] getBalanceCents() {
+        return Arrays.copyOf(balanceCents, balanceCents.length);
+    }
+
+    // Package-private views used by the codec so that encoding does not copy every array.
+    int[] quantitiesView() {
+        return quantities;
+    }
+
+    long[] priceCentsView() {
+        return priceCents;
+    }
+
+    int[] specialPurchaseQuantitiesView() {
+        return specialPurchaseQuantities;
+    }
+
+    long[] balanceCentsView() {
+        return balanceCents;
+    }
+
+    /**
+     * Checks whether another snapshot holds the same state, ignoring the version number.
+     *
+     * @param other The snapshot to compare with.
+     * @return True if every array is equal, false otherwise.
+     */
+    public boolean sameStateAs(InventorySnapshot other) {
+        return Arrays.equals(quantities, other.quantities)
+                && Arrays.equals(priceCents, other.priceCents)
+                && Arrays.equals(specialPurchaseQuantities, other.specialPurchaseQuantities)
+                && Arrays.equals(balanceCents, other.balanceCents);
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes a vending machine's inventory as compact, versioned deltas for fleet synchronization.
+ * One codec instance represents the sending side of a single link: every delta is computed against
+ * the last version the receiver acknowledged, so lost deltas are simply superseded by the next one.
+ *
+ * <p>Wire format: a format byte, the base version and the version increment as varints, then four
+ * sections (quantities, prices, special purchase quantities, balances). Each section holds its length,
+ * the number of changed slots and, for every changed slot, the index gap and the zigzag-encoded
+ * difference from the base value.</p>
+ */
+public class InventorySnapshotCodec {
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_PENDING = 64;
+
+    private InventorySnapshot lastAcknowledged;
+    private final LinkedHashMap<Long, InventorySnapshot> pending;
+    private long lastVersion;
+
+    /**
+     * Constructs a new codec whose receiver is assumed to hold nothing yet.
+     */
+    public InventorySnapshotCodec() {
+        lastAcknowledged = InventorySnapshot.EMPTY;
+        pending = new LinkedHashMap<>();
+        lastVersion = 0;
+    }
+
+    /**
+     * Stamps the current state with the next version and encodes it against the last acknowledged version.
+     *
+     * @param current The current state of the machine; its version number is ignored.
+     * @return The encoded delta.
+     */
+    public synchronized byte[] encodeNext(InventorySnapshot current) {
+        InventorySnapshot stamped = current.withVersion(++lastVersion);
+        pending.put(stamped.getVersion(), stamped);
+        if (pending.size() > MAX_PENDING) {
+            Iterator<Long> eldest = pending.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return encodeDelta(lastAcknowledged, stamped);
+    }
+
+    /**
+     * Records that the receiver has applied the given version, so later deltas are computed against it.
+     *
+     * @param version The acknowledged version.
+     */
+    public synchronized void acknowledge(long version) {
+        InventorySnapshot acknowledged = pending.get(version);
+        if (acknowledged == null || acknowledged.getVersion() <= lastAcknowledged.getVersion()) {
+            return; // Duplicate or stale acknowledgement
+        }
+        lastAcknowledged = acknowledged;
+        Iterator<Map.Entry<Long, InventorySnapshot>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey() <= version) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets the acknowledged state so the next delta is a full snapshot, e.g. after the receiver was reset.
+     */
+    public synchronized void reset() {
+        lastAcknowledged = InventorySnapshot.EMPTY;
+        pending.clear();
+    }
+
+    /**
+     * Retrieves the last version acknowledged by the receiver.
+     *
+     * @return The acknowledged version, or 0 if nothing was acknowledged yet.
+     */
+    public synchronized long getAcknowledgedVersion() {
+        return lastAcknowledged.getVersion();
+    }
+
+    /**
+     * Encodes the changes needed to turn one snapshot into another.
+     *
+     * @param base   The snapshot the receiver already holds.
+     * @param target The snapshot the receiver should end up with.
+     * @return The encoded delta.
+     */
+    public static byte[] encodeDelta(InventorySnapshot base, InventorySnapshot target) {
+        if (target.getVersion() <= base.getVersion()) {
+            throw new IllegalArgumentException("Target version " + target.getVersion()
+                    + " is not newer than base version " + base.getVersion());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.write(FORMAT_VERSION);
+        writeVarint(out, base.getVersion());
+        writeVarint(out, target.getVersion() - base.getVersion());
+        writeSection(out, toLongs(base.quantitiesView()), toLongs(target.quantitiesView()));
+        writeSection(out, base.priceCentsView(), target.priceCentsView());
+        writeSection(out, toLongs(base.specialPurchaseQuantitiesView()),
+                toLongs(target.specialPurchaseQuantitiesView()));
+        writeSection(out, base.balanceCentsView(), target.balanceCentsView());
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies a delta to the snapshot it was encoded against.
+     * Applying a delta whose target version the receiver already holds returns the receiver's snapshot unchanged.
+     *
+     * @param base  The snapshot currently held by the receiver.
+     * @param delta The encoded delta.
+     * @return The resulting snapshot.
+     * @throws IllegalStateException If the delta was encoded against a different version.
+     */
+    public static InventorySnapshot applyDelta(InventorySnapshot base, byte[] delta) {
+        Reader in = new Reader(delta);
+        long baseVersion = in.readVarint();
+        long targetVersion = baseVersion + in.readVarint();
+        if (base.getVersion() >= targetVersion) {
+            return base; // Already applied
+        }
+        if (base.getVersion() != baseVersion) {
+            throw new IllegalStateException("Delta is based on version " + baseVersion + " but receiver holds version "
+                    + base.getVersion());
+        }
+        return in.readBody(base, targetVersion);
+    }
+
+    /**
+     * Reads the target version of a delta without applying it.
+     *
+     * @param delta The encoded delta.
+     * @return The version the delta produces.
+     */
+    public static long targetVersionOf(byte[] delta) {
+        Reader in = new Reader(delta);
+        long baseVersion = in.readVarint();
+        return baseVersion + in.readVarint();
+    }
+
+    private static void writeSection(ByteArrayOutputStream out, long[] base, long[] target) {
+        int changed = 0;
+        for (int i = 0; i < target.length; i++) {
+            if (target[i] != valueAt(base, i)) {
+                changed++;
+            }
+        }
+        writeVarint(out, target.length);
+        writeVarint(out, changed);
+        int previous = -1;
+        for (int i = 0; i < target.length; i++) {
+            long oldValue = valueAt(base, i);
+            if (target[i] != oldValue) {
+                writeVarint(out, i - previous - 1);
+                writeVarint(out, zigzag(target[i] - oldValue));
+                previous = i;
+            }
+        }
+    }
+
+    private static long valueAt(long[] values, int index) {
+        return index < values.length ? values[index] : 0L;
+    }
+
+    private static long[] toLongs(int[] values) {
+        long[] longs = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            longs[i] = values[i];
+        }
+        return longs;
+    }
+
+    private static int[] toInts(long[] values) {
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ints[i] = (int) values[i];
+        }
+        return ints;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a delta sequentially.
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+            if (data.length == 0 || data[0] != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot delta format.");
+            }
+            this.position = 1;
+        }
+
+        long readVarint() {
+            long result = 0;
+            int shift = 0;
+            while (shift < 64) {
+                if (position >= data.length) {
+                    throw new IllegalArgumentException("Truncated snapshot delta.");
+                }
+                byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+            throw new IllegalArgumentException("Malformed varint in snapshot delta.");
+        }
+
+        long[] readSection(long[] base) {
+            int length = (int) readVarint();
+            int changed = (int) readVarint();
+            long[] values = new long[length];
+            System.arraycopy(base, 0, values, 0, Math.min(base.length, length));
+            int index = -1;
+            for (int i = 0; i < changed; i++) {
+                index += (int) readVarint() + 1;
+                if (index >= length) {
+                    throw new IllegalArgumentException("Snapshot delta slot out of range: " + index);
+                }
+                values[index] += unzigzag(readVarint());
+            }
+            return values;
+        }
+
+        InventorySnapshot readBody(InventorySnapshot base, long targetVersion) {
+            long[] quantities = readSection(toLongs(base.quantitiesView()));
+            long[] priceCents = readSection(base.priceCentsView());
+            long[] specialPurchaseQuantities = readSection(toLongs(base.specialPurchaseQuantitiesView()));
+            long[] balanceCents = readSection(base.balanceCentsView());
+            return new InventorySnapshot(targetVersion, toInts(quantities), priceCents,
+                    toInts(specialPurchaseQuantities), balanceCents);
+        }
+    }
+
+    /**
+     * Represents the receiving side of a link. It keeps a small window of recently applied versions,
+     * so a delta encoded against any of them can still be applied when acknowledgements are lost.
+     */
+    public static class Receiver {
+        private static final int RETAINED_VERSIONS = 16;
+
+        private final LinkedHashMap<Long, InventorySnapshot> retained;
+        private InventorySnapshot current;
+
+        /**
+         * Constructs a new receiver that holds nothing yet.
+         */
+        public Receiver() {
+            retained = new LinkedHashMap<Long, InventorySnapshot>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, InventorySnapshot> eldest) {
+                    return size() > RETAINED_VERSIONS;
+                }
+            };
+            current = InventorySnapshot.EMPTY;
+            retained.put(current.getVersion(), current);
+        }
+
+        /**
+         * Applies a delta. Applying the same delta again, or an older one, leaves the state unchanged.
+         *
+         * @param delta The encoded delta.
+         * @return The version to acknowledge to the sender.
+         * @throws IllegalStateException If the delta's base version is no longer retained and a full resync is needed.
+         */
+        public synchronized long apply(byte[] delta) {
+            Reader in = new Reader(delta);
+            long baseVersion = in.readVarint();
+            long targetVersion = baseVersion + in.readVarint();
+            if (targetVersion <= current.getVersion()) {
+                return current.getVersion();
+            }
+            InventorySnapshot base = baseVersion == 0 ? InventorySnapshot.EMPTY : retained.get(baseVersion);
+            if (base == null) {
+                throw new IllegalStateException("Base version " + baseVersion + " is no longer retained.");
+            }
+            current = in.readBody(base, targetVersion);
+            retained.put(targetVersion, current);
+            return targetVersion;
+        }
+
+        /**
+         * Retrieves the most recent state received.
+         *
+         * @return The current snapshot.
+         */
+        public synchronized InventorySnapshot getCurrent() {
+            return current;
+        }
+    }
+}
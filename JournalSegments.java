@@ -0,0 +1,564 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a {@link CommandJournal} in a directory of numbered segments and bounds how much storage it takes.
+ * The journal appends to a live segment and hands it over here when it is full. A background thread at the
+ * lowest priority then:
+ *
+ * <ul>
+ *     <li>compresses each sealed segment in blocks, with the bytes of the fixed-size records grouped by position
+ *     and deflated at the fastest level;</li>
+ *     <li>compacts compressed segments older than a number of days into per-day totals per slot and command;</li>
+ *     <li>deletes the oldest segments once they are older than the retention age or the directory is over its
+ *     size budget.</li>
+ * </ul>
+ *
+ * <p>Appends never wait for any of this: the journal's flush thread only asks for a new segment name and queues
+ * the old one. {@link #read} returns the records of compressed, sealed and live segments alike, and
+ * {@link #readDaily} the daily totals of every segment, compacted or not.
+ */
+public class JournalSegments implements Closeable {
+    private static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int DEFAULT_COMPACT_AFTER_DAYS = 30;
+    private static final int DEFAULT_RETAIN_DAYS = 5 * 365;
+    private static final long DEFAULT_RETAIN_BYTES = 256L * 1024 * 1024;
+    private static final long MAINTENANCE_PERIOD_MINUTES = 60;
+
+    private static final String LIVE_SUFFIX = ".log";
+    private static final String COMPRESSED_SUFFIX = ".z";
+    private static final String DAILY_SUFFIX = ".daily";
+    private static final int COMPRESSED_MAGIC = 0x564A5A31; // "VJZ1"
+    private static final int DAILY_MAGIC = 0x564A4431; // "VJD1"
+    private static final int BLOCK_RECORDS = 2048;
+
+    /**
+     * Receives the daily totals of a journal.
+     */
+    public interface DailyVisitor {
+        /**
+         * Receives the totals of one slot, command and outcome on one day.
+         *
+         * @param day         The day, in the time zone of the journal.
+         * @param command     The command.
+         * @param kind        Whether the command was for a regular or a special purchase item.
+         * @param index       The slot index.
+         * @param successful  Whether the commands were applied.
+         * @param count       The number of commands.
+         * @param quantity    The total quantity sold, refunded or restocked.
+         * @param amountCents The total amount paid or refunded, or of the new prices, in centavos.
+         */
+        void visit(LocalDate day, CommandJournal.Command command, Cart.Kind kind, int index, boolean successful,
+                long count, long quantity, long amountCents);
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int compactAfterDays;
+    private final int retainDays;
+    private final long retainBytes;
+    private final ZoneId zone;
+    private final AtomicLong nextNumber;
+    private volatile long liveNumber;
+    // Readers share the segments; maintenance only takes the write lock to swap files
+    private final ReadWriteLock filesLock;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Opens a journal directory with 4 MB segments, compaction after 30 days, and retention of five years or
+     * 256 MB, whichever is reached first.
+     *
+     * @param directory The directory of the segments; created if needed.
+     * @throws IOException If the directory cannot be read.
+     */
+    public JournalSegments(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACT_AFTER_DAYS, DEFAULT_RETAIN_DAYS,
+                DEFAULT_RETAIN_BYTES, ZoneId.systemDefault());
+    }
+
+    /**
+     * Opens a journal directory. Segments left live by a previous run are treated as sealed.
+     *
+     * @param directory        The directory of the segments; created if needed.
+     * @param segmentBytes     The size at which the live segment is sealed.
+     * @param compactAfterDays The age, in days, after which records are kept only as daily totals.
+     * @param retainDays       The age, in days, after which segments are deleted.
+     * @param retainBytes      The most storage the directory may take; the oldest segments are deleted first.
+     * @param zone             The time zone the days of the daily totals are counted in.
+     * @throws IOException If the directory cannot be read.
+     */
+    public JournalSegments(Path directory, long segmentBytes, int compactAfterDays, int retainDays,
+            long retainBytes, ZoneId zone) throws IOException {
+        if (segmentBytes < CommandJournal.RECORD_SIZE || compactAfterDays < 0 || retainDays < 0
+                || retainBytes <= 0) {
+            throw new IllegalArgumentException("The segment size and retention limits must be positive.");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.compactAfterDays = compactAfterDays;
+        this.retainDays = retainDays;
+        this.retainBytes = retainBytes;
+        this.zone = zone;
+        long highest = 0;
+        for (Path segment : listSegments()) {
+            highest = Math.max(highest, numberOf(segment));
+        }
+        this.nextNumber = new AtomicLong(highest + 1);
+        this.liveNumber = Long.MAX_VALUE;
+        this.filesLock = new ReentrantReadWriteLock();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vending-journal-maintenance");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintainQuietly, 0, MAINTENANCE_PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Retrieves the size at which the live segment is sealed.
+     *
+     * @return The segment size, in bytes.
+     */
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Names the next live segment. Every segment before it is sealed from then on.
+     *
+     * @return The path of the new live segment.
+     */
+    Path nextLiveSegment() {
+        long number = nextNumber.getAndIncrement();
+        liveNumber = number;
+        return segmentPath(number, LIVE_SUFFIX);
+    }
+
+    /**
+     * Queues a segment the journal is done with for compression. It returns at once.
+     *
+     * @param segment The sealed segment.
+     */
+    void sealed(Path segment) {
+        maintenance.execute(this::maintainQuietly);
+    }
+
+    /**
+     * Compresses sealed segments, compacts old ones and enforces the retention limits. It runs on its own every
+     * hour and whenever a segment is sealed.
+     *
+     * @throws IOException If a segment cannot be read or written.
+     */
+    public synchronized void maintain() throws IOException {
+        long now = System.currentTimeMillis();
+        long compactBefore = now - TimeUnit.DAYS.toMillis(compactAfterDays);
+        long deleteBefore = now - TimeUnit.DAYS.toMillis(retainDays);
+        List<Path> toCompact = new ArrayList<>();
+        for (Path segment : listSegments()) {
+            if (numberOf(segment) >= liveNumber) {
+                continue;
+            }
+            String name = segment.getFileName().toString();
+            if (name.endsWith(LIVE_SUFFIX)) {
+                segment = compress(segment);
+                name = segment.getFileName().toString();
+            }
+            long lastTime = lastTimeOf(segment);
+            if (lastTime < deleteBefore) {
+                delete(segment);
+            } else if (name.endsWith(COMPRESSED_SUFFIX) && lastTime < compactBefore) {
+                toCompact.add(segment);
+            }
+        }
+        if (!toCompact.isEmpty()) {
+            compact(toCompact, deleteBefore);
+        }
+
+        long total = getSizeBytes();
+        for (Path segment : listSegments()) {
+            if (total <= retainBytes || numberOf(segment) >= liveNumber) {
+                break;
+            }
+            long size = sizeOf(segment);
+            delete(segment);
+            total -= size;
+        }
+    }
+
+    /**
+     * Reads every record still kept in full, oldest first, whether compressed or not. Records compacted into
+     * daily totals are left out.
+     *
+     * @param visitor The visitor.
+     * @throws IOException If a segment cannot be read.
+     */
+    public void read(CommandJournal.RecordVisitor visitor) throws IOException {
+        filesLock.readLock().lock();
+        try {
+            for (Path segment : listSegments()) {
+                String name = segment.getFileName().toString();
+                if (name.endsWith(LIVE_SUFFIX)) {
+                    CommandJournal.read(segment, visitor);
+                } else if (name.endsWith(COMPRESSED_SUFFIX)) {
+                    readCompressed(segment, visitor);
+                }
+            }
+        } finally {
+            filesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the daily totals of every segment: the compacted ones and those summed from the records kept in
+     * full.
+     *
+     * @param visitor The visitor, called once per day, slot, command and outcome, oldest day first.
+     * @throws IOException If a segment cannot be read.
+     */
+    public void readDaily(DailyVisitor visitor) throws IOException {
+        TreeMap<Long, long[]> totals = new TreeMap<>();
+        // Held across both phases, so a compaction in between cannot move records from the full segments into
+        // the daily ones after the daily ones were read; read() takes the same read lock again
+        filesLock.readLock().lock();
+        try {
+            for (Path segment : listSegments()) {
+                if (segment.getFileName().toString().endsWith(DAILY_SUFFIX)) {
+                    readDailyFile(segment, totals);
+                }
+            }
+            read((time, command, kind, index, quantity, amountCents, successful) -> addToTotals(totals,
+                    dayOf(time), command, kind, index, successful, 1, quantity, amountCents));
+        } finally {
+            filesLock.readLock().unlock();
+        }
+
+        CommandJournal.Command[] commands = CommandJournal.Command.values();
+        Cart.Kind[] kinds = Cart.Kind.values();
+        for (Map.Entry<Long, long[]> entry : totals.entrySet()) {
+            long key = entry.getKey();
+            long[] total = entry.getValue();
+            visitor.visit(LocalDate.ofEpochDay(key >> 20), commands[(int) (key >> 2) & 0x3],
+                    kinds[(int) (key >> 1) & 0x1], (int) (key >> 4) & 0xFFFF, (key & 0x1) != 0, total[0], total[1],
+                    total[2]);
+        }
+    }
+
+    /**
+     * Retrieves the storage taken by every segment.
+     *
+     * @return The size, in bytes.
+     * @throws IOException If the directory cannot be read.
+     */
+    public long getSizeBytes() throws IOException {
+        long total = 0;
+        for (Path segment : listSegments()) {
+            total += sizeOf(segment);
+        }
+        return total;
+    }
+
+    /**
+     * Stops the background maintenance. Segments left uncompressed are handled on the next open.
+     */
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void maintainQuietly() {
+        try {
+            maintain();
+        } catch (IOException e) {
+            // Retried on the next run; the records stay readable where they are
+        }
+    }
+
+    private Path compress(Path segment) throws IOException {
+        Path compressed = segmentPath(numberOf(segment), COMPRESSED_SUFFIX);
+        Path temporary = compressed.resolveSibling(compressed.getFileName() + ".tmp");
+        byte[] records = Files.readAllBytes(segment);
+        int recordCount = records.length / CommandJournal.RECORD_SIZE; // A torn last record is dropped
+        ByteBuffer view = ByteBuffer.wrap(records);
+        long firstTime = recordCount == 0 ? 0 : view.getLong(0);
+        long lastTime = recordCount == 0 ? 0 : view.getLong((recordCount - 1) * CommandJournal.RECORD_SIZE);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            out.writeInt(COMPRESSED_MAGIC);
+            out.writeLong(firstTime);
+            out.writeLong(lastTime);
+            byte[] shuffled = new byte[BLOCK_RECORDS * CommandJournal.RECORD_SIZE];
+            byte[] deflated = new byte[shuffled.length + shuffled.length / 100 + 64];
+            for (int first = 0; first < recordCount; first += BLOCK_RECORDS) {
+                int count = Math.min(BLOCK_RECORDS, recordCount - first);
+                shuffle(records, first * CommandJournal.RECORD_SIZE, count, shuffled);
+                deflater.reset();
+                deflater.setInput(shuffled, 0, count * CommandJournal.RECORD_SIZE);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    length += deflater.deflate(deflated, length, deflated.length - length);
+                }
+                out.writeInt(count);
+                out.writeInt(length);
+                out.write(deflated, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        filesLock.writeLock().lock();
+        try {
+            Files.move(temporary, compressed, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(segment);
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+        return compressed;
+    }
+
+    /**
+     * Folds compressed segments into the daily totals. All totals live in one file, rewritten with the new days
+     * added and the days past retention dropped, so a year of history stays one small file.
+     */
+    private void compact(List<Path> segments, long deleteBefore) throws IOException {
+        TreeMap<Long, long[]> totals = new TreeMap<>();
+        List<Path> oldDailyFiles = new ArrayList<>();
+        for (Path segment : listSegments()) {
+            if (segment.getFileName().toString().endsWith(DAILY_SUFFIX)) {
+                readDailyFile(segment, totals);
+                oldDailyFiles.add(segment);
+            }
+        }
+        long lastTime = 0;
+        for (Path segment : segments) {
+            readCompressed(segment, (time, command, kind, index, quantity, amountCents, successful) -> addToTotals(
+                    totals, dayOf(time), command, kind, index, successful, 1, quantity, amountCents));
+            lastTime = Math.max(lastTime, lastTimeOf(segment));
+        }
+        totals.headMap(dayOf(deleteBefore) << 20).clear();
+
+        Path daily = segmentPath(numberOf(segments.get(segments.size() - 1)), DAILY_SUFFIX);
+        Path temporary = daily.resolveSibling(daily.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            out.writeInt(DAILY_MAGIC);
+            out.writeLong(lastTime);
+            out.writeInt(totals.size());
+            for (Map.Entry<Long, long[]> entry : totals.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+                out.writeLong(entry.getValue()[2]);
+            }
+        }
+
+        filesLock.writeLock().lock();
+        try {
+            Files.move(temporary, daily, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (Path segment : oldDailyFiles) {
+                if (!segment.equals(daily)) {
+                    Files.delete(segment);
+                }
+            }
+            for (Path segment : segments) {
+                Files.delete(segment);
+            }
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+    }
+
+    private void delete(Path segment) throws IOException {
+        filesLock.writeLock().lock();
+        try {
+            Files.deleteIfExists(segment);
+        } finally {
+            filesLock.writeLock().unlock();
+        }
+    }
+
+    private void readCompressed(Path segment, CommandJournal.RecordVisitor visitor) throws IOException {
+        CommandJournal.Command[] commands = CommandJournal.Command.values();
+        Cart.Kind[] kinds = Cart.Kind.values();
+        byte[] shuffled = new byte[BLOCK_RECORDS * CommandJournal.RECORD_SIZE];
+        byte[] records = new byte[shuffled.length];
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(openBuffered(segment))) {
+            readHeader(in, COMPRESSED_MAGIC, segment);
+            in.readLong();
+            in.readLong();
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] deflated = new byte[in.readInt()];
+                in.readFully(deflated);
+                inflater.reset();
+                inflater.setInput(deflated);
+                int length = 0;
+                while (length < count * CommandJournal.RECORD_SIZE) {
+                    int inflated = inflater.inflate(shuffled, length, count * CommandJournal.RECORD_SIZE - length);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated block in " + segment);
+                    }
+                    length += inflated;
+                }
+                unshuffle(shuffled, count, records);
+                ByteBuffer buffer = ByteBuffer.wrap(records, 0, length);
+                while (buffer.hasRemaining()) {
+                    visitor.visit(buffer.getLong(), commands[buffer.get()], kinds[buffer.get()], buffer.getShort(),
+                            buffer.getInt(), buffer.getLong(), buffer.get() != 0);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in " + segment, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readDailyFile(Path segment, TreeMap<Long, long[]> totals) throws IOException {
+        try (DataInputStream in = new DataInputStream(openBuffered(segment))) {
+            readHeader(in, DAILY_MAGIC, segment);
+            in.readLong();
+            int rows = in.readInt();
+            for (int i = 0; i < rows; i++) {
+                long key = in.readLong();
+                long[] total = totals.computeIfAbsent(key, unused -> new long[3]);
+                total[0] += in.readLong();
+                total[1] += in.readLong();
+                total[2] += in.readLong();
+            }
+        }
+    }
+
+    private long lastTimeOf(Path segment) throws IOException {
+        String name = segment.getFileName().toString();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(segment))) {
+            if (name.endsWith(COMPRESSED_SUFFIX)) {
+                readHeader(in, COMPRESSED_MAGIC, segment);
+                in.readLong();
+                return in.readLong();
+            }
+            readHeader(in, DAILY_MAGIC, segment);
+            return in.readLong();
+        }
+    }
+
+    private static void readHeader(DataInputStream in, int magic, Path segment) throws IOException {
+        if (in.readInt() != magic) {
+            throw new IOException("Not a journal segment: " + segment);
+        }
+    }
+
+    /**
+     * Groups the bytes of the records by their position in a record, so the slowly changing time, slot and
+     * amount bytes of neighbouring records end up next to each other and compress well.
+     */
+    private static void shuffle(byte[] records, int offset, int count, byte[] shuffled) {
+        for (int record = 0; record < count; record++) {
+            int from = offset + record * CommandJournal.RECORD_SIZE;
+            for (int position = 0; position < CommandJournal.RECORD_SIZE; position++) {
+                shuffled[position * count + record] = records[from + position];
+            }
+        }
+    }
+
+    private static void unshuffle(byte[] shuffled, int count, byte[] records) {
+        for (int record = 0; record < count; record++) {
+            int to = record * CommandJournal.RECORD_SIZE;
+            for (int position = 0; position < CommandJournal.RECORD_SIZE; position++) {
+                records[to + position] = shuffled[position * count + record];
+            }
+        }
+    }
+
+    private static void addToTotals(TreeMap<Long, long[]> totals, long day, CommandJournal.Command command,
+            Cart.Kind kind, int index, boolean successful, long count, long quantity, long amountCents) {
+        long key = day << 20 | (long) (index & 0xFFFF) << 4 | command.ordinal() << 2 | kind.ordinal() << 1
+                | (successful ? 1 : 0);
+        long[] total = totals.computeIfAbsent(key, unused -> new long[3]);
+        total[0] += count;
+        total[1] += quantity;
+        total[2] += amountCents;
+    }
+
+    private long dayOf(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate().toEpochDay();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*")) {
+            for (Path segment : stream) {
+                String name = segment.getFileName().toString();
+                if (name.endsWith(LIVE_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX) || name.endsWith(DAILY_SUFFIX)) {
+                    segments.add(segment);
+                }
+            }
+        }
+        // The zero-padded numbers sort in the order the segments were written
+        segments.sort(null);
+        return segments;
+    }
+
+    private Path segmentPath(long number, String suffix) {
+        return directory.resolve(String.format("segment-%016d%s", number, suffix));
+    }
+
+    private static long numberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.indexOf('.')));
+    }
+
+    private static long sizeOf(Path segment) throws IOException {
+        try {
+            return Files.size(segment);
+        } catch (NoSuchFileException e) {
+            return 0; // Swapped by maintenance meanwhile
+        }
+    }
+
+    private static InputStream openBuffered(Path segment) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(segment));
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Connects the vending machine to a card or e-wallet payment service. Every call returns at once and completes
+ * its future when the service answers, so no caller ever waits on the network while holding the machine or the
+ * UI thread. {@link CashlessPayments} authorizes the cart total before the sale, captures the sold amount in
+ * batches afterwards, and releases authorizations it did not use.
+ */
+public interface PaymentProvider {
+    /**
+     * Represents the answer to an authorization request.
+     */
+    final class Authorization {
+        private final String id;
+        private final long amountCents;
+        private final boolean approved;
+        private final String declineReason;
+
+        /**
+         * Constructs a new authorization.
+         *
+         * @param id            The provider's reference for the authorization.
+         * @param amountCents   The authorized amount, in centavos.
+         * @param approved      Whether the payment was approved.
+         * @param declineReason Why the payment was declined, or null if it was approved.
+         */
+        public Authorization(String id, long amountCents, boolean approved, String declineReason) {
+            this.id = id;
+            this.amountCents = amountCents;
+            this.approved = approved;
+            this.declineReason = declineReason;
+        }
+
+        /**
+         * Retrieves the provider's reference for the authorization.
+         *
+         * @return The authorization id.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Retrieves the authorized amount.
+         *
+         * @return The amount, in centavos.
+         */
+        public long getAmountCents() {
+            return amountCents;
+        }
+
+        /**
+         * Retrieves whether the payment was approved.
+         *
+         * @return True if the amount may be captured.
+         */
+        public boolean isApproved() {
+            return approved;
+        }
+
+        /**
+         * Retrieves why the payment was declined.
+         *
+         * @return The reason, or null if the payment was approved.
+         */
+        public String getDeclineReason() {
+            return declineReason;
+        }
+    }
+
+    /**
+     * Represents the amount to collect for one approved authorization.
+     */
+    final class Capture {
+        private final Authorization authorization;
+        private final long amountCents;
+
+        /**
+         * Constructs a new capture.
+         *
+         * @param authorization The approved authorization.
+         * @param amountCents   The amount to collect, in centavos; at most the authorized amount.
+         */
+        public Capture(Authorization authorization, long amountCents) {
+            this.authorization = authorization;
+            this.amountCents = amountCents;
+        }
+
+        /**
+         * Retrieves the authorization the amount is collected against.
+         *
+         * @return The authorization.
+         */
+        public Authorization getAuthorization() {
+            return authorization;
+        }
+
+        /**
+         * Retrieves the amount to collect.
+         *
+         * @return The amount, in centavos.
+         */
+        public long getAmountCents() {
+            return amountCents;
+        }
+    }
+
+    /**
+     * Asks for an amount to be reserved on a card or wallet.
+     *
+     * @param paymentToken The token read from the card or wallet.
+     * @param amountCents  The amount, in centavos.
+     * @return The answer; a declined payment completes normally, only a failure to get an answer fails.
+     */
+    CompletableFuture<Authorization> authorize(String paymentToken, long amountCents);
+
+    /**
+     * Collects the amounts of many sales in one request.
+     *
+     * @param captures The amounts to collect.
+     * @return Completes when the provider accepted the whole batch; fails if none of it was accepted.
+     */
+    CompletableFuture<Void> capture(List<Capture> captures);
+
+    /**
+     * Gives back an authorization that will not be captured, e.g. because the item sold out meanwhile.
+     *
+     * @param authorization The approved authorization.
+     * @return Completes when the reservation was lifted.
+     */
+    CompletableFuture<Void> release(Authorization authorization);
+}
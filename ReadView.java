@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A consistent, read-only version of a vending machine's inventory, balances, catalog and transaction history,
+ * pinned for the duration of a report. Opening a view never blocks purchases and purchases never block the
+ * report; changes made after the view was opened are simply not visible in it. Close the view when the report
+ * is finished to release the version.
+ */
+public final class ReadView implements AutoCloseable {
+    private final VendingMachine owner;
+    private final long version;
+    private final CatalogSnapshot catalog;
+    private final short[] quantities;
+    private final short[] specialPurchaseQuantities;
+    private final CashLedger.Reconciliation reconciliation;
+    private final List<String> history;
+    private volatile boolean closed;
+
+    ReadView(VendingMachine owner, long version, CatalogSnapshot catalog, short[] quantities,
+            short[] specialPurchaseQuantities, CashLedger.Reconciliation reconciliation, TransactionLog log,
+            int historyLength) {
+        this.owner = owner;
+        this.version = version;
+        this.catalog = catalog;
+        this.quantities = Arrays.copyOf(quantities, quantities.length);
+        this.specialPurchaseQuantities = Arrays.copyOf(specialPurchaseQuantities, specialPurchaseQuantities.length);
+        this.reconciliation = reconciliation;
+        this.history = log.prefix(historyLength);
+    }
+
+    /**
+     * Retrieves the state version this view was taken at.
+     *
+     * @return The version number; it increases with every change to the machine.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the catalog as it was when the view was opened.
+     *
+     * @return The catalog snapshot.
+     */
+    public CatalogSnapshot getCatalog() {
+        checkOpen();
+        return catalog;
+    }
+
+    /**
+     * Retrieves the quantities of the regular items.
+     *
+     * @return A copy of the regular item quantities.
+     */
+    public int[] getQuantities() {
+        checkOpen();
+        return VendingMachine.toInts(quantities);
+    }
+
+    /**
+     * Retrieves the quantities of the special purchase items.
+     *
+     * @return A copy of the special purchase item quantities.
+     */
+    public int[] getSpecialPurchaseQuantities() {
+        checkOpen();
+        return VendingMachine.toInts(specialPurchaseQuantities);
+    }
+
+    /**
+     * Retrieves the balance of a cash ledger account.
+     *
+     * @param account The account.
+     * @return The balance, in centavos, on the account's normal side.
+     */
+    public long getBalanceCents(CashLedger.Account account) {
+        checkOpen();
+        return reconciliation.getBalanceCents(account);
+    }
+
+    /**
+     * Retrieves the reconciliation of the cash ledger, taken together with the balances of this view. It also
+     * compares the cash box and change float on the books with the cash the machine counted in and out.
+     *
+     * @return The reconciliation.
+     */
+    public CashLedger.Reconciliation getReconciliation() {
+        checkOpen();
+        return reconciliation;
+    }
+
+    /**
+     * Retrieves the transaction history up to this version.
+     *
+     * @return A read-only list of transaction descriptions, oldest first.
+     */
+    public List<String> getTransactionHistory() {
+        checkOpen();
+        return history;
+    }
+
+    /**
+     * Releases the version. The view cannot be read afterwards.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            owner.releaseReadView(this);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The read view has been closed.");
+        }
+    }
+}
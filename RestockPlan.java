@@ -0,0 +1,95 @@
+/**
+ * Represents how many of each item a vending machine should hold after a restocking visit, with the demand
+ * forecast the targets were derived from. A visit only adds items, so a slot already at or above its target is
+ * left alone.
+ */
+public final class RestockPlan {
+    private final int[] quantities;
+    private final int[] targets;
+    private final double[] forecasts;
+    private final int[] specialPurchaseQuantities;
+    private final int[] specialPurchaseTargets;
+    private final double[] specialPurchaseForecasts;
+
+    RestockPlan(int[] quantities, int[] targets, double[] forecasts, int[] specialPurchaseQuantities,
+            int[] specialPurchaseTargets, double[] specialPurchaseForecasts) {
+        this.quantities = quantities;
+        this.targets = targets;
+        this.forecasts = forecasts;
+        this.specialPurchaseQuantities = specialPurchaseQuantities;
+        this.specialPurchaseTargets = specialPurchaseTargets;
+        this.specialPurchaseForecasts = specialPurchaseForecasts;
+    }
+
+    /**
+     * Retrieves the target quantities of the regular items.
+     *
+     * @return A copy of the targets, per slot.
+     */
+    public int[] getTargets() {
+        return targets.clone();
+    }
+
+    /**
+     * Retrieves the target quantities of the special purchase items.
+     *
+     * @return A copy of the targets, per slot.
+     */
+    public int[] getSpecialPurchaseTargets() {
+        return specialPurchaseTargets.clone();
+    }
+
+    /**
+     * Retrieves the forecast demand of the regular items until the next visit.
+     *
+     * @return A copy of the forecasts, per slot; NaN for a slot without sales history.
+     */
+    public double[] getForecasts() {
+        return forecasts.clone();
+    }
+
+    /**
+     * Retrieves the forecast demand of the special purchase items until the next visit.
+     *
+     * @return A copy of the forecasts, per slot; NaN for a slot without sales history.
+     */
+    public double[] getSpecialPurchaseForecasts() {
+        return specialPurchaseForecasts.clone();
+    }
+
+    /**
+     * Retrieves how many regular items to load, based on the stock at planning time.
+     *
+     * @return The quantity to add, per slot.
+     */
+    public int[] getAdditions() {
+        return additions(quantities, targets);
+    }
+
+    /**
+     * Retrieves how many special purchase items to load, based on the stock at planning time.
+     *
+     * @return The quantity to add, per slot.
+     */
+    public int[] getSpecialPurchaseAdditions() {
+        return additions(specialPurchaseQuantities, specialPurchaseTargets);
+    }
+
+    /**
+     * Loads the planned items into a vending machine. Slots that sold down since planning are raised to their
+     * target as well; slots above their target keep what they have.
+     *
+     * @param vendingMachine The vending machine the plan was made for.
+     */
+    public void applyTo(VendingMachine vendingMachine) {
+        vendingMachine.restockTo(targets, specialPurchaseTargets);
+    }
+
+    private static int[] additions(int[] current, int[] target) {
+        int[] additions = new int[target.length];
+        for (int i = 0; i < target.length; i++) {
+            additions[i] = Math.max(0, target[i] - current[i]);
+        }
+        return additions;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Plans how much of each item to load on the next restocking visit, from the sales history of each slot instead
+ * of refilling everything to capacity. Demand is read from the units sold per slot recorded by the machine's
+ * {@link InventoryHistory}, weighted towards recent days, and forecast until the next visit with a safety margin.
+ * Stock levels are only used to find the days a slot ran empty; an operator taking units out is not demand.
+ * Special purchase ingredients are perishable, so they get a smaller margin than regular items: what is left at
+ * the next visit is likely to be thrown away.
+ */
+public class RestockPlanner {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int DEFAULT_CAPACITY = 10;
+    private static final int DEFAULT_LOOKBACK_DAYS = 28;
+    // Weight of the most recent day in the demand average; older days fade geometrically
+    private static final double RECENT_WEIGHT = 0.15;
+    // Safety stock in standard deviations of the forecast: about 95% and 70% service levels
+    private static final double REGULAR_SAFETY_FACTOR = 1.65;
+    private static final double PERISHABLE_SAFETY_FACTOR = 0.5;
+
+    private final int capacity;
+    private final int lookbackDays;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a new planner with a slot capacity of 10 and four weeks of history, running on the common pool.
+     */
+    public RestockPlanner() {
+        this(DEFAULT_CAPACITY, DEFAULT_LOOKBACK_DAYS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new planner.
+     *
+     * @param capacity     The most items a slot holds.
+     * @param lookbackDays How many days of history to read.
+     * @param pool         The pool to plan many machines on.
+     */
+    public RestockPlanner(int capacity, int lookbackDays, ForkJoinPool pool) {
+        if (capacity <= 0 || lookbackDays <= 0) {
+            throw new IllegalArgumentException("The capacity and lookback must be positive.");
+        }
+        this.capacity = capacity;
+        this.lookbackDays = lookbackDays;
+        this.pool = pool;
+    }
+
+    /**
+     * Plans the next visit to one vending machine.
+     *
+     * @param vendingMachine The vending machine.
+     * @param now            The time of planning, in milliseconds since the epoch.
+     * @param nextVisit      The time of the visit after the one being planned, which the stock must last until.
+     * @return The restock plan.
+     */
+    public RestockPlan plan(VendingMachine vendingMachine, long now, long nextVisit) {
+        double horizonDays = Math.max(0, nextVisit - now) / (double) DAY_MILLIS;
+        TimeSeriesStore history = vendingMachine.getInventoryHistory().getStore();
+        int[] quantities = vendingMachine.getQuantities();
+        int[] specialPurchaseQuantities = vendingMachine.getSpecialPurchaseQuantities();
+
+        int[] targets = new int[quantities.length];
+        double[] forecasts = new double[quantities.length];
+        for (int i = 0; i < quantities.length; i++) {
+            double[] demand = forecast(history, InventoryHistory.soldSeries(i), InventoryHistory.regularSeries(i),
+                    now, horizonDays);
+            forecasts[i] = demand == null ? Double.NaN : demand[0];
+            targets[i] = target(demand, REGULAR_SAFETY_FACTOR);
+        }
+        int[] specialPurchaseTargets = new int[specialPurchaseQuantities.length];
+        double[] specialPurchaseForecasts = new double[specialPurchaseQuantities.length];
+        for (int i = 0; i < specialPurchaseQuantities.length; i++) {
+            double[] demand = forecast(history, InventoryHistory.specialPurchaseSoldSeries(i),
+                    InventoryHistory.specialPurchaseSeries(i), now, horizonDays);
+            specialPurchaseForecasts[i] = demand == null ? Double.NaN : demand[0];
+            specialPurchaseTargets[i] = target(demand, PERISHABLE_SAFETY_FACTOR);
+        }
+        return new RestockPlan(quantities, targets, forecasts, specialPurchaseQuantities, specialPurchaseTargets,
+                specialPurchaseForecasts);
+    }
+
+    /**
+     * Plans the next visit to every machine of a region in parallel.
+     *
+     * @param machines  The vending machines.
+     * @param now       The time of planning, in milliseconds since the epoch.
+     * @param nextVisit The time of the visit after the one being planned.
+     * @return The plans, in the order of the machines.
+     * @throws InterruptedException If the planning is interrupted.
+     */
+    public List<RestockPlan> planAll(List<VendingMachine> machines, long now, long nextVisit)
+            throws InterruptedException {
+        try {
+            // A parallel stream started from inside the pool runs on that pool
+            return pool.submit(() -> machines.parallelStream()
+                    .map(machine -> plan(machine, now, nextVisit))
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Restock planning failed.", ex.getCause());
+        }
+    }
+
+    /**
+     * Forecasts the demand of one slot until the next visit.
+     *
+     * @return The expected demand and its standard deviation, or {@code null} if the slot has no sales history.
+     */
+    private double[] forecast(TimeSeriesStore history, String soldSeries, String levelSeries, long now,
+            double horizonDays) {
+        long from = now - lookbackDays * DAY_MILLIS;
+        long[] sold = new long[lookbackDays];
+        boolean[] emptied = new boolean[lookbackDays];
+        // The sold series is a running total, so start from its total when the lookback began
+        long[] soldBefore = { history.getValueBefore(soldSeries, from, 0) };
+        boolean[] observed = new boolean[1];
+        history.scan(soldSeries, from, now, (time, total) -> {
+            sold[(int) ((time - from) / DAY_MILLIS)] += total - soldBefore[0];
+            soldBefore[0] = total;
+            observed[0] = true;
+        });
+        if (!observed[0]) {
+            return null;
+        }
+
+        // The first day of the current run of empty days, or -1 while the slot holds stock
+        int[] emptySince = { history.getValueBefore(levelSeries, from, -1) == 0 ? 0 : -1 };
+        history.scan(levelSeries, from, now, (time, level) -> {
+            int day = (int) ((time - from) / DAY_MILLIS);
+            if (level == 0 && emptySince[0] < 0) {
+                emptySince[0] = day;
+            } else if (level > 0 && emptySince[0] >= 0) {
+                // A slot stays empty until it is restocked, even on days without samples
+                Arrays.fill(emptied, emptySince[0], day + 1, true);
+                emptySince[0] = -1;
+            }
+        });
+        if (emptySince[0] >= 0) {
+            Arrays.fill(emptied, emptySince[0], lookbackDays, true);
+        }
+
+        // Days on which the slot ran empty only show how much was left, not the demand, so skip them
+        // unless every day ran empty.
+        boolean allEmptied = true;
+        for (boolean day : emptied) {
+            allEmptied &= day;
+        }
+        double weightSum = 0;
+        double mean = 0;
+        double squares = 0;
+        double weight = RECENT_WEIGHT;
+        for (int day = lookbackDays - 1; day >= 0; day--) {
+            if (!emptied[day] || allEmptied) {
+                weightSum += weight;
+                mean += weight * sold[day];
+                squares += weight * sold[day] * sold[day];
+            }
+            weight *= 1 - RECENT_WEIGHT;
+        }
+        mean /= weightSum;
+        double variance = Math.max(squares / weightSum - mean * mean, mean); // Never below a Poisson spread
+        return new double[] { mean * horizonDays, Math.sqrt(variance * horizonDays) };
+    }
+
+    private int target(double[] demand, double safetyFactor) {
+        if (demand == null) {
+            return capacity; // Nothing known yet: fill it up
+        }
+        long target = (long) Math.ceil(demand[0] + safetyFactor * demand[1]);
+        return (int) Math.max(0, Math.min(capacity, target));
+    }
+}
@@ -0,0 +1,325 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects streaming sales statistics for one vending machine: best sellers overall and per hour of the day,
+ * units and revenue per hour, and the distribution of sale amounts. Every sale updates fixed-size sketches, so
+ * memory stays bounded no matter how many sales are recorded. Statistics from several machines are combined by
+ * merging their sketches instead of replaying raw transactions.
+ */
+public class SalesAnalytics {
+    /**
+     * The number of hour-of-day buckets.
+     */
+    public static final int HOURS = 24;
+
+    /**
+     * The upper bounds, in centavos, of the sale amount buckets; the last bucket holds everything above.
+     */
+    public static final long[] AMOUNT_BUCKET_BOUNDS = { 2500, 5000, 10000, 20000, 50000 };
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 256;
+    private static final int TOP_CAPACITY = 32;
+    private static final int HOURLY_TOP_CAPACITY = 8;
+    // Stand in for the counters until the first sale; never written to
+    private static final SpaceSavingSummary NO_SELLERS = new SpaceSavingSummary(1);
+    private static final long[] NO_HOURS = new long[HOURS];
+    private static final long[] NO_AMOUNTS = new long[AMOUNT_BUCKET_BOUNDS.length + 1];
+
+    private final ZoneId zone;
+    // Allocated by the first sale, so a machine that sold nothing costs a few bytes instead of several kilobytes
+    private CountMinSketch unitsSold;
+    private SpaceSavingSummary bestSellers;
+    private SpaceSavingSummary[] hourlyBestSellers;
+    private long[] hourlyUnits;
+    private long[] hourlyRevenueCents;
+    private long[] amountBuckets;
+
+    /**
+     * Represents an item and an estimate of the units sold of it.
+     */
+    public static final class Seller {
+        private final String name;
+        private final long units;
+
+        Seller(String name, long units) {
+            this.name = name;
+            this.units = units;
+        }
+
+        /**
+         * Retrieves the item name.
+         *
+         * @return The item name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Retrieves the estimated units sold.
+         *
+         * @return The units sold; may slightly overestimate.
+         */
+        public long getUnits() {
+            return units;
+        }
+    }
+
+    /**
+     * Constructs new, empty analytics that bucket sales by the hour of the system time zone.
+     */
+    public SalesAnalytics() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * Constructs new, empty analytics.
+     *
+     * @param zone The time zone used to find the hour of a sale.
+     */
+    public SalesAnalytics(ZoneId zone) {
+        this.zone = zone;
+        this.bestSellers = NO_SELLERS;
+        this.hourlyUnits = NO_HOURS;
+        this.hourlyRevenueCents = NO_HOURS;
+        this.amountBuckets = NO_AMOUNTS;
+    }
+
+    /**
+     * Records a sale of a single item.
+     *
+     * @param itemName     The name of the item sold, or null if it has none; it then only counts towards the
+     *                     hourly totals and the amount distribution.
+     * @param quantity     The number of units sold.
+     * @param revenueCents The amount of the sale, in centavos.
+     * @param timeMillis   When the sale happened, in milliseconds since the epoch.
+     */
+    public synchronized void recordSale(String itemName, int quantity, long revenueCents, long timeMillis) {
+        int hour = Instant.ofEpochMilli(timeMillis).atZone(zone).getHour();
+        allocate();
+        recordLine(hour, itemName, quantity, revenueCents);
+        amountBuckets[amountBucket(revenueCents)]++;
+    }
+
+    /**
+     * Records a sale of several items, e.g. a checked-out cart. Every line counts towards its item's units, but
+     * the sale is counted once in the amount distribution, at its total.
+     *
+     * @param itemNames    The names of the items sold; a null name only counts towards the hourly totals.
+     * @param quantities   The number of units sold of each item.
+     * @param revenueCents The amount of each line, in centavos.
+     * @param timeMillis   When the sale happened, in milliseconds since the epoch.
+     */
+    public synchronized void recordSale(String[] itemNames, int[] quantities, long[] revenueCents, long timeMillis) {
+        int hour = Instant.ofEpochMilli(timeMillis).atZone(zone).getHour();
+        allocate();
+        long totalCents = 0;
+        for (int i = 0; i < itemNames.length; i++) {
+            recordLine(hour, itemNames[i], quantities[i], revenueCents[i]);
+            totalCents += revenueCents[i];
+        }
+        amountBuckets[amountBucket(totalCents)]++;
+    }
+
+    private void recordLine(int hour, String itemName, int quantity, long revenueCents) {
+        if (itemName != null) {
+            unitsSold.add(itemName, quantity);
+            bestSellers.add(itemName, quantity);
+            hourlyBestSellers[hour].add(itemName, quantity);
+        }
+        hourlyUnits[hour] += quantity;
+        hourlyRevenueCents[hour] += revenueCents;
+    }
+
+    /**
+     * Retrieves the best-selling items.
+     *
+     * @param limit The maximum number of items to return.
+     * @return The best sellers, most units first.
+     */
+    public synchronized List<Seller> getBestSellers(int limit) {
+        List<Seller> sellers = new ArrayList<>();
+        for (String item : bestSellers.getItems()) {
+            // Both estimates only overcount, so the smaller one is the closer
+            sellers.add(new Seller(item, Math.min(bestSellers.getCount(item), unitsSold.estimate(item))));
+        }
+        return rank(sellers, limit);
+    }
+
+    /**
+     * Retrieves the best-selling items of one hour of the day.
+     *
+     * @param hour  The hour of the day, 0-23.
+     * @param limit The maximum number of items to return.
+     * @return The best sellers of that hour, most units first.
+     */
+    public synchronized List<Seller> getBestSellers(int hour, int limit) {
+        List<Seller> sellers = new ArrayList<>();
+        if (hourlyBestSellers == null) {
+            return rank(sellers, limit);
+        }
+        SpaceSavingSummary summary = hourlyBestSellers[hour];
+        for (String item : summary.getItems()) {
+            sellers.add(new Seller(item, summary.getCount(item)));
+        }
+        return rank(sellers, limit);
+    }
+
+    /**
+     * Estimates the units sold of an item.
+     *
+     * @param itemName The item name.
+     * @return The estimated units sold, never less than the true number.
+     */
+    public synchronized long estimateUnitsSold(String itemName) {
+        return unitsSold == null ? 0 : unitsSold.estimate(itemName);
+    }
+
+    /**
+     * Retrieves the units sold per hour of the day.
+     *
+     * @return An array of 24 unit counts, indexed by hour.
+     */
+    public synchronized long[] getHourlyUnits() {
+        return hourlyUnits.clone();
+    }
+
+    /**
+     * Retrieves the revenue per hour of the day.
+     *
+     * @return An array of 24 revenues in centavos, indexed by hour.
+     */
+    public synchronized long[] getHourlyRevenueCents() {
+        return hourlyRevenueCents.clone();
+    }
+
+    /**
+     * Retrieves how many sales fell into each amount bucket.
+     *
+     * @return The sale counts, one per bucket of {@link #AMOUNT_BUCKET_BOUNDS} plus one for larger sales.
+     */
+    public synchronized long[] getAmountDistribution() {
+        return amountBuckets.clone();
+    }
+
+    /**
+     * Finds the hour of the day with the most units sold.
+     *
+     * @return The peak hour, 0-23, or -1 if nothing was sold.
+     */
+    public synchronized int getPeakHour() {
+        int peak = -1;
+        long peakUnits = 0;
+        for (int hour = 0; hour < HOURS; hour++) {
+            if (hourlyUnits[hour] > peakUnits) {
+                peak = hour;
+                peakUnits = hourlyUnits[hour];
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Retrieves the total units sold.
+     *
+     * @return The total units sold.
+     */
+    public synchronized long getTotalUnits() {
+        return unitsSold == null ? 0 : unitsSold.getTotal();
+    }
+
+    /**
+     * Merges the statistics of another machine into these, e.g. for a fleet rollup.
+     *
+     * @param other The analytics to merge in; they are not changed.
+     */
+    public void merge(SalesAnalytics other) {
+        // Copy first, so the two objects are never locked together
+        SalesAnalytics source = other.copy();
+        if (source.unitsSold == null) {
+            return; // Nothing sold
+        }
+        synchronized (this) {
+            allocate();
+            unitsSold.merge(source.unitsSold);
+            bestSellers.merge(source.bestSellers);
+            for (int hour = 0; hour < HOURS; hour++) {
+                hourlyBestSellers[hour].merge(source.hourlyBestSellers[hour]);
+                hourlyUnits[hour] += source.hourlyUnits[hour];
+                hourlyRevenueCents[hour] += source.hourlyRevenueCents[hour];
+            }
+            for (int i = 0; i < amountBuckets.length; i++) {
+                amountBuckets[i] += source.amountBuckets[i];
+            }
+        }
+    }
+
+    /**
+     * Combines the statistics of several machines.
+     *
+     * @param machines The analytics of each machine.
+     * @return New analytics holding the combined statistics.
+     */
+    public static SalesAnalytics combine(Iterable<SalesAnalytics> machines) {
+        SalesAnalytics combined = new SalesAnalytics();
+        for (SalesAnalytics machine : machines) {
+            combined.merge(machine);
+        }
+        return combined;
+    }
+
+    /**
+     * Creates an independent copy of these statistics.
+     *
+     * @return The copy.
+     */
+    public synchronized SalesAnalytics copy() {
+        SalesAnalytics copy = new SalesAnalytics(zone);
+        if (unitsSold == null) {
+            return copy;
+        }
+        copy.allocate();
+        copy.unitsSold.merge(unitsSold);
+        copy.bestSellers.merge(bestSellers);
+        for (int hour = 0; hour < HOURS; hour++) {
+            copy.hourlyBestSellers[hour].merge(hourlyBestSellers[hour]);
+        }
+        System.arraycopy(hourlyUnits, 0, copy.hourlyUnits, 0, HOURS);
+        System.arraycopy(hourlyRevenueCents, 0, copy.hourlyRevenueCents, 0, HOURS);
+        System.arraycopy(amountBuckets, 0, copy.amountBuckets, 0, amountBuckets.length);
+        return copy;
+    }
+
+    private void allocate() {
+        if (unitsSold == null) {
+            unitsSold = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+            bestSellers = new SpaceSavingSummary(TOP_CAPACITY);
+            hourlyBestSellers = new SpaceSavingSummary[HOURS];
+            for (int hour = 0; hour < HOURS; hour++) {
+                hourlyBestSellers[hour] = new SpaceSavingSummary(HOURLY_TOP_CAPACITY);
+            }
+            hourlyUnits = new long[HOURS];
+            hourlyRevenueCents = new long[HOURS];
+            amountBuckets = new long[AMOUNT_BUCKET_BOUNDS.length + 1];
+        }
+    }
+
+    private static int amountBucket(long revenueCents) {
+        for (int i = 0; i < AMOUNT_BUCKET_BOUNDS.length; i++) {
+            if (revenueCents < AMOUNT_BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return AMOUNT_BUCKET_BOUNDS.length;
+    }
+
+    private static List<Seller> rank(List<Seller> sellers, int limit) {
+        sellers.sort((a, b) -> Long.compare(b.units, a.units));
+        return Collections.unmodifiableList(new ArrayList<>(sellers.subList(0, Math.min(limit, sellers.size()))));
+    }
+}
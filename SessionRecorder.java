@@ -0,0 +1,203 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records every command a front-end sends to a vending machine, with when it was sent, so a field session can be
+ * replayed by {@link SessionReplay}. Install it with {@link VendingMachine#setSessionRecorder}; the GUI and the
+ * terminal do so when the {@code vending.recording} system property names a file.
+ *
+ * <p>Coins only reach the machine as the amount paid at checkout, so a coin insert is recorded as part of the
+ * checkout it paid for, unless a front-end holds it as credit right away, as the command server does.
+ * A recording starts with the stock, prices and change float the session started from, then holds one record
+ * per command, timed in nanoseconds since recording started:
+ *
+ * <pre>
+ * header:   magic:int startMillis:long changeFloatCents:long
+ *           regularCount:int (quantity:int priceCents:long)* specialPurchaseCount:int (quantity:int priceCents:long)*
+ * command:  offsetNanos:long command:byte index:int value:long
+ * checkout: offsetNanos:long command:byte paidCents:long lines:int (kind:byte index:int quantity:int)*
+ * refund:   the same as a checkout, with the refunded amount instead of the amount paid
+ * restockTo: offsetNanos:long command:byte regularCount:int target:int* specialPurchaseCount:int target:int*
+ * </pre>
+ *
+ * A write error stops the recording rather than the sale; {@link #getError()} tells whether that happened.
+ */
+public class SessionRecorder implements Closeable {
+    static final int MAGIC = 0x56535231; // "VSR1"
+
+    /**
+     * The commands a session is made of.
+     */
+    public enum Command {
+        CHECKOUT, CASHLESS_CHECKOUT, SET_QUANTITY, SET_SPECIAL_PURCHASE_QUANTITY, RESTOCK_ALL, RESTOCK_SPECIAL,
+        SET_PRICE, SET_SPECIAL_PURCHASE_PRICE, COLLECT_CASH, REPLENISH_CHANGE, PURCHASE_ITEM,
+        PURCHASE_SPECIAL_PURCHASE_ITEM, REMOVE_ITEM, RESTOCK_TO, REFUND_UNDELIVERED, HOLD_CREDIT, CREDIT_CHECKOUT,
+        CASHLESS_REFUND
+    }
+
+    private final DataOutputStream out;
+    private final long startNanos;
+    private long commands;
+    private IOException error;
+    private boolean closed;
+
+    /**
+     * Starts recording the commands of a vending machine to a file, replacing it if it exists. It writes the
+     * machine's current state as the starting point and installs itself on the machine.
+     *
+     * @param path           The recording file.
+     * @param vendingMachine The vending machine to record.
+     * @throws IOException If the file cannot be created.
+     */
+    public SessionRecorder(Path path, VendingMachine vendingMachine) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        try (ReadView view = vendingMachine.openReadView()) {
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(view.getBalanceCents(CashLedger.Account.CHANGE_FLOAT));
+            writeSlots(view.getQuantities(), view.getCatalog(), CatalogFile.Section.REGULAR);
+            writeSlots(view.getSpecialPurchaseQuantities(), view.getCatalog(), CatalogFile.Section.SPECIAL_PURCHASE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        this.startNanos = System.nanoTime();
+        vendingMachine.setSessionRecorder(this);
+    }
+
+    /**
+     * Records a command on one slot, or on the whole machine.
+     *
+     * @param command The command.
+     * @param index   The slot index, or -1 for the whole machine.
+     * @param value   The new quantity, the new price or the amount in centavos; 0 if the command takes none.
+     */
+    public synchronized void record(Command command, int index, long value) {
+        if (closed || error != null) {
+            return;
+        }
+        try {
+            out.writeLong(System.nanoTime() - startNanos);
+            out.writeByte(command.ordinal());
+            out.writeInt(index);
+            out.writeLong(value);
+            commands++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Records the checkout of a cart.
+     *
+     * @param cart      The cart.
+     * @param paidCents The amount paid, spent from held credit or authorized, in centavos.
+     * @param command   How the cart was paid: {@link Command#CHECKOUT}, {@link Command#CREDIT_CHECKOUT} or
+     *                  {@link Command#CASHLESS_CHECKOUT}.
+     */
+    public synchronized void recordCheckout(Cart cart, long paidCents, Command command) {
+        writeCart(command, cart, paidCents);
+    }
+
+    /**
+     * Records the refund of units that could not be dispensed.
+     *
+     * @param undelivered The units refunded.
+     * @param refundCents The amount refunded, in centavos.
+     * @param command     How the sale was paid back: {@link Command#REFUND_UNDELIVERED} for a cash sale, or
+     *                    {@link Command#CASHLESS_REFUND} for a card sale.
+     */
+    public synchronized void recordRefund(Cart undelivered, long refundCents, Command command) {
+        writeCart(command, undelivered, refundCents);
+    }
+
+    private void writeCart(Command command, Cart cart, long amountCents) {
+        if (closed || error != null) {
+            return;
+        }
+        try {
+            out.writeLong(System.nanoTime() - startNanos);
+            out.writeByte(command.ordinal());
+            out.writeLong(amountCents);
+            out.writeInt(cart.getLines().size());
+            for (Cart.Line line : cart.getLines()) {
+                out.writeByte(line.getKind().ordinal());
+                out.writeInt(line.getIndex());
+                out.writeInt(line.getQuantity());
+            }
+            commands++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Records a restock of every slot to a target quantity.
+     *
+     * @param targets                The target quantities of the regular items.
+     * @param specialPurchaseTargets The target quantities of the special purchase items.
+     */
+    public synchronized void recordRestockTo(int[] targets, int[] specialPurchaseTargets) {
+        if (closed || error != null) {
+            return;
+        }
+        try {
+            out.writeLong(System.nanoTime() - startNanos);
+            out.writeByte(Command.RESTOCK_TO.ordinal());
+            writeTargets(targets);
+            writeTargets(specialPurchaseTargets);
+            commands++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Retrieves the number of commands recorded so far.
+     *
+     * @return The number of commands.
+     */
+    public synchronized long getCommandCount() {
+        return commands;
+    }
+
+    /**
+     * Retrieves the error that stopped the recording.
+     *
+     * @return The error, or null if the recording is intact.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * Writes the buffered commands and closes the file. Commands sent afterwards are not recorded.
+     *
+     * @throws IOException If the commands cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        out.close();
+    }
+
+    private void writeTargets(int[] targets) throws IOException {
+        out.writeInt(targets.length);
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+    }
+
+    private void writeSlots(int[] quantities, CatalogSnapshot catalog, CatalogFile.Section section)
+            throws IOException {
+        out.writeInt(quantities.length);
+        for (int i = 0; i < quantities.length; i++) {
+            out.writeInt(quantities[i]);
+            out.writeLong(i < catalog.size(section) ? InventorySnapshot.toCents(catalog.getPrice(section, i)) : 0);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays sessions recorded by {@link SessionRecorder} against a headless vending machine, so real traffic
+ * doubles as a regression benchmark. Several recordings are replayed at once, each on its own thread, as if their
+ * customers shared one machine. The replay keeps the recorded pace, sped up by a factor, or runs every command
+ * back to back.
+ *
+ * <p>The machine starts from the built-in menu, or the one named by the {@code vending.catalog} system property,
+ * with the stock, prices and change float of the first recording. Latency is measured from when a command was due,
+ * not from when it was sent, so a build that falls behind the recorded pace shows it. The report can be saved and
+ * given as the baseline of a later replay, which then prints how each figure changed.
+ *
+ * <pre>
+ *     java SessionReplay [--speed 10 | --max] [--save report.txt] [--baseline report.txt] session.rec...
+ * </pre>
+ */
+public class SessionReplay {
+    private static final SessionRecorder.Command[] COMMANDS = SessionRecorder.Command.values();
+    private static final Cart.Kind[] KINDS = Cart.Kind.values();
+
+    /**
+     * Holds one recording, decoded before the replay so that reading it is not timed.
+     */
+    static final class Session {
+        long changeFloatCents;
+        int[] quantities;
+        long[] priceCents;
+        int[] specialPurchaseQuantities;
+        long[] specialPurchasePriceCents;
+        long[] offsets = new long[256];
+        SessionRecorder.Command[] commands = new SessionRecorder.Command[256];
+        int[] indexes = new int[256];
+        long[] values = new long[256];
+        Cart[] carts = new Cart[256];
+        // Per restockTo: the regular targets, then the special purchase targets
+        int[][][] targets = new int[256][][];
+        int size;
+
+        void add(long offset, SessionRecorder.Command command, int index, long value, Cart cart,
+                int[][] restockTargets) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                commands = Arrays.copyOf(commands, capacity);
+                indexes = Arrays.copyOf(indexes, capacity);
+                values = Arrays.copyOf(values, capacity);
+                carts = Arrays.copyOf(carts, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+            }
+            offsets[size] = offset;
+            commands[size] = command;
+            indexes[size] = index;
+            values[size] = value;
+            carts[size] = cart;
+            targets[size] = restockTargets;
+            size++;
+        }
+    }
+
+    /**
+     * Collects the latencies of one command on one replay thread.
+     */
+    private static final class Latencies {
+        long[] nanos = new long[64];
+        int count;
+
+        void add(long duration) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = duration;
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.nanos[i]);
+            }
+        }
+    }
+
+    private SessionReplay() {
+    }
+
+    /**
+     * Reads a recording. A command torn by a crash at the end of the file is ignored.
+     *
+     * @param path The recording file.
+     * @return The decoded session.
+     * @throws IOException If the file cannot be read or is not a recording.
+     */
+    static Session load(Path path) throws IOException {
+        Session session = new Session();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SessionRecorder.MAGIC) {
+                throw new IOException(path + " is not a session recording.");
+            }
+            in.readLong(); // Start time, for people reading the file
+            session.changeFloatCents = in.readLong();
+            session.quantities = new int[in.readInt()];
+            session.priceCents = new long[session.quantities.length];
+            readSlots(in, session.quantities, session.priceCents);
+            session.specialPurchaseQuantities = new int[in.readInt()];
+            session.specialPurchasePriceCents = new long[session.specialPurchaseQuantities.length];
+            readSlots(in, session.specialPurchaseQuantities, session.specialPurchasePriceCents);
+            try {
+                while (true) {
+                    long offset = in.readLong();
+                    SessionRecorder.Command command = COMMANDS[in.readByte()];
+                    if (command == SessionRecorder.Command.CHECKOUT
+                            || command == SessionRecorder.Command.CASHLESS_CHECKOUT
+                            || command == SessionRecorder.Command.CREDIT_CHECKOUT
+                            || command == SessionRecorder.Command.REFUND_UNDELIVERED
+                            || command == SessionRecorder.Command.CASHLESS_REFUND) {
+                        long paidCents = in.readLong();
+                        Cart cart = new Cart();
+                        for (int lines = in.readInt(); lines > 0; lines--) {
+                            Cart.Kind kind = KINDS[in.readByte()];
+                            int index = in.readInt();
+                            int quantity = in.readInt();
+                            if (kind == Cart.Kind.REGULAR) {
+                                cart.addItem(index, quantity);
+                            } else {
+                                cart.addSpecialPurchaseItem(index, quantity);
+                            }
+                        }
+                        session.add(offset, command, -1, paidCents, cart, null);
+                    } else if (command == SessionRecorder.Command.RESTOCK_TO) {
+                        int[][] restockTargets = { readTargets(in), readTargets(in) };
+                        session.add(offset, command, -1, 0, null, restockTargets);
+                    } else {
+                        session.add(offset, command, in.readInt(), in.readLong(), null, null);
+                    }
+                }
+            } catch (EOFException e) {
+                // End of the recording
+            }
+        }
+        return session;
+    }
+
+    private static int[] readTargets(DataInputStream in) throws IOException {
+        int[] targets = new int[in.readInt()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = in.readInt();
+        }
+        return targets;
+    }
+
+    private static void readSlots(DataInputStream in, int[] quantities, long[] priceCents) throws IOException {
+        for (int i = 0; i < quantities.length; i++) {
+            quantities[i] = in.readInt();
+            priceCents[i] = in.readLong();
+        }
+    }
+
+    /**
+     * Replays recordings at the same time against a new headless vending machine.
+     *
+     * @param recordings The recording files.
+     * @param speed      How many times faster than recorded to replay, or 0 to run every command back to back.
+     * @return The report: throughput, latency per command in microseconds, and checkout outcomes.
+     * @throws IOException If a recording cannot be read.
+     */
+    public static Map<String, Double> replay(List<Path> recordings, double speed) throws IOException {
+        if (recordings.isEmpty() || speed < 0) {
+            throw new IllegalArgumentException("Give at least one recording and a speed of 0 or more.");
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (Path recording : recordings) {
+            sessions.add(load(recording));
+        }
+        VendingMachine vendingMachine = newMachine(sessions.get(0));
+
+        List<Map<SessionRecorder.Command, Latencies>> latencies = new ArrayList<>();
+        List<Map<CheckoutResult.Status, Integer>> outcomes = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] startNanos = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (Session session : sessions) {
+            Map<SessionRecorder.Command, Latencies> sessionLatencies = new LinkedHashMap<>();
+            Map<CheckoutResult.Status, Integer> sessionOutcomes = new LinkedHashMap<>();
+            latencies.add(sessionLatencies);
+            outcomes.add(sessionOutcomes);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                run(vendingMachine, session, speed, startNanos[0], sessionLatencies, sessionOutcomes);
+            }, "vending-replay-" + threads.size());
+            threads.add(thread);
+            thread.start();
+        }
+
+        startNanos[0] = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos[0];
+
+        Map<SessionRecorder.Command, Latencies> merged = new LinkedHashMap<>();
+        Map<CheckoutResult.Status, Integer> mergedOutcomes = new LinkedHashMap<>();
+        int commands = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            commands += sessions.get(i).size;
+            for (Map.Entry<SessionRecorder.Command, Latencies> entry : latencies.get(i).entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), key -> new Latencies()).addAll(entry.getValue());
+            }
+            outcomes.get(i).forEach((status, count) -> mergedOutcomes.merge(status, count, Integer::sum));
+        }
+        return report(sessions.size(), commands, elapsedNanos, merged, mergedOutcomes);
+    }
+
+    private static VendingMachine newMachine(Session session) {
+        VendingMachine vendingMachine = new VendingMachine();
+        String catalogPath = System.getProperty("vending.catalog");
+        boolean loaded = false;
+        if (catalogPath != null) {
+            try {
+                vendingMachine.initializeItems(CatalogFile.open(Paths.get(catalogPath)));
+                loaded = true;
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not load catalog " + catalogPath + ": " + e.getMessage()
+                        + ". Using the built-in menu.");
+            }
+        }
+        if (!loaded) {
+            vendingMachine.initializeItems();
+        }
+
+        for (int i = 0; i < session.quantities.length; i++) {
+            vendingMachine.updateItemQuantity(i, session.quantities[i]);
+            vendingMachine.updateItemPrice(i, session.priceCents[i] / 100.0);
+        }
+        for (int i = 0; i < session.specialPurchaseQuantities.length; i++) {
+            vendingMachine.updateSpecialPurchaseItemQuantity(i, session.specialPurchaseQuantities[i]);
+            vendingMachine.updateSpecialPurchaseItemPrice(i, session.specialPurchasePriceCents[i] / 100.0);
+        }
+        long missingFloatCents = session.changeFloatCents
+                - vendingMachine.getLedger().getBalanceCents(CashLedger.Account.CHANGE_FLOAT);
+        if (missingFloatCents > 0) {
+            vendingMachine.replenishChange(missingFloatCents / 100.0);
+        }
+        return vendingMachine;
+    }
+
+    private static void run(VendingMachine vendingMachine, Session session, double speed, long startNanos,
+            Map<SessionRecorder.Command, Latencies> latencies, Map<CheckoutResult.Status, Integer> outcomes) {
+        for (int i = 0; i < session.size; i++) {
+            long due = speed == 0 ? System.nanoTime() : startNanos + (long) (session.offsets[i] / speed);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            CheckoutResult result = apply(vendingMachine, session, i);
+            long latency = System.nanoTime() - due;
+            latencies.computeIfAbsent(session.commands[i], key -> new Latencies()).add(latency);
+            if (result != null) {
+                outcomes.merge(result.getStatus(), 1, Integer::sum);
+            }
+        }
+    }
+
+    private static CheckoutResult apply(VendingMachine vendingMachine, Session session, int i) {
+        int index = session.indexes[i];
+        long value = session.values[i];
+        switch (session.commands[i]) {
+            case CHECKOUT:
+                return vendingMachine.checkout(session.carts[i], value / 100.0);
+            case CASHLESS_CHECKOUT:
+                return vendingMachine.checkoutCashless(session.carts[i], value);
+            case CREDIT_CHECKOUT:
+                return vendingMachine.checkoutHeldCredit(session.carts[i], value);
+            case HOLD_CREDIT:
+                vendingMachine.holdCredit(value / 100.0);
+                return null;
+            case SET_QUANTITY:
+                vendingMachine.updateItemQuantity(index, (int) value);
+                return null;
+            case SET_SPECIAL_PURCHASE_QUANTITY:
+                vendingMachine.updateSpecialPurchaseItemQuantity(index, (int) value);
+                return null;
+            case RESTOCK_ALL:
+                vendingMachine.restockAllItems();
+                return null;
+            case RESTOCK_SPECIAL:
+                vendingMachine.restockSpecialItems();
+                return null;
+            case SET_PRICE:
+                vendingMachine.updateItemPrice(index, value / 100.0);
+                return null;
+            case SET_SPECIAL_PURCHASE_PRICE:
+                vendingMachine.updateSpecialPurchaseItemPrice(index, value / 100.0);
+                return null;
+            case COLLECT_CASH:
+                vendingMachine.collectCash();
+                return null;
+            case REPLENISH_CHANGE:
+                vendingMachine.replenishChange(value / 100.0);
+                return null;
+            case PURCHASE_ITEM:
+                vendingMachine.purchaseItem(vendingMachine.getCatalog().getName(CatalogFile.Section.REGULAR, index));
+                return null;
+            case PURCHASE_SPECIAL_PURCHASE_ITEM:
+                vendingMachine.purchaseSpecialPurchaseItem(index);
+                return null;
+            case REMOVE_ITEM:
+                vendingMachine.removeItem(index);
+                return null;
+            case RESTOCK_TO:
+                vendingMachine.restockTo(session.targets[i][0], session.targets[i][1]);
+                return null;
+            case REFUND_UNDELIVERED:
+            case CASHLESS_REFUND:
+                // The sale is not known, so the refund is priced from the current catalog, up to the recorded amount,
+                // against a sale of just the refunded units
+                try {
+                    vendingMachine.refundUndelivered(session.carts[i],
+                            new CheckoutResult(CheckoutResult.Status.SUCCESS, value / 100.0, 0.0, "Replayed sale.",
+                                    null, session.commands[i] == SessionRecorder.Command.CASHLESS_REFUND,
+                                    session.carts[i].getLines()));
+                } catch (IllegalArgumentException e) {
+                    // The replayed prices ended up higher than the recorded ones
+                }
+                return null;
+            default:
+                throw new IllegalStateException("Unknown command " + session.commands[i]);
+        }
+    }
+
+    private static Map<String, Double> report(int recordings, int commands, long elapsedNanos,
+            Map<SessionRecorder.Command, Latencies> latencies, Map<CheckoutResult.Status, Integer> outcomes) {
+        Map<String, Double> report = new LinkedHashMap<>();
+        report.put("recordings", (double) recordings);
+        report.put("commands", (double) commands);
+        report.put("elapsedMillis", elapsedNanos / 1e6);
+        report.put("throughputPerSecond", commands / (elapsedNanos / 1e9));
+        for (SessionRecorder.Command command : COMMANDS) {
+            Latencies latency = latencies.get(command);
+            if (latency == null) {
+                continue;
+            }
+            long[] sorted = Arrays.copyOf(latency.nanos, latency.count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long duration : sorted) {
+                total += duration;
+            }
+            String key = command.name().toLowerCase();
+            report.put(key + ".count", (double) sorted.length);
+            report.put(key + ".meanMicros", total / 1e3 / sorted.length);
+            report.put(key + ".p50Micros", percentile(sorted, 0.5) / 1e3);
+            report.put(key + ".p99Micros", percentile(sorted, 0.99) / 1e3);
+            report.put(key + ".maxMicros", sorted[sorted.length - 1] / 1e3);
+        }
+        outcomes.forEach((status, count) -> report.put("outcome." + status.name().toLowerCase(), (double) count));
+        return report;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Formats a report, with the change of each figure against a baseline report if one is given.
+     *
+     * @param report   The report of this replay.
+     * @param baseline The report of an earlier replay, e.g. of the previous build, or null.
+     * @return The formatted report.
+     */
+    public static String format(Map<String, Double> report, Map<String, Double> baseline) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Double> entry : report.entrySet()) {
+            text.append(String.format("%-40s %14.3f", entry.getKey(), entry.getValue()));
+            Double before = baseline == null ? null : baseline.get(entry.getKey());
+            if (before != null) {
+                text.append(String.format("  baseline %14.3f", before));
+                if (before != 0) {
+                    text.append(String.format("  %+8.1f%%", (entry.getValue() - before) * 100 / before));
+                }
+            }
+            text.append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes a report so that a later replay can use it as its baseline.
+     *
+     * @param report The report.
+     * @param path   The report file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void save(Map<String, Double> report, Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Double> entry : report.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads a report written by {@link #save}.
+     *
+     * @param path The report file.
+     * @return The report.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Map<String, Double> loadReport(Path path) throws IOException {
+        Map<String, Double> report = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                report.put(line.substring(0, separator).trim(),
+                        Double.parseDouble(line.substring(separator + 1).trim()));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Replays the recordings given as arguments and prints the report.
+     *
+     * @param args The options and the recording files.
+     * @throws IOException If a recording or report cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        double speed = 1;
+        Path savePath = null;
+        Path baselinePath = null;
+        List<Path> recordings = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--speed":
+                        speed = Double.parseDouble(args[++i]);
+                        break;
+                    case "--max":
+                        speed = 0;
+                        break;
+                    case "--save":
+                        savePath = Paths.get(args[++i]);
+                        break;
+                    case "--baseline":
+                        baselinePath = Paths.get(args[++i]);
+                        break;
+                    default:
+                        recordings.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            recordings.clear();
+        }
+        if (recordings.isEmpty() || speed < 0) {
+            System.err.println("Usage: java SessionReplay [--speed <factor> | --max] [--save <report>]"
+                    + " [--baseline <report>] <recording>...");
+            System.exit(2);
+        }
+
+        Map<String, Double> baseline = baselinePath == null ? null : loadReport(baselinePath);
+        Map<String, Double> report = replay(recordings, speed);
+        System.out.print(format(report, baseline));
+        if (savePath != null) {
+            save(report, savePath);
+        }
+    }
+}
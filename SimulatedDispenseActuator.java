@@ -0,0 +1,126 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates the spiral motors of a vending machine for demonstrations and throughput checks. Every turn takes a
+ * configurable mechanical latency, and a configurable share of turns jam. It also checks the rules a real
+ * machine would break under: no motor turns twice at once, and no more motors turn than the power supply drives.
+ */
+public class SimulatedDispenseActuator implements DispenseActuator {
+    private static final int DEFAULT_MAX_RUNNING_MOTORS = 4;
+
+    private final long vendMillis;
+    private final long jitterMillis;
+    private final double jamRate;
+    private final int maxRunningMotors;
+    private final Set<Long> turningMotors;
+    private final AtomicInteger runningMotors;
+    private final AtomicInteger peakRunningMotors;
+    private final AtomicLong vendedUnits;
+    private final AtomicLong jams;
+
+    /**
+     * Constructs a new simulated actuator that never jams and drives up to 4 motors at once.
+     *
+     * @param vendMillis How long every turn takes, in milliseconds.
+     */
+    public SimulatedDispenseActuator(long vendMillis) {
+        this(vendMillis, 0, 0, DEFAULT_MAX_RUNNING_MOTORS);
+    }
+
+    /**
+     * Constructs a new simulated actuator.
+     *
+     * @param vendMillis       How long every turn takes at least, in milliseconds.
+     * @param jitterMillis     The most extra time a turn takes, chosen at random.
+     * @param jamRate          The share of turns that jam, between 0 and 1.
+     * @param maxRunningMotors How many motors may turn at once.
+     */
+    public SimulatedDispenseActuator(long vendMillis, long jitterMillis, double jamRate, int maxRunningMotors) {
+        if (vendMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("The latency and jitter cannot be negative.");
+        }
+        if (jamRate < 0 || jamRate > 1) {
+            throw new IllegalArgumentException("The jam rate must be between 0 and 1.");
+        }
+        if (maxRunningMotors <= 0) {
+            throw new IllegalArgumentException("At least one motor must be able to turn.");
+        }
+        this.vendMillis = vendMillis;
+        this.jitterMillis = jitterMillis;
+        this.jamRate = jamRate;
+        this.maxRunningMotors = maxRunningMotors;
+        this.turningMotors = ConcurrentHashMap.newKeySet();
+        this.runningMotors = new AtomicInteger();
+        this.peakRunningMotors = new AtomicInteger();
+        this.vendedUnits = new AtomicLong();
+        this.jams = new AtomicLong();
+    }
+
+    @Override
+    public boolean vend(Cart.Kind kind, int index) throws InterruptedException {
+        Long motor = ((long) kind.ordinal() << 32) | (index & 0xFFFFFFFFL);
+        if (!turningMotors.add(motor)) {
+            throw new IllegalStateException("The motor of " + kind + " slot " + index + " is already turning.");
+        }
+        try {
+            int running = runningMotors.incrementAndGet();
+            try {
+                if (running > maxRunningMotors) {
+                    throw new IllegalStateException(running + " motors turning, the power supply drives "
+                            + maxRunningMotors + ".");
+                }
+                peakRunningMotors.accumulateAndGet(running, Math::max);
+                long delay = vendMillis + (jitterMillis == 0 ? 0
+                        : ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+                TimeUnit.MILLISECONDS.sleep(delay);
+                if (jamRate > 0 && ThreadLocalRandom.current().nextDouble() < jamRate) {
+                    jams.incrementAndGet();
+                    return false;
+                }
+                vendedUnits.incrementAndGet();
+                return true;
+            } finally {
+                runningMotors.decrementAndGet();
+            }
+        } finally {
+            turningMotors.remove(motor);
+        }
+    }
+
+    @Override
+    public int getMaxRunningMotors() {
+        return maxRunningMotors;
+    }
+
+    /**
+     * Retrieves the number of items that dropped.
+     *
+     * @return The number of items.
+     */
+    public long getVendedUnits() {
+        return vendedUnits.get();
+    }
+
+    /**
+     * Retrieves the number of turns that jammed.
+     *
+     * @return The number of jams.
+     */
+    public long getJams() {
+        return jams.get();
+    }
+
+    /**
+     * Retrieves the most motors that turned at once.
+     *
+     * @return The number of motors.
+     */
+    public int getPeakRunningMotors() {
+        return peakRunningMotors.get();
+    }
+}
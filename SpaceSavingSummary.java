@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the most frequent items of a stream with a fixed number of counters (the Space-Saving algorithm).
+ * Any item seen more often than the total divided by the capacity is guaranteed to be tracked. When all counters
+ * are taken, a new item replaces the least frequent one and inherits its count, so counts may overestimate by at
+ * most the recorded error. Summaries can be merged into the summary of both streams combined.
+ */
+public class SpaceSavingSummary {
+    private final int capacity;
+    private final Map<String, long[]> counters; // item -> { count, error }
+
+    /**
+     * Constructs a new, empty summary.
+     *
+     * @param capacity The number of items to track.
+     */
+    public SpaceSavingSummary(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The summary must track at least one item.");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>();
+    }
+
+    /**
+     * Adds occurrences of an item.
+     *
+     * @param item  The item.
+     * @param count The number of occurrences to add.
+     */
+    public void add(String item, long count) {
+        long[] counter = counters.get(item);
+        if (counter != null) {
+            counter[0] += count;
+        } else if (counters.size() < capacity) {
+            counters.put(item, new long[] { count, 0 });
+        } else {
+            String minimum = minimumItem();
+            long[] replaced = counters.remove(minimum);
+            counters.put(item, new long[] { replaced[0] + count, replaced[0] });
+        }
+    }
+
+    /**
+     * Retrieves the tracked count of an item.
+     *
+     * @param item The item.
+     * @return The count, which may overestimate by the recorded error, or 0 if the item is not tracked.
+     */
+    public long getCount(String item) {
+        long[] counter = counters.get(item);
+        return counter == null ? 0 : counter[0];
+    }
+
+    /**
+     * Retrieves the tracked items, most frequent first.
+     *
+     * @return The tracked items.
+     */
+    public List<String> getItems() {
+        List<String> items = new ArrayList<>(counters.keySet());
+        items.sort((a, b) -> Long.compare(counters.get(b)[0], counters.get(a)[0]));
+        return items;
+    }
+
+    /**
+     * Merges another summary into this one. An item missing from a full summary is counted as that summary's
+     * smallest count, since it may have been evicted with up to that many occurrences; then only the most
+     * frequent items are kept.
+     *
+     * @param other The summary to merge in.
+     */
+    public void merge(SpaceSavingSummary other) {
+        long missingHere = counters.size() < capacity ? 0 : counters.get(minimumItem())[0];
+        long missingThere = other.counters.size() < other.capacity ? 0
+                : other.counters.get(other.minimumItem())[0];
+
+        Map<String, long[]> combined = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            long[] there = other.counters.get(entry.getKey());
+            long[] here = entry.getValue();
+            combined.put(entry.getKey(), there != null
+                    ? new long[] { here[0] + there[0], here[1] + there[1] }
+                    : new long[] { here[0] + missingThere, here[1] + missingThere });
+        }
+        for (Map.Entry<String, long[]> entry : other.counters.entrySet()) {
+            if (!counters.containsKey(entry.getKey())) {
+                long[] there = entry.getValue();
+                combined.put(entry.getKey(), new long[] { there[0] + missingHere, there[1] + missingHere });
+            }
+        }
+
+        List<Map.Entry<String, long[]>> ranked = new ArrayList<>(combined.entrySet());
+        ranked.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        counters.clear();
+        for (int i = 0; i < ranked.size() && i < capacity; i++) {
+            counters.put(ranked.get(i).getKey(), ranked.get(i).getValue());
+        }
+    }
+
+    /**
+     * Creates an independent copy of this summary.
+     *
+     * @return The copy.
+     */
+    public SpaceSavingSummary copy() {
+        SpaceSavingSummary copy = new SpaceSavingSummary(capacity);
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            copy.counters.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    private String minimumItem() {
+        String minimum = null;
+        long minimumCount = Long.MAX_VALUE;
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            if (entry.getValue()[0] < minimumCount) {
+                minimum = entry.getKey();
+                minimumCount = entry.getValue()[0];
+            }
+        }
+        return minimum;
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recommends moving stock between the vending machines of a site, so a machine about to run out of an item is
+ * refilled from a neighbour that holds more than it will sell before the next visit. Each machine needs its
+ * forecast demand until the next visit, capped at the slot capacity; what it holds beyond that is surplus, what
+ * it lacks is a deficit. Items are matched across machines by section and name.
+ *
+ * <p>Every unit moved from a surplus to a deficit prevents one predicted stock-out, so for each item the
+ * largest surpluses are paired with the largest deficits until either runs out. That moves the most units
+ * possible in few transfers. {@link #refresh} only re-reads the machines whose state version changed and only
+ * re-pairs the items whose balance changed, so it stays fast enough to run whenever staff look at the list.
+ */
+public class StockBalancer {
+    private static final int DEFAULT_CAPACITY = 10;
+
+    /**
+     * Represents one recommended move of stock between two machines.
+     */
+    public static final class Transfer {
+        private final int fromMachine;
+        private final int toMachine;
+        private final CatalogFile.Section section;
+        private final String itemName;
+        private final int quantity;
+
+        Transfer(int fromMachine, int toMachine, CatalogFile.Section section, String itemName, int quantity) {
+            this.fromMachine = fromMachine;
+            this.toMachine = toMachine;
+            this.section = section;
+            this.itemName = itemName;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Retrieves the machine to take the items from.
+         *
+         * @return The index of the machine in the balanced list.
+         */
+        public int getFromMachine() {
+            return fromMachine;
+        }
+
+        /**
+         * Retrieves the machine to bring the items to.
+         *
+         * @return The index of the machine in the balanced list.
+         */
+        public int getToMachine() {
+            return toMachine;
+        }
+
+        /**
+         * Retrieves the catalog section of the item.
+         *
+         * @return The section.
+         */
+        public CatalogFile.Section getSection() {
+            return section;
+        }
+
+        /**
+         * Retrieves the name of the item.
+         *
+         * @return The item name.
+         */
+        public String getItemName() {
+            return itemName;
+        }
+
+        /**
+         * Retrieves the number of items to move.
+         *
+         * @return The quantity.
+         */
+        public int getQuantity() {
+            return quantity;
+        }
+
+        @Override
+        public String toString() {
+            return "Move " + quantity + " " + itemName + " from machine " + fromMachine + " to machine " + toMachine;
+        }
+    }
+
+    /**
+     * Holds the surplus (positive) or deficit (negative) of every machine for one item, and its transfers.
+     */
+    private static final class ItemBalance {
+        final CatalogFile.Section section;
+        final String itemName;
+        final int[] positions;
+        List<Transfer> transfers = Collections.emptyList();
+        int shortfall;
+        boolean dirty;
+
+        ItemBalance(CatalogFile.Section section, String itemName, int machineCount) {
+            this.section = section;
+            this.itemName = itemName;
+            this.positions = new int[machineCount];
+        }
+    }
+
+    private final List<VendingMachine> machines;
+    private final RestockPlanner planner;
+    private final long horizonMillis;
+    private final int capacity;
+    private final long[] versions;
+    // The items each machine had a position in when it was last read
+    private final List<List<ItemBalance>> machineItems;
+    private final Map<String, ItemBalance> items;
+
+    /**
+     * Constructs a new balancer with a slot capacity of 10.
+     *
+     * @param machines      The vending machines of the site; transfers refer to them by index.
+     * @param planner       The planner that forecasts the demand of each slot.
+     * @param horizonMillis How long the stock must last, i.e. the time until the next restocking visit.
+     */
+    public StockBalancer(List<VendingMachine> machines, RestockPlanner planner, long horizonMillis) {
+        this(machines, planner, horizonMillis, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new balancer.
+     *
+     * @param machines      The vending machines of the site; transfers refer to them by index.
+     * @param planner       The planner that forecasts the demand of each slot.
+     * @param horizonMillis How long the stock must last, i.e. the time until the next restocking visit.
+     * @param capacity      The most items a slot holds.
+     */
+    public StockBalancer(List<VendingMachine> machines, RestockPlanner planner, long horizonMillis, int capacity) {
+        if (horizonMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("The horizon and capacity must be positive.");
+        }
+        this.machines = new ArrayList<>(machines);
+        this.planner = planner;
+        this.horizonMillis = horizonMillis;
+        this.capacity = capacity;
+        this.versions = new long[machines.size()];
+        this.machineItems = new ArrayList<>();
+        for (int i = 0; i < machines.size(); i++) {
+            versions[i] = -1;
+            machineItems.add(new ArrayList<>());
+        }
+        this.items = new LinkedHashMap<>();
+    }
+
+    /**
+     * Brings the recommendations up to date with every machine that changed since the last refresh.
+     *
+     * @return The recommended transfers, grouped by item.
+     */
+    public synchronized List<Transfer> refresh() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < machines.size(); i++) {
+            long version = machines.get(i).getStateVersion();
+            if (version != versions[i]) {
+                readMachine(i, now);
+                versions[i] = version;
+            }
+        }
+
+        List<Transfer> transfers = new ArrayList<>();
+        for (ItemBalance item : items.values()) {
+            if (item.dirty) {
+                pair(item);
+                item.dirty = false;
+            }
+            transfers.addAll(item.transfers);
+        }
+        return transfers;
+    }
+
+    /**
+     * Marks a machine as changed, e.g. after a restock, so the next refresh reads it even if its version did not
+     * move.
+     *
+     * @param machine The index of the machine.
+     */
+    public synchronized void machineChanged(int machine) {
+        versions[machine] = -1;
+    }
+
+    /**
+     * Retrieves the number of units the site is predicted to be short of before the next visit, as of the last
+     * refresh.
+     *
+     * @param afterTransfers Whether to count the shortfall left after the recommended transfers.
+     * @return The predicted stock-outs, in units.
+     */
+    public synchronized int getPredictedStockOuts(boolean afterTransfers) {
+        int stockOuts = 0;
+        for (ItemBalance item : items.values()) {
+            stockOuts += item.shortfall;
+            if (afterTransfers) {
+                for (Transfer transfer : item.transfers) {
+                    stockOuts -= transfer.getQuantity();
+                }
+            }
+        }
+        return stockOuts;
+    }
+
+    private void readMachine(int machine, long now) {
+        VendingMachine vendingMachine = machines.get(machine);
+        RestockPlan plan = planner.plan(vendingMachine, now, now + horizonMillis);
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+
+        List<ItemBalance> previous = machineItems.get(machine);
+        Map<ItemBalance, Integer> positions = new HashMap<>();
+        addPositions(positions, catalog, CatalogFile.Section.REGULAR, vendingMachine.getQuantities(),
+                plan.getForecasts());
+        addPositions(positions, catalog, CatalogFile.Section.SPECIAL_PURCHASE,
+                vendingMachine.getSpecialPurchaseQuantities(), plan.getSpecialPurchaseForecasts());
+
+        // Items the machine no longer sells stop counting for it
+        for (ItemBalance item : previous) {
+            if (!positions.containsKey(item)) {
+                setPosition(item, machine, 0);
+            }
+        }
+        for (Map.Entry<ItemBalance, Integer> entry : positions.entrySet()) {
+            setPosition(entry.getKey(), machine, entry.getValue());
+        }
+        machineItems.set(machine, new ArrayList<>(positions.keySet()));
+    }
+
+    private void addPositions(Map<ItemBalance, Integer> positions, CatalogSnapshot catalog,
+            CatalogFile.Section section, int[] quantities, double[] forecasts) {
+        for (int i = 0; i < quantities.length && i < catalog.size(section); i++) {
+            String name = catalog.getName(section, i);
+            if (name == null || Double.isNaN(forecasts[i])) {
+                continue; // Without sales history the machine neither gives nor asks
+            }
+            int need = (int) Math.min(capacity, Math.ceil(forecasts[i]));
+            ItemBalance item = items.computeIfAbsent(section + "/" + name,
+                    key -> new ItemBalance(section, name, machines.size()));
+            positions.merge(item, quantities[i] - need, Integer::sum);
+        }
+    }
+
+    private static void setPosition(ItemBalance item, int machine, int position) {
+        if (item.positions[machine] != position) {
+            item.positions[machine] = position;
+            item.dirty = true;
+        }
+    }
+
+    /**
+     * Pairs the largest surpluses of an item with its largest deficits.
+     */
+    private void pair(ItemBalance item) {
+        List<Integer> surplus = new ArrayList<>();
+        List<Integer> deficit = new ArrayList<>();
+        int shortfall = 0;
+        for (int machine = 0; machine < item.positions.length; machine++) {
+            if (item.positions[machine] > 0) {
+                surplus.add(machine);
+            } else if (item.positions[machine] < 0) {
+                deficit.add(machine);
+                shortfall -= item.positions[machine];
+            }
+        }
+        item.shortfall = shortfall;
+        surplus.sort((a, b) -> Integer.compare(item.positions[b], item.positions[a]));
+        deficit.sort((a, b) -> Integer.compare(item.positions[a], item.positions[b]));
+
+        List<Transfer> transfers = new ArrayList<>();
+        int s = 0;
+        int d = 0;
+        int available = surplus.isEmpty() ? 0 : item.positions[surplus.get(0)];
+        int missing = deficit.isEmpty() ? 0 : -item.positions[deficit.get(0)];
+        while (s < surplus.size() && d < deficit.size()) {
+            int quantity = Math.min(available, missing);
+            transfers.add(new Transfer(surplus.get(s), deficit.get(d), item.section, item.itemName, quantity));
+            available -= quantity;
+            missing -= quantity;
+            if (available == 0 && ++s < surplus.size()) {
+                available = item.positions[surplus.get(s)];
+            }
+            if (missing == 0 && ++d < deficit.size()) {
+                missing = -item.positions[deficit.get(d)];
+            }
+        }
+        item.transfers = transfers;
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Simulates a payment provider for demonstrations and load checks. Every answer arrives after a configurable
+ * latency, and a configurable share of payments are declined or of requests fail, so {@link CashlessPayments}
+ * can be exercised against a slow or unreliable provider without a network.
+ */
+public class StubPaymentProvider implements PaymentProvider {
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong nextId;
+    private final AtomicLong authorizedCents;
+    private final AtomicLong releasedCents;
+    private final AtomicLong capturedCents;
+    private final AtomicLong captureBatches;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double declineRate;
+    private volatile double failureRate;
+
+    /**
+     * Constructs a new stub that answers after the given latency and approves every payment.
+     *
+     * @param latencyMillis How long every answer takes, in milliseconds.
+     */
+    public StubPaymentProvider(long latencyMillis) {
+        this(latencyMillis, 0, 0, 0);
+    }
+
+    /**
+     * Constructs a new stub.
+     *
+     * @param latencyMillis How long every answer takes at least, in milliseconds.
+     * @param jitterMillis  The most extra time an answer takes, chosen at random.
+     * @param declineRate   The share of payments declined, between 0 and 1.
+     * @param failureRate   The share of requests that fail, between 0 and 1.
+     */
+    public StubPaymentProvider(long latencyMillis, long jitterMillis, double declineRate, double failureRate) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vending-stub-payments");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextId = new AtomicLong();
+        this.authorizedCents = new AtomicLong();
+        this.releasedCents = new AtomicLong();
+        this.capturedCents = new AtomicLong();
+        this.captureBatches = new AtomicLong();
+        setLatency(latencyMillis, jitterMillis);
+        setDeclineRate(declineRate);
+        setFailureRate(failureRate);
+    }
+
+    @Override
+    public CompletableFuture<Authorization> authorize(String paymentToken, long amountCents) {
+        return answer(() -> {
+            if (ThreadLocalRandom.current().nextDouble() < declineRate) {
+                return new Authorization(null, amountCents, false, "Insufficient funds.");
+            }
+            authorizedCents.addAndGet(amountCents);
+            return new Authorization("auth-" + nextId.incrementAndGet(), amountCents, true, null);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> capture(List<Capture> captures) {
+        return answer(() -> {
+            long total = 0;
+            for (Capture capture : captures) {
+                total += capture.getAmountCents();
+            }
+            capturedCents.addAndGet(total);
+            captureBatches.incrementAndGet();
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> release(Authorization authorization) {
+        return answer(() -> {
+            releasedCents.addAndGet(authorization.getAmountCents());
+            return null;
+        });
+    }
+
+    /**
+     * Updates how long the answers take.
+     *
+     * @param latencyMillis How long every answer takes at least, in milliseconds.
+     * @param jitterMillis  The most extra time an answer takes, chosen at random.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        if (latencyMillis < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("The latency and jitter cannot be negative.");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Updates the share of payments declined.
+     *
+     * @param declineRate The share, between 0 and 1.
+     */
+    public void setDeclineRate(double declineRate) {
+        if (declineRate < 0 || declineRate > 1) {
+            throw new IllegalArgumentException("The decline rate must be between 0 and 1.");
+        }
+        this.declineRate = declineRate;
+    }
+
+    /**
+     * Updates the share of requests that fail.
+     *
+     * @param failureRate The share, between 0 and 1.
+     */
+    public void setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("The failure rate must be between 0 and 1.");
+        }
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Retrieves the total amount of approved authorizations.
+     *
+     * @return The amount, in centavos.
+     */
+    public long getAuthorizedCents() {
+        return authorizedCents.get();
+    }
+
+    /**
+     * Retrieves the total amount of released authorizations.
+     *
+     * @return The amount, in centavos.
+     */
+    public long getReleasedCents() {
+        return releasedCents.get();
+    }
+
+    /**
+     * Retrieves the total amount captured.
+     *
+     * @return The amount, in centavos.
+     */
+    public long getCapturedCents() {
+        return capturedCents.get();
+    }
+
+    /**
+     * Retrieves the number of capture requests that succeeded.
+     *
+     * @return The number of batches.
+     */
+    public long getCaptureBatches() {
+        return captureBatches.get();
+    }
+
+    private <T> CompletableFuture<T> answer(Supplier<T> outcome) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long delay = latencyMillis + (jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+        scheduler.schedule(() -> {
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                future.completeExceptionally(new IllegalStateException("The payment provider is unavailable."));
+            } else {
+                future.complete(outcome.get());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+}
@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores named series of (time, value) samples in compressed, fixed-size blocks. Timestamps are encoded as the
+ * change of the gap between samples (delta-of-delta) and values as the XOR with the previous value, both as
+ * variable-length integers, so a slowly changing level costs a few bytes per sample. Every sealed block keeps
+ * its time range and its minimum, maximum and last value, so downsampled queries only decode blocks that are
+ * split by a bucket boundary.
+ *
+ * <p>Samples of a series must be appended in time order. Values are levels: a value holds until the next sample.
+ */
+public class TimeSeriesStore {
+    /**
+     * The size of a block, in bytes.
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    // Worst case of one sample: two 10-byte varints
+    private static final int MAX_SAMPLE_SIZE = 20;
+    private static final int INITIAL_BLOCK_CAPACITY = 32;
+
+    /**
+     * Receives the samples of a scan.
+     */
+    public interface SampleVisitor {
+        /**
+         * Receives one sample.
+         *
+         * @param time  The time of the sample, in milliseconds since the epoch.
+         * @param value The value of the sample.
+         */
+        void visit(long time, long value);
+    }
+
+    /**
+     * Represents one bucket of a downsampled query.
+     */
+    public static final class Bucket {
+        private final long start;
+        private final long min;
+        private final long max;
+        private final long last;
+
+        Bucket(long start, long min, long max, long last) {
+            this.start = start;
+            this.min = min;
+            this.max = max;
+            this.last = last;
+        }
+
+        /**
+         * Retrieves the start of the bucket.
+         *
+         * @return The start time, in milliseconds since the epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Retrieves the lowest level during the bucket.
+         *
+         * @return The minimum value.
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * Retrieves the highest level during the bucket.
+         *
+         * @return The maximum value.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Retrieves the level at the end of the bucket.
+         *
+         * @return The last value.
+         */
+        public long getLast() {
+            return last;
+        }
+    }
+
+    /**
+     * Holds up to {@link #BLOCK_SIZE} bytes of encoded samples and a summary of them.
+     */
+    private static final class Block {
+        // Grows up to BLOCK_SIZE, so the many short series of an idle machine stay small
+        byte[] data = new byte[INITIAL_BLOCK_CAPACITY];
+        int length;
+        int count;
+        long firstTime;
+        long lastTime;
+        long lastDelta;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long lastValue;
+
+        boolean hasRoom() {
+            return length + MAX_SAMPLE_SIZE <= BLOCK_SIZE;
+        }
+
+        void append(long time, long value) {
+            if (length + MAX_SAMPLE_SIZE > data.length) {
+                data = Arrays.copyOf(data, Math.min(BLOCK_SIZE, data.length * 2));
+            }
+            if (count == 0) {
+                firstTime = time;
+                writeVarint(InventorySnapshotCodec.zigzag(time));
+                writeVarint(value);
+            } else {
+                long delta = time - lastTime;
+                writeVarint(InventorySnapshotCodec.zigzag(delta - lastDelta));
+                writeVarint(value ^ lastValue);
+                lastDelta = delta;
+            }
+            lastTime = time;
+            lastValue = value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            count++;
+        }
+
+        void seal() {
+            data = Arrays.copyOf(data, length);
+        }
+
+        void decode(SampleVisitor visitor) {
+            int position = 0;
+            long time = 0;
+            long delta = 0;
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                long timeBits = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    timeBits |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                long valueBits = 0;
+                shift = 0;
+                do {
+                    b = data[position++];
+                    valueBits |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                if (i == 0) {
+                    time = InventorySnapshotCodec.unzigzag(timeBits);
+                    value = valueBits;
+                } else {
+                    delta += InventorySnapshotCodec.unzigzag(timeBits);
+                    time += delta;
+                    value ^= valueBits;
+                }
+                visitor.visit(time, value);
+            }
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    private final Map<String, List<Block>> series;
+    // The level each series held at the end of its dropped blocks, for queries that start after them
+    private final Map<String, Long> baselines;
+
+    /**
+     * Constructs a new, empty store.
+     */
+    public TimeSeriesStore() {
+        series = new LinkedHashMap<>();
+        baselines = new HashMap<>();
+    }
+
+    /**
+     * Appends a sample to a series, creating the series if needed.
+     *
+     * @param name  The name of the series.
+     * @param time  The time of the sample, in milliseconds since the epoch; not earlier than the previous sample.
+     * @param value The value of the sample.
+     */
+    public synchronized void append(String name, long time, long value) {
+        List<Block> blocks = series.computeIfAbsent(name, key -> new ArrayList<>(1));
+        Block open = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (open != null && time < open.lastTime) {
+            throw new IllegalArgumentException("Samples of " + name + " must be appended in time order.");
+        }
+        if (open == null || !open.hasRoom()) {
+            if (open != null) {
+                open.seal();
+            }
+            open = new Block();
+            blocks.add(open);
+        }
+        open.append(time, value);
+    }
+
+    /**
+     * Appends a sample only if its value differs from the latest value of the series.
+     *
+     * @param name  The name of the series.
+     * @param time  The time of the sample, in milliseconds since the epoch.
+     * @param value The value of the sample.
+     * @return True if the sample was appended.
+     */
+    public synchronized boolean appendIfChanged(String name, long time, long value) {
+        List<Block> blocks = series.get(name);
+        if (blocks != null && blocks.get(blocks.size() - 1).lastValue == value) {
+            return false;
+        }
+        append(name, time, value);
+        return true;
+    }
+
+    /**
+     * Retrieves the latest value of a series.
+     *
+     * @param name         The name of the series.
+     * @param defaultValue The value to return if the series is empty.
+     * @return The latest value.
+     */
+    public synchronized long getLatest(String name, long defaultValue) {
+        List<Block> blocks = series.get(name);
+        return blocks == null ? defaultValue : blocks.get(blocks.size() - 1).lastValue;
+    }
+
+    /**
+     * Retrieves the value a series held at a point in time, i.e. its last sample before that time.
+     *
+     * @param name         The name of the series.
+     * @param time         The point in time, exclusive.
+     * @param defaultValue The value to return if the series has no sample before the time.
+     * @return The value at that time.
+     */
+    public synchronized long getValueBefore(String name, long time, long defaultValue) {
+        long[] value = { baselines.getOrDefault(name, defaultValue) };
+        for (Block block : blocksOf(name)) {
+            if (block.firstTime >= time) {
+                break;
+            }
+            if (block.lastTime < time) {
+                value[0] = block.lastValue;
+                continue;
+            }
+            block.decode((sampleTime, sampleValue) -> {
+                if (sampleTime < time) {
+                    value[0] = sampleValue;
+                }
+            });
+            break;
+        }
+        return value[0];
+    }
+
+    /**
+     * Retrieves the names of every series, in the order they were created.
+     *
+     * @return The series names.
+     */
+    public synchronized List<String> getSeriesNames() {
+        return Collections.unmodifiableList(new ArrayList<>(series.keySet()));
+    }
+
+    /**
+     * Visits every sample of a series in a time range, oldest first.
+     *
+     * @param name    The name of the series.
+     * @param from    The start of the range, inclusive.
+     * @param to      The end of the range, exclusive.
+     * @param visitor The visitor.
+     */
+    public synchronized void scan(String name, long from, long to, SampleVisitor visitor) {
+        for (Block block : blocksOf(name)) {
+            if (block.lastTime < from || block.firstTime >= to) {
+                continue;
+            }
+            block.decode((time, value) -> {
+                if (time >= from && time < to) {
+                    visitor.visit(time, value);
+                }
+            });
+        }
+    }
+
+    /**
+     * Downsamples a series into fixed-width buckets. Each bucket reports the lowest, highest and last level
+     * during it; a bucket without samples repeats the level carried over from before it. Buckets before the
+     * first sample of the series are left out.
+     *
+     * @param name       The name of the series.
+     * @param from       The start of the first bucket.
+     * @param to         The end of the range, exclusive.
+     * @param bucketSize The width of a bucket, in milliseconds.
+     * @return The buckets, oldest first.
+     */
+    public synchronized List<Bucket> query(String name, long from, long to, long bucketSize) {
+        if (bucketSize <= 0 || to <= from) {
+            throw new IllegalArgumentException("The range and bucket size must be positive.");
+        }
+        int bucketCount = (int) ((to - from + bucketSize - 1) / bucketSize);
+        long[] min = new long[bucketCount];
+        long[] max = new long[bucketCount];
+        long[] last = new long[bucketCount];
+        boolean[] sampled = new boolean[bucketCount];
+        Long baseline = baselines.get(name);
+        long[] carried = { baseline == null ? 0 : baseline };
+        boolean[] known = { baseline != null };
+
+        for (Block block : blocksOf(name)) {
+            if (block.firstTime >= to) {
+                break;
+            }
+            if (block.lastTime < from) {
+                // Entirely before the range: only its final level matters
+                carried[0] = block.lastValue;
+                known[0] = true;
+                continue;
+            }
+            int firstBucket = (int) ((Math.max(block.firstTime, from) - from) / bucketSize);
+            int lastBucket = (int) ((block.lastTime - from) / bucketSize);
+            if (block.firstTime >= from && block.lastTime < to && firstBucket == lastBucket) {
+                // The whole block falls into one bucket: use its summary without decoding
+                addToBucket(firstBucket, block.min, block.max, block.lastValue, min, max, last, sampled);
+                continue;
+            }
+            block.decode((time, value) -> {
+                if (time < from) {
+                    carried[0] = value;
+                    known[0] = true;
+                } else if (time < to) {
+                    addToBucket((int) ((time - from) / bucketSize), value, value, value, min, max, last, sampled);
+                }
+            });
+        }
+
+        List<Bucket> buckets = new ArrayList<>();
+        boolean hasLevel = known[0];
+        long level = carried[0];
+        for (int i = 0; i < bucketCount; i++) {
+            long start = from + i * bucketSize;
+            if (sampled[i]) {
+                // The level carried in also held at the start of the bucket
+                long low = hasLevel ? Math.min(level, min[i]) : min[i];
+                long high = hasLevel ? Math.max(level, max[i]) : max[i];
+                buckets.add(new Bucket(start, low, high, last[i]));
+                level = last[i];
+                hasLevel = true;
+            } else if (hasLevel) {
+                buckets.add(new Bucket(start, level, level, level));
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Drops the sealed blocks that end before a point in time, to bound the memory of a long-running store.
+     * The level a series ended on is kept, so later values and downsampled queries still see it carried in;
+     * only the samples themselves are lost. The latest block of every series is always kept.
+     *
+     * @param time The point in time; blocks whose last sample is earlier are dropped.
+     * @return The number of blocks dropped.
+     */
+    public synchronized int dropBefore(long time) {
+        int dropped = 0;
+        for (Map.Entry<String, List<Block>> entry : series.entrySet()) {
+            List<Block> blocks = entry.getValue();
+            int count = 0;
+            while (count < blocks.size() - 1 && blocks.get(count).lastTime < time) {
+                count++;
+            }
+            if (count > 0) {
+                baselines.put(entry.getKey(), blocks.get(count - 1).lastValue);
+                blocks.subList(0, count).clear();
+                dropped += count;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Retrieves the memory used by the encoded samples.
+     *
+     * @return The size, in bytes.
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (List<Block> blocks : series.values()) {
+            for (Block block : blocks) {
+                size += block.data.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Retrieves the number of samples stored in a series.
+     *
+     * @param name The name of the series.
+     * @return The number of samples.
+     */
+    public synchronized long getSampleCount(String name) {
+        long count = 0;
+        for (Block block : blocksOf(name)) {
+            count += block.count;
+        }
+        return count;
+    }
+
+    private List<Block> blocksOf(String name) {
+        List<Block> blocks = series.get(name);
+        return blocks == null ? Collections.<Block>emptyList() : blocks;
+    }
+
+    private static void addToBucket(int bucket, long low, long high, long value, long[] min, long[] max,
+            long[] last, boolean[] sampled) {
+        if (!sampled[bucket]) {
+            min[bucket] = low;
+            max[bucket] = high;
+            sampled[bucket] = true;
+        } else {
+            min[bucket] = Math.min(min[bucket], low);
+            max[bucket] = Math.max(max[bucket], high);
+        }
+        last[bucket] = value;
+    }
+}
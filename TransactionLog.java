@@ -0,0 +1,76 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append-only log of transaction descriptions. Appends are serialized by the owning vending machine;
+ * readers never lock and never see a concurrent modification, because entries are never changed once
+ * written and a reader only looks at the prefix that existed when it pinned its length.
+ */
+public class TransactionLog {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final String[] NO_ENTRIES = new String[0];
+
+    private volatile String[] entries;
+    private volatile int size;
+
+    /**
+     * Constructs a new, empty log.
+     */
+    public TransactionLog() {
+        entries = NO_ENTRIES; // Most machines of a simulated fleet never log anything
+        size = 0;
+    }
+
+    /**
+     * Appends an entry. Callers must not append concurrently.
+     *
+     * @param entry The transaction description.
+     */
+    void append(String entry) {
+        String[] current = entries;
+        if (size == current.length) {
+            // Readers holding the old array still see every entry they pinned
+            current = Arrays.copyOf(current, Math.max(INITIAL_CAPACITY, current.length * 2));
+            entries = current;
+        }
+        current[size] = entry;
+        size = size + 1; // Publishes the entry
+    }
+
+    /**
+     * Retrieves the number of entries appended so far.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves a read-only view of the first entries of the log. Later appends never show up in it.
+     *
+     * @param length The number of entries to include, usually a previously read {@link #size()}.
+     * @return The entries, oldest first.
+     */
+    public List<String> prefix(int length) {
+        if (length < 0 || length > size) {
+            throw new IndexOutOfBoundsException("Log has " + size + " entries, requested " + length);
+        }
+        String[] pinned = entries; // Read after size, so it holds at least the first length entries
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= length) {
+                    throw new IndexOutOfBoundsException("Index " + index + ", size " + length);
+                }
+                return pinned[index];
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        };
+    }
+}
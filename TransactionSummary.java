@@ -0,0 +1,136 @@
+/**
+ * Builds the text of the transaction summaries shown by the maintenance menus. It depends on nothing but the
+ * vending machine, so every front-end shows the same report.
+ */
+public final class TransactionSummary {
+    private TransactionSummary() {
+    }
+
+    /**
+     * Builds the summary of the regular vending machine: the transaction history, the remaining regular stock,
+     * the balances and the sales analytics.
+     *
+     * @param vendingMachine The vending machine.
+     * @return The summary text.
+     */
+    public static String forRegular(VendingMachine vendingMachine) {
+        VendingEvents.Summary event = new VendingEvents.Summary();
+        event.begin();
+        StringBuilder summaryText = new StringBuilder("Transaction Summary:\n\n");
+
+        // History, stock and balance all come from the same version, even while sales continue
+        try (ReadView view = vendingMachine.openReadView()) {
+            appendHistory(summaryText, view);
+            appendStockSummary(summaryText, view, CatalogFile.Section.REGULAR, view.getQuantities());
+        }
+        appendSalesAnalytics(summaryText, vendingMachine.getSalesAnalytics());
+        return finish(event, "regular", summaryText);
+    }
+
+    /**
+     * Builds the summary of the special vending machine: the transaction history, the remaining special purchase
+     * stock and the balances.
+     *
+     * @param vendingMachine The vending machine.
+     * @return The summary text.
+     */
+    public static String forSpecial(VendingMachine vendingMachine) {
+        VendingEvents.Summary event = new VendingEvents.Summary();
+        event.begin();
+        StringBuilder summaryText = new StringBuilder("Special Transaction Summary:\n\n");
+
+        try (ReadView view = vendingMachine.openReadView()) {
+            appendHistory(summaryText, view);
+            appendStockSummary(summaryText, view, CatalogFile.Section.SPECIAL_PURCHASE,
+                    view.getSpecialPurchaseQuantities());
+        }
+        return finish(event, "special", summaryText);
+    }
+
+    private static String finish(VendingEvents.Summary event, String kind, StringBuilder summaryText) {
+        String summary = summaryText.toString();
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.length = summary.length();
+            event.commit();
+        }
+        return summary;
+    }
+
+    private static void appendHistory(StringBuilder summaryText, ReadView view) {
+        for (String purchaseInfo : view.getTransactionHistory()) {
+            summaryText.append(purchaseInfo).append("\n");
+        }
+    }
+
+    /**
+     * Appends the remaining stock of a section and the machine balances to a summary.
+     *
+     * @param summaryText The summary to append to.
+     * @param view        The read view the summary is taken from, balances and reconciliation included.
+     * @param section     The catalog section to list.
+     * @param quantities  The quantities of the section, from the same view.
+     */
+    private static void appendStockSummary(StringBuilder summaryText, ReadView view, CatalogFile.Section section,
+            int[] quantities) {
+        CatalogSnapshot catalog = view.getCatalog();
+        summaryText.append("\nRemaining Stock:\n");
+        for (int i = 0; i < quantities.length; i++) {
+            String name = catalog.getName(section, i);
+            if (name != null) {
+                summaryText.append(name).append(": ").append(quantities[i]).append("\n");
+            }
+        }
+        summaryText.append("\nCash Box: \u20B1")
+                .append(view.getBalanceCents(CashLedger.Account.CASH_BOX) / 100.0).append("\n");
+        summaryText.append("Change Available: \u20B1")
+                .append(view.getBalanceCents(CashLedger.Account.CHANGE_FLOAT) / 100.0).append("\n");
+        summaryText.append("Cashless Unsettled: \u20B1")
+                .append(view.getBalanceCents(CashLedger.Account.CASHLESS_RECEIVABLE) / 100.0).append("\n");
+        summaryText.append("Revenue: \u20B1")
+                .append(view.getBalanceCents(CashLedger.Account.REVENUE) / 100.0).append("\n");
+        CashLedger.Reconciliation reconciliation = view.getReconciliation();
+        summaryText.append("Books Balanced: ").append(reconciliation.isReconciled() ? "Yes" : "No").append("\n");
+        if (reconciliation.getCashDiscrepancyCents() != 0) {
+            summaryText.append("Cash Discrepancy: \u20B1")
+                    .append(reconciliation.getCashDiscrepancyCents() / 100.0).append("\n");
+        }
+    }
+
+    /**
+     * Appends the best sellers, the peak hour and the sale amount distribution to a summary.
+     *
+     * @param summaryText The summary to append to.
+     * @param analytics   The sales analytics to report.
+     */
+    private static void appendSalesAnalytics(StringBuilder summaryText, SalesAnalytics analytics) {
+        summaryText.append("\nBest Sellers:\n");
+        for (SalesAnalytics.Seller seller : analytics.getBestSellers(5)) {
+            summaryText.append(seller.getName()).append(": ").append(seller.getUnits()).append(" sold\n");
+        }
+        int peakHour = analytics.getPeakHour();
+        if (peakHour >= 0) {
+            summaryText.append("\nPeak Hour: ").append(String.format("%02d:00", peakHour)).append(" - ")
+                    .append(analytics.getHourlyUnits()[peakHour]).append(" sold, \u20B1")
+                    .append(analytics.getHourlyRevenueCents()[peakHour] / 100.0).append("\n");
+            for (SalesAnalytics.Seller seller : analytics.getBestSellers(peakHour, 3)) {
+                summaryText.append("  ").append(seller.getName()).append(": ").append(seller.getUnits())
+                        .append("\n");
+            }
+        }
+        summaryText.append("\nSale Amounts:\n");
+        long[] distribution = analytics.getAmountDistribution();
+        long lowerBound = 0;
+        for (int i = 0; i < distribution.length; i++) {
+            if (i < SalesAnalytics.AMOUNT_BUCKET_BOUNDS.length) {
+                summaryText.append("\u20B1").append(lowerBound / 100).append("-\u20B1")
+                        .append(SalesAnalytics.AMOUNT_BUCKET_BOUNDS[i] / 100);
+                lowerBound = SalesAnalytics.AMOUNT_BUCKET_BOUNDS[i];
+            } else {
+                summaryText.append("\u20B1").append(lowerBound / 100).append("+");
+            }
+            summaryText.append(": ").append(distribution[i]).append("\n");
+        }
+    }
+}
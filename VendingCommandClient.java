@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A small blocking client for {@link VendingCommandServer}, meant for thin kiosk front-ends.
+ * Commands are queued and sent together by {@link #flush()}, so several commands cost a single round trip.
+ */
+public class VendingCommandClient implements Closeable {
+    private final SocketChannel channel;
+    private ByteBuffer requests;
+    private final ByteBuffer responses;
+    private int queued;
+
+    /**
+     * Represents the server's answer to one command.
+     */
+    public static final class Response {
+        private final byte status;
+        private final long value;
+
+        Response(byte status, long value) {
+            this.status = status;
+            this.value = value;
+        }
+
+        /**
+         * Retrieves the status code, one of the {@code STATUS_} constants of {@link VendingCommandServer}.
+         *
+         * @return The status code.
+         */
+        public byte getStatus() {
+            return status;
+        }
+
+        /**
+         * Checks whether the command succeeded.
+         *
+         * @return True if the status is {@link VendingCommandServer#STATUS_OK}.
+         */
+        public boolean isOk() {
+            return status == VendingCommandServer.STATUS_OK;
+        }
+
+        /**
+         * Retrieves the result of the command, e.g. the credit, price, change or quantity.
+         *
+         * @return The result, or 0 if the command returns nothing.
+         */
+        public long getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Connects to a command server.
+     *
+     * @param address The address of the server.
+     * @throws IOException If the connection fails.
+     */
+    public VendingCommandClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        requests = ByteBuffer.allocate(256);
+        responses = ByteBuffer.allocate(8192);
+        responses.limit(0);
+    }
+
+    /**
+     * Queues the insertion of a coin.
+     *
+     * @param denomination The coin denomination.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient insertCoin(int denomination) {
+        frame(VendingCommandServer.OP_INSERT_COIN, 4).putInt(denomination);
+        return this;
+    }
+
+    /**
+     * Queues the selection of an item to check out.
+     *
+     * @param kind  The kind of item, regular or special purchase.
+     * @param index The index of the item.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient select(byte kind, int index) {
+        frame(VendingCommandServer.OP_SELECT, 3).put(kind).putShort((short) index);
+        return this;
+    }
+
+    /**
+     * Queues the checkout of the selected item with the inserted coins.
+     *
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient checkout() {
+        frame(VendingCommandServer.OP_CHECKOUT, 0);
+        return this;
+    }
+
+    /**
+     * Queues an idempotent checkout. Retrying with the same request id on this connection returns the original
+     * outcome instead of checking out again. Ids are scoped to the connection, so other clients may reuse them.
+     *
+     * @param requestId A request id unique to this checkout attempt.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient checkout(long requestId) {
+        frame(VendingCommandServer.OP_CHECKOUT, 8).putLong(requestId);
+        return this;
+    }
+
+    /**
+     * Queues the restocking of an item.
+     *
+     * @param kind               The kind of item, regular or special purchase.
+     * @param index              The index of the item.
+     * @param additionalQuantity The quantity to add.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient restock(byte kind, int index, int additionalQuantity) {
+        frame(VendingCommandServer.OP_RESTOCK, 7).put(kind).putShort((short) index).putInt(additionalQuantity);
+        return this;
+    }
+
+    /**
+     * Queues a price change.
+     *
+     * @param kind       The kind of item, regular or special purchase.
+     * @param index      The index of the item.
+     * @param priceCents The new price, in centavos.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient setPrice(byte kind, int index, long priceCents) {
+        frame(VendingCommandServer.OP_SET_PRICE, 11).put(kind).putShort((short) index).putLong(priceCents);
+        return this;
+    }
+
+    /**
+     * Queues a stock query.
+     *
+     * @param kind  The kind of item, regular or special purchase.
+     * @param index The index of the item.
+     * @return This client, for chaining.
+     */
+    public VendingCommandClient queryStock(byte kind, int index) {
+        frame(VendingCommandServer.OP_QUERY_STOCK, 3).put(kind).putShort((short) index);
+        return this;
+    }
+
+    /**
+     * Sends every queued command and waits for all of their responses.
+     *
+     * @return The responses, in the order the commands were queued.
+     * @throws IOException If the connection fails.
+     */
+    public Response[] flush() throws IOException {
+        requests.flip();
+        while (requests.hasRemaining()) {
+            channel.write(requests);
+        }
+        requests.clear();
+        Response[] result = new Response[queued];
+        queued = 0;
+        for (int i = 0; i < result.length; i++) {
+            fill(2);
+            int length = responses.getShort() & 0xFFFF;
+            fill(length);
+            byte status = responses.get();
+            long value = 0;
+            if (length == 5) {
+                value = responses.getInt();
+            } else if (length == 9) {
+                value = responses.getLong();
+            } else {
+                responses.position(responses.position() + length - 1);
+            }
+            result[i] = new Response(status, value);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer frame(byte opcode, int argumentBytes) {
+        if (requests.remaining() < 3 + argumentBytes) {
+            ByteBuffer larger = ByteBuffer.allocate(requests.capacity() * 2 + argumentBytes);
+            requests.flip();
+            larger.put(requests);
+            requests = larger;
+        }
+        queued++;
+        return requests.putShort((short) (1 + argumentBytes)).put(opcode);
+    }
+
+    // Ensures at least the given number of response bytes are buffered and leaves the buffer readable.
+    private void fill(int bytes) throws IOException {
+        while (responses.remaining() < bytes) {
+            responses.compact();
+            if (channel.read(responses) < 0) {
+                throw new EOFException("Server closed the connection.");
+            }
+            responses.flip();
+        }
+    }
+}
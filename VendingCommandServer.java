@@ -0,0 +1,476 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A non-blocking TCP server that lets remote kiosk front-ends drive a single vending machine.
+ * A small fixed pool of selector loops serves every connection; the first loop also accepts new ones.
+ *
+ * <p>Every request is a frame of a two-byte big-endian length, a one-byte opcode and its arguments.
+ * Every response is a frame of a two-byte length, a one-byte status and its result. Clients may pipeline
+ * any number of requests; responses are returned in request order. Amounts are sent in centavos.
+ * Every inserted coin is held by the machine as customer credit right away, so credit a connection has not spent
+ * when it closes stays owed to the customer in the ledger. A checkout that carries a request id is idempotent:
+ * retrying it on the same connection returns the original outcome. Request ids are scoped to their connection,
+ * so clients that happen to pick the same ids never see each other's outcomes.
+ * A client that pipelines faster than it reads its responses is not read from until the pending responses
+ * have been written, so every connection holds at most one input and one output buffer. A command that fails
+ * unexpectedly closes only its own connection.</p>
+ *
+ * <pre>
+ * INSERT_COIN  denomination:int             -&gt; credit:long
+ * SELECT       kind:byte index:short        -&gt; price:long   (adds one unit to the cart)
+ * CHECKOUT     [requestId:long]             -&gt; change:long  (sells the whole cart)
+ * RESTOCK      kind:byte index:short add:int -&gt; quantity:int
+ * SET_PRICE    kind:byte index:short price:long -&gt; (empty)
+ * QUERY_STOCK  kind:byte index:short        -&gt; quantity:int
+ * </pre>
+ */
+public class VendingCommandServer implements Closeable {
+    public static final byte OP_INSERT_COIN = 1;
+    public static final byte OP_SELECT = 2;
+    public static final byte OP_CHECKOUT = 3;
+    public static final byte OP_RESTOCK = 4;
+    public static final byte OP_SET_PRICE = 5;
+    public static final byte OP_QUERY_STOCK = 6;
+
+    public static final byte KIND_REGULAR = 0;
+    public static final byte KIND_SPECIAL_PURCHASE = 1;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_INVALID_ARGUMENT = 1;
+    public static final byte STATUS_OUT_OF_STOCK = 2;
+    public static final byte STATUS_INSUFFICIENT_AMOUNT = 3;
+    public static final byte STATUS_INSUFFICIENT_CHANGE = 4;
+    public static final byte STATUS_NO_SELECTION = 5;
+    public static final byte STATUS_UNKNOWN_COMMAND = 6;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_RESPONSE_BYTES = 11;
+
+    private final VendingMachine vendingMachine;
+    private final ServerSocketChannel serverChannel;
+    private final SelectorLoop[] loops;
+    private final ExecutorService executor;
+    private final AtomicInteger nextLoop;
+    private final AtomicLong nextSessionId;
+    private volatile boolean running;
+
+    /**
+     * Constructs a new server bound to the given address. Call {@link #start()} to begin serving.
+     *
+     * @param vendingMachine The vending machine the commands are applied to.
+     * @param address        The local address to bind; port 0 picks a free port.
+     * @param threads        The number of selector threads.
+     * @throws IOException If the address cannot be bound.
+     */
+    public VendingCommandServer(VendingMachine vendingMachine, InetSocketAddress address, int threads)
+            throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("At least one selector thread is required.");
+        }
+        this.vendingMachine = vendingMachine;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.serverChannel.configureBlocking(false);
+        this.loops = new SelectorLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+        }
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.nextLoop = new AtomicInteger();
+        this.nextSessionId = new AtomicLong();
+    }
+
+    /**
+     * Starts the selector threads.
+     *
+     * @throws IOException If the accepting channel cannot be registered.
+     */
+    public void start() throws IOException {
+        running = true;
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (SelectorLoop loop : loops) {
+            executor.execute(loop);
+        }
+    }
+
+    /**
+     * Retrieves the port the server is listening on.
+     *
+     * @return The local port.
+     * @throws IOException If the port cannot be determined.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stops the server and closes every connection.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (SelectorLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serverChannel.close();
+    }
+
+    /**
+     * Holds the per-connection state: buffers, the id that scopes its request ids, and the customer's credit
+     * and cart.
+     */
+    private static final class Session {
+        final long id;
+        final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        final Cart cart = new Cart();
+        long creditCents;
+
+        Session(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Runs one selector and every connection registered with it.
+     */
+    private final class SelectorLoop implements Runnable {
+        final Selector selector;
+        final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerPending();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else {
+                                if (key.isReadable()) {
+                                    read(key);
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    write(key);
+                                }
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // Only this connection is dropped; its unspent credit stays held by the machine
+                            closeQuietly(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // The selector failed; fall through and release every connection it owns.
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.channel() != serverChannel) {
+                        closeQuietly(key);
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore failures while shutting down
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectorLoop target = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                target.pendingRegistrations.add(channel);
+                if (target != this) {
+                    target.selector.wakeup();
+                }
+            }
+            registerPending();
+        }
+
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                channel.register(selector, SelectionKey.OP_READ, new Session(nextSessionId.incrementAndGet()));
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Session session = (Session) key.attachment();
+            int read = channel.read(session.input);
+            if (read < 0) {
+                closeQuietly(key);
+                return;
+            }
+            write(key);
+        }
+
+        /**
+         * Executes the buffered requests and writes their responses, until either the input holds no complete
+         * frame or the socket stops taking output. In the latter case the connection is only watched for
+         * writability, so a client that does not read its responses stops being read from as well.
+         */
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Session session = (Session) key.attachment();
+            while (true) {
+                boolean outputFull = decode(session);
+                session.output.flip();
+                channel.write(session.output);
+                boolean pending = session.output.hasRemaining();
+                session.output.compact();
+                if (pending) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (!outputFull) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        // Executes complete frames while the output can hold another response; returns whether it stopped for
+        // lack of output room
+        private boolean decode(Session session) throws IOException {
+            ByteBuffer input = session.input;
+            input.flip();
+            try {
+                while (input.remaining() >= 2) {
+                    if (session.output.remaining() < MAX_RESPONSE_BYTES) {
+                        return true;
+                    }
+                    int length = input.getShort(input.position()) & 0xFFFF;
+                    if (length == 0 || length > BUFFER_SIZE - 2) {
+                        throw new IOException("Malformed frame of " + length + " bytes.");
+                    }
+                    if (input.remaining() < 2 + length) {
+                        break;
+                    }
+                    input.getShort();
+                    int frameEnd = input.position() + length;
+                    execute(session, input.get(), input, frameEnd);
+                    input.position(frameEnd);
+                }
+                return false;
+            } finally {
+                input.compact();
+            }
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ignore failures while closing a connection
+        }
+    }
+
+    /**
+     * Executes a single command and appends its response to the session's output buffer.
+     */
+    private void execute(Session session, byte opcode, ByteBuffer in, int frameEnd) {
+        int argumentBytes = frameEnd - in.position();
+        switch (opcode) {
+            case OP_INSERT_COIN:
+                if (argumentBytes < 4) {
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                int coin = in.getInt();
+                if (!VendingMachine.isValidCoinDenomination(coin)) {
+                    vendingMachine.getAnomalyDetector().recordCoins(0, 0, 1);
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                vendingMachine.getAnomalyDetector().recordCoins(coin * 100L,
+                        coin >= AnomalyDetector.HIGH_DENOMINATION ? 1 : 0, 0);
+                vendingMachine.holdCredit(coin);
+                session.creditCents += coin * 100L;
+                respondLong(session, session.creditCents);
+                return;
+            case OP_SELECT:
+                if (argumentBytes < 3) {
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                selectItem(session, in.get(), in.getShort());
+                return;
+            case OP_CHECKOUT:
+                checkout(session, argumentBytes >= 8 ? Long.toString(in.getLong()) : null);
+                return;
+            case OP_RESTOCK:
+                if (argumentBytes < 7) {
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                restock(session, in.get(), in.getShort(), in.getInt());
+                return;
+            case OP_SET_PRICE:
+                if (argumentBytes < 11) {
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                setPrice(session, in.get(), in.getShort(), in.getLong());
+                return;
+            case OP_QUERY_STOCK:
+                if (argumentBytes < 3) {
+                    respond(session, STATUS_INVALID_ARGUMENT);
+                    return;
+                }
+                queryStock(session, in.get(), in.getShort());
+                return;
+            default:
+                respond(session, STATUS_UNKNOWN_COMMAND);
+        }
+    }
+
+    private void selectItem(Session session, byte kind, int index) {
+        if (!isValidSlot(kind, index)) {
+            respond(session, STATUS_INVALID_ARGUMENT);
+            return;
+        }
+        try {
+            if (kind == KIND_REGULAR) {
+                session.cart.addItem(index, 1);
+            } else {
+                session.cart.addSpecialPurchaseItem(index, 1);
+            }
+        } catch (IllegalArgumentException e) {
+            // The line already holds as many units as a slot can
+            respond(session, STATUS_INVALID_ARGUMENT);
+            return;
+        }
+        respondLong(session, InventorySnapshot.toCents(priceOf(kind, index)));
+    }
+
+    private void checkout(Session session, String requestId) {
+        CheckoutResult result = requestId == null ? vendingMachine.checkoutHeldCredit(session.cart, session.creditCents)
+                : vendingMachine.checkoutHeldCredit("remote-" + session.id + "-" + requestId, session.cart,
+                        session.creditCents);
+        switch (result.getStatus()) {
+            case SUCCESS:
+                session.cart.clear();
+                session.creditCents = 0;
+                respondLong(session, InventorySnapshot.toCents(result.getChange()));
+                return;
+            case EMPTY_CART:
+                respond(session, STATUS_NO_SELECTION);
+                return;
+            case OUT_OF_STOCK:
+                respond(session, STATUS_OUT_OF_STOCK);
+                return;
+            case INSUFFICIENT_AMOUNT:
+                respond(session, STATUS_INSUFFICIENT_AMOUNT);
+                return;
+            case INSUFFICIENT_CHANGE:
+                respond(session, STATUS_INSUFFICIENT_CHANGE);
+                return;
+            default:
+                respond(session, STATUS_INVALID_ARGUMENT);
+        }
+    }
+
+    private void restock(Session session, byte kind, int index, int additionalQuantity) {
+        int newQuantity = isValidSlot(kind, index) ? vendingMachine.addStock(
+                kind == KIND_REGULAR ? Cart.Kind.REGULAR : Cart.Kind.SPECIAL_PURCHASE, index, additionalQuantity,
+                VendingMachine.MAX_SLOT_QUANTITY) : -1;
+        if (newQuantity < 0) {
+            respond(session, STATUS_INVALID_ARGUMENT);
+            return;
+        }
+        respondInt(session, newQuantity);
+    }
+
+    private void setPrice(Session session, byte kind, int index, long priceCents) {
+        if (!isValidSlot(kind, index) || priceCents <= 0) {
+            respond(session, STATUS_INVALID_ARGUMENT);
+            return;
+        }
+        if (kind == KIND_REGULAR) {
+            vendingMachine.updateItemPrice(index, priceCents / 100.0);
+        } else {
+            vendingMachine.updateSpecialPurchaseItemPrice(index, priceCents / 100.0);
+        }
+        respond(session, STATUS_OK);
+    }
+
+    private void queryStock(Session session, byte kind, int index) {
+        if (!isValidSlot(kind, index)) {
+            respond(session, STATUS_INVALID_ARGUMENT);
+            return;
+        }
+        respondInt(session, quantityOf(kind, index));
+    }
+
+    private boolean isValidSlot(byte kind, int index) {
+        if (kind == KIND_REGULAR) {
+            return index >= 0 && index < vendingMachine.getSlotCount()
+                    && vendingMachine.getCatalog().getName(CatalogFile.Section.REGULAR, index) != null;
+        }
+        if (kind == KIND_SPECIAL_PURCHASE) {
+            return index >= 0 && index < vendingMachine.getSpecialPurchaseSlotCount();
+        }
+        return false;
+    }
+
+    private int quantityOf(byte kind, int index) {
+        return kind == KIND_REGULAR ? vendingMachine.getItemQuantity(index)
+                : vendingMachine.getSpecialPurchaseItemQuantity(index);
+    }
+
+    private double priceOf(byte kind, int index) {
+        return vendingMachine.getCatalog().getPrice(
+                kind == KIND_REGULAR ? CatalogFile.Section.REGULAR : CatalogFile.Section.SPECIAL_PURCHASE, index);
+    }
+
+    private static void respond(Session session, byte status) {
+        session.output.putShort((short) 1).put(status);
+    }
+
+    private static void respondInt(Session session, int value) {
+        session.output.putShort((short) 5).put(STATUS_OK).putInt(value);
+    }
+
+    private static void respondLong(Session session, long value) {
+        session.output.putShort((short) 9).put(STATUS_OK).putLong(value);
+    }
+}
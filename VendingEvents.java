@@ -0,0 +1,169 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Defines the JDK Flight Recorder events of the vending machine, so a slow kiosk can be profiled from a single
+ * recording. Every event times one operation and carries what it acted on and how it ended.
+ *
+ * <p>An event is only filled in after {@code shouldCommit()} returns true, so with recording off the cost is an
+ * allocation the JIT removes. The {@code vending.jfc} profile enables these events next to the JDK's own, and
+ * {@link FlightRecordingAnalyzer} summarizes their latency.
+ */
+public final class VendingEvents {
+    private static final String CATEGORY = "Vending Machine";
+
+    private VendingEvents() {
+    }
+
+    /**
+     * Times the checkout of a cart, which covers regular and special purchases in every front-end.
+     */
+    @Name("vending.Checkout")
+    @Label("Checkout")
+    @Category(CATEGORY)
+    @Description("Prices a cart, checks stock and change, and posts the sale to the ledger.")
+    @StackTrace(false)
+    public static final class Checkout extends jdk.jfr.Event {
+        @Label("SKU")
+        @Description("The items of the cart, with their quantities.")
+        String sku;
+
+        @Label("Units")
+        int units;
+
+        @Label("Amount Paid (cents)")
+        long amountPaidCents;
+
+        @Label("Total (cents)")
+        long totalCents;
+
+        @Label("Change (cents)")
+        long changeCents;
+
+        @Label("Cashless")
+        boolean cashless;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * Times the dispensing of a paid order, from the first motor starting to the last unit dropping.
+     */
+    @Name("vending.Dispense")
+    @Label("Dispense")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Dispense extends jdk.jfr.Event {
+        @Label("Units")
+        int units;
+
+        @Label("Undelivered Units")
+        @Description("The units that jammed or were not turned after a jam.")
+        int undeliveredUnits;
+
+        @Label("Motors")
+        @Description("The number of slots the order was dispensed from.")
+        int motors;
+
+        @Label("Wait (ms)")
+        @Description("How long the order waited for the orders paid before it.")
+        long waitMillis;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * Times a change to the stock of one or every slot.
+     */
+    @Name("vending.Restock")
+    @Label("Restock")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Restock extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("SKU")
+        @Description("The restocked item, or * for every slot.")
+        String sku;
+
+        @Label("Units Added")
+        @Description("The change in stock; negative when a slot was set lower.")
+        int unitsAdded;
+    }
+
+    /**
+     * Times a change to the price of one item.
+     */
+    @Name("vending.PriceChange")
+    @Label("Price Change")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class PriceChange extends jdk.jfr.Event {
+        @Label("SKU")
+        String sku;
+
+        @Label("Old Price (cents)")
+        long oldPriceCents;
+
+        @Label("New Price (cents)")
+        long newPriceCents;
+    }
+
+    /**
+     * Times the operator's cash handling: emptying the cash box and refilling the change float.
+     */
+    @Name("vending.CashMaintenance")
+    @Label("Cash Maintenance")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class CashMaintenance extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Amount (cents)")
+        long amountCents;
+    }
+
+    /**
+     * Times the parsing of the coins a customer or operator typed in.
+     */
+    @Name("vending.CoinInput")
+    @Label("Coin Input")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class CoinInput extends jdk.jfr.Event {
+        @Label("Front-end")
+        String frontEnd;
+
+        @Label("Coins")
+        int coins;
+
+        @Label("Invalid Coins")
+        int invalidCoins;
+
+        @Label("Amount (cents)")
+        long amountCents;
+    }
+
+    /**
+     * Times the building of a transaction summary.
+     */
+    @Name("vending.Summary")
+    @Label("Transaction Summary")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Summary extends jdk.jfr.Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("Length")
+        @Description("The number of characters in the summary.")
+        int length;
+    }
+}
@@ -1,157 +1,449 @@
 import java.util.Arrays;
-import javax.swing.JOptionPane;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 
 /**
  * Represents a vending machine that sells various items and allows for maintenance operations.
  */
 public class VendingMachine {
-    private String[] items;
-    private int[] quantities;
-    private double[] prices;
-    private double internalBalance;
-    private int[] calories;
-    private double startingBalance;
-    private String[] specialItems;
-    private double[] specialPrices;
-    private String[] specialPurchaseItems;
-    private double[] specialPurchasePrices;
-    private int[] specialPurchaseQuantities;
-    private int[] specialPurchaseCalories;
-
-    public void setSpecialPurchaseQuantities(int[] quantities) {
-        this.specialPurchaseQuantities = quantities;
+    /**
+     * The coin denominations accepted by the vending machine.
+     */
+    public static final int[] COIN_DENOMINATIONS = { 1, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+    /**
+     * The most items one slot can hold.
+     */
+    public static final int MAX_SLOT_QUANTITY = Short.MAX_VALUE;
+
+    private static final int RECENT_COMMAND_LIMIT = 1024;
+    private static final long RECENT_COMMAND_TTL_MINUTES = 10;
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+    private static final long OPENING_FLOAT_CENTS = 20000;
+    private static final int DEFAULT_QUANTITY = 10;
+
+    // Shared by every machine; a machine only gets its own copy of a section when it changes a price there
+    private static final CatalogSnapshot EMPTY_CATALOG = CatalogSnapshot.of(new String[8], new double[8], new int[8],
+            new String[8], new double[8], new String[10], new double[10], new int[10]);
+    private static final CatalogSnapshot BUILT_IN_CATALOG = CatalogSnapshot.of(
+            new String[] { "Tapsilog", "Tocilog", "Chicksilog", "Bangsilog",
+                    "Longsilog", "Cornsilog", "Malingsilog", "Hotsilog" },
+            new double[] { 85, 80, 85, 80, 80, 60, 60, 50 },
+            new int[] { 300, 350, 400, 250, 200, 150, 250, 180 },
+            new String[] { "Tapsilog", "Tocilog", "Chicksilog", "Bangsilog",
+                    "Longsilog", "Cornsilog", "Malingsilog", "Hotsilog" },
+            new double[] { 85, 80, 85, 80, 80, 60, 60, 50 },
+            new String[] { "Rice", "Egg", "Hotdog", "Bangus", "Tocino",
+                    "Tapa", "Chicken", "Maling", "Longganisa", "Corned Beef" },
+            new double[] { 10, 5, 15, 20, 15, 15, 25, 8, 10, 12 },
+            new int[] { 150, 70, 150, 200, 120, 130, 250, 110, 180, 160 });
+
+    // What was refunded of one sale so far: the amount, and the units of each of its sold lines
+    private static final class Refunded {
+        long cents;
+        final int[] units;
+
+        Refunded(int lines) {
+            units = new int[lines];
+        }
+    }
+
+    // How a checkout is paid, and the command it is recorded as
+    private enum Payment {
+        CASH(SessionRecorder.Command.CHECKOUT),
+        HELD_CREDIT(SessionRecorder.Command.CREDIT_CHECKOUT),
+        CASHLESS(SessionRecorder.Command.CASHLESS_CHECKOUT);
+
+        final SessionRecorder.Command command;
+
+        Payment(SessionRecorder.Command command) {
+            this.command = command;
+        }
+    }
+
+    private volatile CatalogSnapshot catalog;
+    // Stock is kept as shorts, so a fleet of machines sharing one catalog costs little more than its slots
+    private short[] quantities;
+    private final CashLedger ledger;
+    // The cash the coin mechanism counted in minus what it paid out, kept apart from the ledger to check it against
+    private long meteredCashCents;
+    private short[] specialPurchaseQuantities;
+    // Created on first use, since most machines of a simulated fleet never see a retry or a report
+    private volatile IdempotencyCache<Object> recentCommands;
+    private volatile AnomalyDetector anomalyDetector;
+    // What was refunded of each sale, by sale identity; weak, so sales no one can refund any more drop out.
+    // Guarded by the monitor and created on the first refund
+    private Map<CheckoutResult, Refunded> refunds;
+    // Guards quantities, balances and history for readers; writers also hold the monitor
+    private final StampedLock stateLock;
+    private long stateVersion;
+    private final TransactionLog transactionLog;
+    private volatile Set<ReadView> openReadViews;
+    private final SalesAnalytics salesAnalytics;
+    private final InventoryHistory inventoryHistory;
+    private volatile SessionRecorder sessionRecorder;
+    private volatile CommandJournal commandJournal;
+
+    /**
+     * Sets the quantities of the special purchase items.
+     *
+     * @param quantities An array of integers representing the new quantities of the special purchase items.
+     */
+    public synchronized void setSpecialPurchaseQuantities(int[] quantities) {
+        long stamp = beginWrite();
+        try {
+            this.specialPurchaseQuantities = toShorts(quantities);
+            inventoryHistory.allSlotsChanged(0, this.specialPurchaseQuantities.length);
+        } finally {
+            endWrite(stamp);
+        }
     }
    /**
      * Constructs a new vending machine with default settings.
      */
     public VendingMachine() {
-        items = new String[8];
-        quantities = new int[8];
-        prices = new double[8];
-        internalBalance = 100.0;
-        calories = new int[8]; 
-        startingBalance = 100.0;
-        specialItems = new String[8];
-        specialPrices = new double[8];
-        specialPurchaseItems = new String[10];
-        specialPurchasePrices = new double[10];
-        specialPurchaseQuantities = new int[8];
-        Arrays.fill(specialPurchaseQuantities, 10);
-        specialPurchaseCalories = new int[10];
+        catalog = EMPTY_CATALOG;
+        quantities = new short[8];
+        // Every posting happens inside a write section, which the monitor already serializes, so the ledger's
+        // striping would buy nothing here: the machine uses a single stripe
+        ledger = new CashLedger(1);
+        ledger.newTransaction()
+                .debit(CashLedger.Account.CHANGE_FLOAT, OPENING_FLOAT_CENTS)
+                .credit(CashLedger.Account.OPERATOR, OPENING_FLOAT_CENTS)
+                .post();
+        meteredCashCents = OPENING_FLOAT_CENTS;
+        specialPurchaseQuantities = new short[8];
+        Arrays.fill(specialPurchaseQuantities, (short) DEFAULT_QUANTITY);
+        stateLock = new StampedLock();
+        stateVersion = 0;
+        transactionLog = new TransactionLog();
+        salesAnalytics = new SalesAnalytics();
+        inventoryHistory = new InventoryHistory();
+        inventoryHistory.allSlotsChanged(quantities.length, specialPurchaseQuantities.length);
     }
     /**
      * Initializes the items and their properties in the vending machine.
+     * The built-in catalog is shared by every machine; only the stock is the machine's own.
      */
     public void initializeItems() {
-        String[] items = {
-                "Tapsilog", "Tocilog", "Chicksilog", "Bangsilog",
-                "Longsilog", "Cornsilog", "Malingsilog", "Hotsilog"
-        };
-        int[] quantities = { 10, 10, 10, 10, 10, 10, 10, 10 };
-        double[] prices = { 85, 80, 85, 80, 80, 60, 60, 50 };
-        int[] calories = { 300, 350, 400, 250, 200, 150, 250, 180 }; // Initialize calories array
-
-        String[] specialItems = {
-                "Tapsilog", "Tocilog", "Chicksilog", "Bangsilog",
-                "Longsilog", "Cornsilog", "Malingsilog", "Hotsilog"
-        };
-        double[] specialPrices = { 85, 80, 85, 80, 80, 60, 60, 50 };
-
-        String[] specialPurchaseItems = {
-                "Rice", "Egg", "Hotdog", "Bangus", "Tocino",
-                "Tapa", "Chicken", "Maling", "Longganisa", "Corned Beef"
-        };
-        double[] specialPurchasePrices = { 10, 5, 15, 20, 15, 15, 25, 8, 10, 12 };
-        int[] specialPurchaseQuantities = { 10, 10, 10, 10, 10, 10, 10, 10, 10, 10 };
-        int[] specialPurchaseCalories = { 150, 70, 150, 200, 120, 130, 250, 110, 180, 160 };
-
-        this.specialPurchaseItems = Arrays.copyOf(specialPurchaseItems, specialPurchaseItems.length);
-        this.specialPurchasePrices = Arrays.copyOf(specialPurchasePrices, specialPurchasePrices.length);
-        this.specialPurchaseQuantities = Arrays.copyOf(specialPurchaseQuantities, specialPurchaseQuantities.length);
-        this.specialPurchaseCalories = Arrays.copyOf(specialPurchaseCalories, specialPurchaseCalories.length);
-        this.items = Arrays.copyOf(items, items.length);
-        this.quantities = Arrays.copyOf(quantities, quantities.length);
-        this.calories = Arrays.copyOf(calories, calories.length);
-        this.prices = Arrays.copyOf(prices, prices.length);
-        this.specialItems = Arrays.copyOf(specialItems, specialItems.length);
-        this.specialPrices = Arrays.copyOf(specialPrices, specialPrices.length);
+        short[] full = new short[BUILT_IN_CATALOG.size(CatalogFile.Section.REGULAR)];
+        short[] specialPurchaseFull = new short[BUILT_IN_CATALOG.size(CatalogFile.Section.SPECIAL_PURCHASE)];
+        Arrays.fill(full, (short) DEFAULT_QUANTITY);
+        Arrays.fill(specialPurchaseFull, (short) DEFAULT_QUANTITY);
+        publishCatalog(BUILT_IN_CATALOG, full, specialPurchaseFull);
+    }
+
+    /**
+     * Initializes the items from a catalog shared with other machines, e.g. every machine of a simulated fleet.
+     * The catalog is not copied: until a price changes, the machine only holds its version number and its stock.
+     *
+     * @param sharedCatalog             The catalog.
+     * @param quantities                The quantities of the regular items, 0 to 32767 each.
+     * @param specialPurchaseQuantities The quantities of the special purchase items, 0 to 32767 each.
+     */
+    public void initializeItems(CatalogSnapshot sharedCatalog, int[] quantities, int[] specialPurchaseQuantities) {
+        publishCatalog(sharedCatalog, toShorts(quantities), toShorts(specialPurchaseQuantities));
+    }
+
+    /**
+     * Initializes the items and their properties from a compiled catalog file.
+     * Prices and quantities are copied right away; names and calories are decoded the first time they are needed.
+     * A fleet should rather open the file once and share it through {@link #initializeItems(CatalogSnapshot,
+     * int[], int[])}.
+     *
+     * @param catalog The catalog to load.
+     */
+    public void initializeItems(CatalogFile catalog) {
+        publishCatalog(CatalogSnapshot.of(catalog), toShorts(catalog.getQuantities(CatalogFile.Section.REGULAR)),
+                toShorts(catalog.getQuantities(CatalogFile.Section.SPECIAL_PURCHASE)));
+    }
+
+    /**
+     * Retrieves the current catalog. Reading it never blocks, and all of its rows belong to the same version.
+     *
+     * @return The current catalog snapshot.
+     */
+    public CatalogSnapshot getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Replaces the whole catalog, e.g. for a menu push, without pausing sales. Purchases already reading the old
+     * catalog finish with it; every later read sees the new one. Slots added by the new catalog start empty
+     * and slots it drops lose their stock.
+     *
+     * @param nextCatalog The catalog to publish.
+     */
+    public synchronized void publishCatalog(CatalogSnapshot nextCatalog) {
+        publishCatalog(nextCatalog, Arrays.copyOf(quantities, nextCatalog.size(CatalogFile.Section.REGULAR)),
+                Arrays.copyOf(specialPurchaseQuantities, nextCatalog.size(CatalogFile.Section.SPECIAL_PURCHASE)));
+    }
+
+    // Takes ownership of the stock arrays
+    private synchronized void publishCatalog(CatalogSnapshot nextCatalog, short[] newQuantities,
+            short[] newSpecialPurchaseQuantities) {
+        long stamp = beginWrite();
+        try {
+            this.quantities = newQuantities;
+            this.specialPurchaseQuantities = newSpecialPurchaseQuantities;
+            this.catalog = nextCatalog.withVersion(catalog.getVersion() + 1);
+            inventoryHistory.allSlotsChanged(newQuantities.length, newSpecialPurchaseQuantities.length);
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Opens a consistent view of the inventory, balances, catalog and transaction history for a report.
+     * Its reconciliation checks the cash on the books against the cash the coin mechanism counted in and out.
+     * The view never blocks sales: it is copied without locking and only retried if a sale lands while
+     * it is being copied. Close it when the report is done.
+     *
+     * @return The read view.
+     */
+    public ReadView openReadView() {
+        ReadView view = readConsistently(() -> new ReadView(this, stateVersion, catalog, quantities,
+                specialPurchaseQuantities, ledger.reconcile(meteredCashCents), transactionLog,
+                transactionLog.size()));
+        Set<ReadView> views = openReadViews;
+        if (views == null) {
+            synchronized (this) {
+                if (openReadViews == null) {
+                    openReadViews = ConcurrentHashMap.newKeySet();
+                }
+                views = openReadViews;
+            }
+        }
+        views.add(view);
+        return view;
+    }
+
+    void releaseReadView(ReadView view) {
+        openReadViews.remove(view);
+    }
+
+    /**
+     * Retrieves the number of read views that have not been closed yet.
+     *
+     * @return The number of open read views.
+     */
+    public int getOpenReadViewCount() {
+        Set<ReadView> views = openReadViews;
+        return views == null ? 0 : views.size();
+    }
+
+    /**
+     * Retrieves the state version, e.g. to find out cheaply whether anything changed since it was last read.
+     *
+     * @return The version number; it increases with every change to the machine.
+     */
+    public long getStateVersion() {
+        return readConsistently(() -> stateVersion);
+    }
+
+    /**
+     * Updates the recorder that every command sent to the machine is recorded with.
+     *
+     * @param recorder The session recorder, or null to stop recording.
+     */
+    public void setSessionRecorder(SessionRecorder recorder) {
+        this.sessionRecorder = recorder;
+    }
+
+    /**
+     * Updates the journal that every sale, refund, restock and price change is appended to.
+     *
+     * @param journal The command journal, or null to stop journaling.
+     */
+    public void setCommandJournal(CommandJournal journal) {
+        this.commandJournal = journal;
+    }
+
+    /**
+     * Records a transaction in the history.
+     *
+     * @param description The transaction description.
+     */
+    public synchronized void recordTransaction(String description) {
+        long stamp = beginWrite();
+        try {
+            transactionLog.append(description);
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Retrieves the transaction history recorded so far.
+     *
+     * @return A read-only list of transaction descriptions, oldest first.
+     */
+    public List<String> getTransactionHistory() {
+        return transactionLog.prefix(transactionLog.size());
+    }
+
+    // Callers must hold the monitor, so writers never wait on each other inside the lock.
+    private long beginWrite() {
+        long stamp = stateLock.writeLock();
+        stateVersion++;
+        return stamp;
+    }
+
+    // Also samples the changed levels into the history; callers still hold the monitor, so no other write can
+    // interleave. Writes that change stock mark the slots they touched first.
+    private void endWrite(long stamp) {
+        stateLock.unlockWrite(stamp);
+        inventoryHistory.sample(System.currentTimeMillis(), quantities, specialPurchaseQuantities,
+                ledger.getBalances());
+    }
+
+    // Reads without locking first; the reader must only copy fields, since it may run against a torn state
+    // before being validated and retried.
+    private <T> T readConsistently(Supplier<T> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = stateLock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = reader.get();
+                    if (stateLock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (stateLock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        long stamp = stateLock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            stateLock.unlockRead(stamp);
+        }
     }
 
     /**
      * Retrieves the list of regular items available in the vending machine.
      *
-     * @return The array of regular item names.
+     * @return A copy of the regular item names.
      */
     public String[] getItems() {
-        return items;
+        return catalog.getNames(CatalogFile.Section.REGULAR);
     }
 
     /**
      * Retrieves the list of special items available in the vending machine.
      *
-     * @return The array of special item names.
+     * @return A copy of the special item names.
      */
     public String[] getSpecialItems() {
-        return specialItems;
+        return catalog.getNames(CatalogFile.Section.SPECIAL);
     }
 
     /**
      * Retrieves the prices of regular items in the vending machine.
      *
-     * @return The array of regular item prices.
+     * @return A copy of the regular item prices.
      */
     public double[] getPrices() {
-        return prices;
+        return catalog.getPrices(CatalogFile.Section.REGULAR);
     }
     /**
      * Retrieves the prices of special items in the vending machine.
      *
-     * @return The array of special item prices.
+     * @return A copy of the special item prices.
      */
     public double[] getSpecialPrices() {
-        return specialPrices;
+        return catalog.getPrices(CatalogFile.Section.SPECIAL);
     }
     /**
      * Retrieves the calories of regular items in the vending machine.
      *
-     * @return The array of regular item calories.
+     * @return A copy of the regular item calories.
      */
     public int[] getCalories() {
-        return calories;
+        return catalog.getCalories(CatalogFile.Section.REGULAR);
     }
     /**
      * Retrieves the quantities of regular items in the vending machine.
      *
-     * @return The array of regular item quantities.
+     * @return A copy of the regular item quantities.
      */
     public int[] getQuantities() {
-        return quantities;
+        return readConsistently(() -> toInts(quantities));
     }
     /**
-     * Processes the purchase of a regular item by deducting its quantity.
+     * Retrieves the quantity of a regular item in the vending machine, without copying every slot.
      *
-     * @param itemName The name of the item to purchase.
+     * @param index The index of the regular item.
+     * @return The quantity of the regular item.
      */
-    public void purchaseItem(String itemName) {
-        int index = -1;
-        for (int i = 0; i < items.length; i++) {
-            if (items[i].equals(itemName)) {
-                index = i;
-                break;
+    public int getItemQuantity(int index) {
+        return readConsistently(() -> {
+            short[] current = quantities;
+            if (index >= 0 && index < current.length) {
+                return (int) current[index];
             }
-        }
+            return 0; // Return 0 for invalid index
+        });
+    }
+
+    /**
+     * Retrieves the number of regular item slots, without copying their quantities.
+     *
+     * @return The number of regular item slots.
+     */
+    public int getSlotCount() {
+        return readConsistently(() -> quantities.length);
+    }
+    /**
+     * Processes the purchase of a regular item by deducting its quantity. No payment is taken, so the outcome
+     * carries no total or change; a refused purchase carries the reason for the front-end to show.
+     *
+     * @param itemName The name of the item to purchase.
+     * @return The outcome: successful, {@link CheckoutResult.Status#ITEM_NOT_FOUND} or
+     *         {@link CheckoutResult.Status#OUT_OF_STOCK}.
+     */
+    public synchronized CheckoutResult purchaseItem(String itemName) {
+        int index = catalog.indexOf(CatalogFile.Section.REGULAR, itemName);
         if (index == -1) {
-            JOptionPane.showMessageDialog(null, "Item not found.", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            return new CheckoutResult(CheckoutResult.Status.ITEM_NOT_FOUND, 0.0, 0.0, "Item not found.");
         }
-
+        record(SessionRecorder.Command.PURCHASE_ITEM, index, 0);
         if (quantities[index] == 0) {
-            JOptionPane.showMessageDialog(null, "Item out of stock.", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
+            journal(CommandJournal.Command.PURCHASE, Cart.Kind.REGULAR, index, 1, 0, false);
+            return new CheckoutResult(CheckoutResult.Status.OUT_OF_STOCK, 0.0, 0.0, "Item out of stock.");
         }
-
-        quantities[index]--;
+        long stamp = beginWrite();
+        try {
+            quantities[index]--;
+            inventoryHistory.slotChanged(index);
+        } finally {
+            endWrite(stamp);
+        }
+        recordSale(CatalogFile.Section.REGULAR, index, 1);
+        journal(CommandJournal.Command.PURCHASE, Cart.Kind.REGULAR, index, 1, 0, true);
+        return new CheckoutResult(CheckoutResult.Status.SUCCESS, 0.0, 0.0, "Purchase successful.", catalog);
+    }
+    /**
+     * Processes the purchase of a regular item at most once per idempotency key.
+     * A retry with the same key is ignored instead of deducting the quantity again.
+     *
+     * @param idempotencyKey The key identifying this purchase attempt.
+     * @param itemName       The name of the item to purchase.
+     * @return The outcome of the first purchase with this key.
+     */
+    public CheckoutResult purchaseItem(String idempotencyKey, String itemName) {
+        return (CheckoutResult) recentCommands().execute("purchaseItem:" + idempotencyKey,
+                () -> purchaseItem(itemName));
     }
     /**
      * Retrieves the index of a regular item by its name.
@@ -160,24 +452,40 @@ public class VendingMachine {
      * @return The index of the item, or -1 if not found.
      */
     public int getItemIndex(String itemName) {
-        for (int i = 0; i < items.length; i++) {
-            if (items[i] != null && items[i].equals(itemName)) {
-                return i;
-            }
-        }
-        return -1;
+        return catalog.indexOf(CatalogFile.Section.REGULAR, itemName);
     }
 
     /**
      * Updates the quantity of a special purchase item.
      *
      * @param index      The index of the item to update.
-     * @param newQuantity The new quantity value.
-     */    
-    public void updateSpecialPurchaseItemQuantity(int index, int newQuantity) {
+     * @param newQuantity The new quantity value, 0 to 32767.
+     * @return The number of units added, negative if units were taken out; 0 if the index is invalid.
+     */
+    public synchronized int updateSpecialPurchaseItemQuantity(int index, int newQuantity) {
+        checkQuantity(newQuantity);
+        record(SessionRecorder.Command.SET_SPECIAL_PURCHASE_QUANTITY, index, newQuantity);
         if (index >= 0 && index < specialPurchaseQuantities.length) {
-            specialPurchaseQuantities[index] = newQuantity;
+            VendingEvents.Restock event = new VendingEvents.Restock();
+            event.begin();
+            int oldQuantity = specialPurchaseQuantities[index];
+            long stamp = beginWrite();
+            try {
+                specialPurchaseQuantities[index] = (short) newQuantity;
+                inventoryHistory.specialPurchaseSlotChanged(index);
+            } finally {
+                endWrite(stamp);
+            }
+            commitRestock(event, "updateSpecialPurchaseItemQuantity",
+                    catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, index), newQuantity - oldQuantity);
+            journal(CommandJournal.Command.RESTOCK, Cart.Kind.SPECIAL_PURCHASE, index, newQuantity - oldQuantity, 0,
+                    true);
+            if (newQuantity < oldQuantity) {
+                anomalyDetector().recordStockRemoved(oldQuantity - newQuantity);
+            }
+            return newQuantity - oldQuantity;
         }
+        return 0;
     }
 
 
@@ -187,60 +495,229 @@ public class VendingMachine {
      * @param index    The index of the item to update.
      * @param newPrice The new price value.
      */    
-    public void updateSpecialPurchaseItemPrice(int index, double newPrice) {
-        if (index >= 0 && index < specialPurchasePrices.length) {
-            specialPurchasePrices[index] = newPrice;
+    public synchronized void updateSpecialPurchaseItemPrice(int index, double newPrice) {
+        record(SessionRecorder.Command.SET_SPECIAL_PURCHASE_PRICE, index, InventorySnapshot.toCents(newPrice));
+        if (index >= 0 && index < catalog.size(CatalogFile.Section.SPECIAL_PURCHASE)) {
+            VendingEvents.PriceChange event = new VendingEvents.PriceChange();
+            event.begin();
+            double oldPrice = catalog.getPrice(CatalogFile.Section.SPECIAL_PURCHASE, index);
+            long stamp = beginWrite();
+            try {
+                catalog = catalog.withPrice(CatalogFile.Section.SPECIAL_PURCHASE, index, newPrice);
+            } finally {
+                endWrite(stamp);
+            }
+            journal(CommandJournal.Command.SET_PRICE, Cart.Kind.SPECIAL_PURCHASE, index, 0,
+                    InventorySnapshot.toCents(newPrice), true);
+            event.end();
+            if (event.shouldCommit()) {
+                event.sku = catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, index);
+                event.oldPriceCents = InventorySnapshot.toCents(oldPrice);
+                event.newPriceCents = InventorySnapshot.toCents(newPrice);
+                event.commit();
+            }
+        }
+    }
+    /**
+     * Updates the price of a regular item.
+     *
+     * @param index    The index of the item to update.
+     * @param newPrice The new price value.
+     */
+    public synchronized void updateItemPrice(int index, double newPrice) {
+        record(SessionRecorder.Command.SET_PRICE, index, InventorySnapshot.toCents(newPrice));
+        if (index >= 0 && index < catalog.size(CatalogFile.Section.REGULAR)) {
+            VendingEvents.PriceChange event = new VendingEvents.PriceChange();
+            event.begin();
+            double oldPrice = catalog.getPrice(CatalogFile.Section.REGULAR, index);
+            long stamp = beginWrite();
+            try {
+                catalog = catalog.withPrice(CatalogFile.Section.REGULAR, index, newPrice);
+            } finally {
+                endWrite(stamp);
+            }
+            journal(CommandJournal.Command.SET_PRICE, Cart.Kind.REGULAR, index, 0, InventorySnapshot.toCents(newPrice),
+                    true);
+            event.end();
+            if (event.shouldCommit()) {
+                event.sku = catalog.getName(CatalogFile.Section.REGULAR, index);
+                event.oldPriceCents = InventorySnapshot.toCents(oldPrice);
+                event.newPriceCents = InventorySnapshot.toCents(newPrice);
+                event.commit();
+            }
         }
     }
     /**
      * Updates the quantity of a regular item.
      *
      * @param index      The index of the item to update.
-     * @param newQuantity The new quantity value.
+     * @param newQuantity The new quantity value, 0 to 32767.
+     * @return The number of units added, negative if units were taken out; 0 if the index is invalid.
      */
-    public void updateItemQuantity(int index, int newQuantity) {
+    public synchronized int updateItemQuantity(int index, int newQuantity) {
+        checkQuantity(newQuantity);
+        record(SessionRecorder.Command.SET_QUANTITY, index, newQuantity);
         if (index >= 0 && index < quantities.length) {
-            quantities[index] = newQuantity;
+            VendingEvents.Restock event = new VendingEvents.Restock();
+            event.begin();
+            int oldQuantity = quantities[index];
+            long stamp = beginWrite();
+            try {
+                quantities[index] = (short) newQuantity;
+                inventoryHistory.slotChanged(index);
+            } finally {
+                endWrite(stamp);
+            }
+            commitRestock(event, "updateItemQuantity", catalog.getName(CatalogFile.Section.REGULAR, index),
+                    newQuantity - oldQuantity);
+            journal(CommandJournal.Command.RESTOCK, Cart.Kind.REGULAR, index, newQuantity - oldQuantity, 0, true);
+            if (newQuantity < oldQuantity) {
+                anomalyDetector().recordStockRemoved(oldQuantity - newQuantity);
+            }
+            return newQuantity - oldQuantity;
         }
+        return 0;
+    }
+    /**
+     * Adds units to a slot in a single step, so a sale or another restock landing in between is never overwritten
+     * the way a separate read and update could be.
+     *
+     * @param kind               Whether the item is a regular or a special purchase item.
+     * @param index              The index of the item.
+     * @param additionalQuantity The number of units to add; must be positive.
+     * @param maxQuantity        The most units the slot may hold afterwards, at most {@link #MAX_SLOT_QUANTITY}.
+     * @return The new quantity, or -1 if the index is invalid, the quantity is not positive or the slot would
+     *         hold more than the maximum.
+     */
+    public synchronized int addStock(Cart.Kind kind, int index, int additionalQuantity, int maxQuantity) {
+        short[] slots = kind == Cart.Kind.REGULAR ? quantities : specialPurchaseQuantities;
+        if (index < 0 || index >= slots.length || additionalQuantity <= 0
+                || additionalQuantity > Math.min(maxQuantity, MAX_SLOT_QUANTITY) - slots[index]) {
+            return -1;
+        }
+        int newQuantity = slots[index] + additionalQuantity;
+        if (kind == Cart.Kind.REGULAR) {
+            updateItemQuantity(index, newQuantity);
+        } else {
+            updateSpecialPurchaseItemQuantity(index, newQuantity);
+        }
+        return newQuantity;
     }
     /**
      * Removes a regular item from the vending machine.
+     * Its name and price are cleared in a single new catalog version, so readers never see half of the change.
      *
      * @param index The index of the item to remove.
      */
-    public void removeItem(int index) {
-        if (index >= 0 && index < items.length) {
-            items[index] = null;
-            quantities[index] = 0;
-            prices[index] = 0.0;
+    public synchronized void removeItem(int index) {
+        if (index >= 0 && index < quantities.length) {
+            record(SessionRecorder.Command.REMOVE_ITEM, index, 0);
+            long stamp = beginWrite();
+            try {
+                catalog = catalog.withoutItem(CatalogFile.Section.REGULAR, index);
+                quantities[index] = 0;
+                inventoryHistory.slotChanged(index);
+            } finally {
+                endWrite(stamp);
+            }
         }
     }
     /**
-     * Retrieves the starting balance of the vending machine.
+     * Retrieves the cash ledger of the vending machine, e.g. to reconcile it.
+     *
+     * @return The cash ledger.
+     */
+    public CashLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Retrieves the money available in the change float.
      *
-     * @return The starting balance.
+     * @return The change available.
      */
-    public double getStartingBalance() {
-        return startingBalance;
+    public double getChangeAvailable() {
+        return ledger.getBalanceCents(CashLedger.Account.CHANGE_FLOAT) / 100.0;
+    }
+
+    /**
+     * Raises every slot to at least its target quantity in one change. Slots already at or above their target
+     * keep what they have.
+     *
+     * @param targets                The target quantities of the regular items.
+     * @param specialPurchaseTargets The target quantities of the special purchase items.
+     */
+    public synchronized void restockTo(int[] targets, int[] specialPurchaseTargets) {
+        for (int target : targets) {
+            checkQuantity(target);
+        }
+        for (int target : specialPurchaseTargets) {
+            checkQuantity(target);
+        }
+        SessionRecorder recorder = sessionRecorder;
+        if (recorder != null) {
+            recorder.recordRestockTo(targets, specialPurchaseTargets);
+        }
+        VendingEvents.Restock event = new VendingEvents.Restock();
+        event.begin();
+        int unitsAdded = 0;
+        long stamp = beginWrite();
+        try {
+            for (int i = 0; i < targets.length && i < quantities.length; i++) {
+                journalRestock(Cart.Kind.REGULAR, i, Math.max(0, targets[i] - quantities[i]));
+                unitsAdded += Math.max(0, targets[i] - quantities[i]);
+                quantities[i] = (short) Math.max(quantities[i], targets[i]);
+            }
+            for (int i = 0; i < specialPurchaseTargets.length && i < specialPurchaseQuantities.length; i++) {
+                journalRestock(Cart.Kind.SPECIAL_PURCHASE, i,
+                        Math.max(0, specialPurchaseTargets[i] - specialPurchaseQuantities[i]));
+                unitsAdded += Math.max(0, specialPurchaseTargets[i] - specialPurchaseQuantities[i]);
+                specialPurchaseQuantities[i] = (short) Math.max(specialPurchaseQuantities[i],
+                        specialPurchaseTargets[i]);
+            }
+            inventoryHistory.allSlotsChanged(quantities.length, specialPurchaseQuantities.length);
+        } finally {
+            endWrite(stamp);
+        }
+        commitRestock(event, "restockTo", "*", unitsAdded);
     }
 
     /**
      * Restocks all regular items to the default quantity.
-     */    
-    public void restockAllItems() {
-        for (int i = 0; i < quantities.length; i++) {
-            quantities[i] = 10; // Restock all items to the default quantity
+     *
+     * @return The number of units added, negative if slots held more than the default quantity.
+     */
+    public synchronized int restockAllItems() {
+        record(SessionRecorder.Command.RESTOCK_ALL, -1, 0);
+        VendingEvents.Restock event = new VendingEvents.Restock();
+        event.begin();
+        int unitsAdded = 0;
+        long stamp = beginWrite();
+        try {
+            for (int i = 0; i < quantities.length; i++) {
+                journalRestock(Cart.Kind.REGULAR, i, DEFAULT_QUANTITY - quantities[i]);
+                unitsAdded += DEFAULT_QUANTITY - quantities[i];
+                quantities[i] = DEFAULT_QUANTITY; // Restock all items to the default quantity
+            }
+            inventoryHistory.allSlotsChanged(quantities.length, 0);
+        } finally {
+            endWrite(stamp);
         }
+        commitRestock(event, "restockAllItems", "*", unitsAdded);
+        if (unitsAdded < 0) {
+            anomalyDetector().recordStockRemoved(-unitsAdded);
+        }
+        return unitsAdded;
     }
 
 
     /**
      * Retrieves the list of special purchase items available in the vending machine.
      *
-     * @return The array of special purchase item names.
+     * @return A copy of the special purchase item names.
      */    
     public String[] getSpecialPurchaseItems() {
-        return specialPurchaseItems;
+        return catalog.getNames(CatalogFile.Section.SPECIAL_PURCHASE);
     }
     /**
      * Retrieves the quantities of a special purchase item in the vending machine.
@@ -249,26 +726,38 @@ public class VendingMachine {
      * @return The quantity of the special purchase item.
      */
     public int getSpecialPurchaseItemQuantity(int index) {
-        if (index >= 0 && index < specialPurchaseQuantities.length) {
-            return specialPurchaseQuantities[index];
-        }
-        return 0; // Return 0 for invalid index
+        return readConsistently(() -> {
+            short[] current = specialPurchaseQuantities;
+            if (index >= 0 && index < current.length) {
+                return (int) current[index];
+            }
+            return 0; // Return 0 for invalid index
+        });
+    }
+
+    /**
+     * Retrieves the number of special purchase item slots, without copying their quantities.
+     *
+     * @return The number of special purchase item slots.
+     */
+    public int getSpecialPurchaseSlotCount() {
+        return readConsistently(() -> specialPurchaseQuantities.length);
     }
     /**
      * Retrieves the prices of special purchase items in the vending machine.
      *
-     * @return The array of special purchase item prices.
+     * @return A copy of the special purchase item prices.
      */
     public double[] getSpecialPurchasePrices() {
-        return specialPurchasePrices;
+        return catalog.getPrices(CatalogFile.Section.SPECIAL_PURCHASE);
     }
 /**
- * Sets the quantities of the special purchase items.
+ * Retrieves the quantities of the special purchase items.
  *
- * @param quantities An array of integers representing the new quantities of the special purchase items.
+ * @return A copy of the special purchase item quantities.
  */
     public int[] getSpecialPurchaseQuantities() {
-        return specialPurchaseQuantities;
+        return readConsistently(() -> toInts(specialPurchaseQuantities));
     }
 /**
  * Returns an array of integers representing the calories of the special purchase items.
@@ -276,7 +765,7 @@ public class VendingMachine {
  * @return An array of integers representing the calories of the special purchase items.
  */
     public int[] getSpecialPurchaseCalories() {
-        return specialPurchaseCalories;
+        return catalog.getCalories(CatalogFile.Section.SPECIAL_PURCHASE);
     }
 
 
@@ -287,65 +776,730 @@ public class VendingMachine {
      * @return The index of the item, or -1 if not found.
      */    
     public int getSpecialPurchaseItemIndex(String itemName) {
-        for (int i = 0; i < specialPurchaseItems.length; i++) {
-            if (specialPurchaseItems[i] != null && specialPurchaseItems[i].equals(itemName)) {
-                return i;
-            }
-        }
-        return -1;
+        return catalog.indexOf(CatalogFile.Section.SPECIAL_PURCHASE, itemName);
     }
    /**
      * Processes the purchase of a special purchase item by deducting its quantity.
      *
      * @param index The index of the special purchase item to purchase.
+     * @return True if the item was sold, false if the index is invalid, the slot has no item or it is out of stock.
      */
-    public void purchaseSpecialPurchaseItem(int index) {
-        if (index >= 0 && index < specialPurchaseQuantities.length) {
+    public synchronized boolean purchaseSpecialPurchaseItem(int index) {
+        if (index >= 0 && index < specialPurchaseQuantities.length
+                && catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, index) != null) {
+            record(SessionRecorder.Command.PURCHASE_SPECIAL_PURCHASE_ITEM, index, 0);
             if (specialPurchaseQuantities[index] > 0) {
-                specialPurchaseQuantities[index]--;
+                long stamp = beginWrite();
+                try {
+                    specialPurchaseQuantities[index]--;
+                    inventoryHistory.specialPurchaseSlotChanged(index);
+                } finally {
+                    endWrite(stamp);
+                }
+                recordSale(CatalogFile.Section.SPECIAL_PURCHASE, index, 1);
+                journal(CommandJournal.Command.PURCHASE, Cart.Kind.SPECIAL_PURCHASE, index, 1, 0, true);
+                return true;
             }
+            journal(CommandJournal.Command.PURCHASE, Cart.Kind.SPECIAL_PURCHASE, index, 1, 0, false);
         }
+        return false;
     }
 
 
     /**
      * Restocks all special purchase items to the default quantity.
-     */  
-    public void restockSpecialItems() {
+     *
+     * @return The number of units added, negative if slots held more than the default quantity.
+     */
+    public synchronized int restockSpecialItems() {
+        record(SessionRecorder.Command.RESTOCK_SPECIAL, -1, 0);
+        VendingEvents.Restock event = new VendingEvents.Restock();
+        event.begin();
+        int unitsAdded = 0;
+        long stamp = beginWrite();
+        try {
+            for (int i = 0; i < specialPurchaseQuantities.length; i++) {
+                journalRestock(Cart.Kind.SPECIAL_PURCHASE, i, DEFAULT_QUANTITY - specialPurchaseQuantities[i]);
+                unitsAdded += DEFAULT_QUANTITY - specialPurchaseQuantities[i];
+                specialPurchaseQuantities[i] = DEFAULT_QUANTITY;
+            }
+            inventoryHistory.allSlotsChanged(0, specialPurchaseQuantities.length);
+        } finally {
+            endWrite(stamp);
+        }
+        commitRestock(event, "restockSpecialItems", "*", unitsAdded);
+        if (unitsAdded < 0) {
+            anomalyDetector().recordStockRemoved(-unitsAdded);
+        }
+        return unitsAdded;
+    }
+    /**
+     * Checks whether a coin denomination is accepted by the vending machine.
+     *
+     * @param coin The coin denomination.
+     * @return True if the coin is accepted, false otherwise.
+     */
+    public static boolean isValidCoinDenomination(int coin) {
+        for (int denomination : COIN_DENOMINATIONS) {
+            if (denomination == coin) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Collects the money in the cash box for the operator.
+     *
+     * @return The amount collected.
+     */
+    public synchronized double collectCash() {
+        record(SessionRecorder.Command.COLLECT_CASH, -1, 0);
+        VendingEvents.CashMaintenance event = new VendingEvents.CashMaintenance();
+        event.begin();
+        long collectedCents;
+        long stamp = beginWrite();
+        try {
+            collectedCents = ledger.getBalanceCents(CashLedger.Account.CASH_BOX);
+            if (collectedCents > 0) {
+                ledger.newTransaction()
+                        .debit(CashLedger.Account.OPERATOR, collectedCents)
+                        .credit(CashLedger.Account.CASH_BOX, collectedCents)
+                        .post();
+                meteredCashCents -= collectedCents;
+            }
+        } finally {
+            endWrite(stamp);
+        }
+        commitCashMaintenance(event, "collectCash", collectedCents);
+        return collectedCents / 100.0;
+    }
+    /**
+     * Adds money from the operator to the change float.
+     *
+     * @param amount The amount to add.
+     */
+    public synchronized void replenishChange(double amount) {
+        long amountCents = InventorySnapshot.toCents(amount);
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("The replenished amount must be positive.");
+        }
+        record(SessionRecorder.Command.REPLENISH_CHANGE, -1, amountCents);
+        VendingEvents.CashMaintenance event = new VendingEvents.CashMaintenance();
+        event.begin();
+        long stamp = beginWrite();
+        try {
+            ledger.newTransaction()
+                    .debit(CashLedger.Account.CHANGE_FLOAT, amountCents)
+                    .credit(CashLedger.Account.OPERATOR, amountCents)
+                    .post();
+            meteredCashCents += amountCents;
+        } finally {
+            endWrite(stamp);
+        }
+        commitCashMaintenance(event, "replenishChange", amountCents);
+    }
+
+    private void record(SessionRecorder.Command command, int index, long value) {
+        SessionRecorder recorder = sessionRecorder;
+        if (recorder != null) {
+            recorder.record(command, index, value);
+        }
+    }
+
+    private void journal(CommandJournal.Command command, Cart.Kind kind, int index, int quantity, long amountCents,
+            boolean successful) {
+        CommandJournal journal = commandJournal;
+        if (journal != null) {
+            journal.append(System.currentTimeMillis(), command, kind, index, quantity, amountCents, successful);
+        }
+    }
+
+    // Journals only the slots a bulk restock changed
+    private void journalRestock(Cart.Kind kind, int index, int unitsAdded) {
+        if (unitsAdded != 0) {
+            journal(CommandJournal.Command.RESTOCK, kind, index, unitsAdded, 0, true);
+        }
+    }
+
+    // Journals every line, refused ones too, so the journal also shows the demand a refusal turned away
+    private void journalCheckout(Cart cart, CheckoutResult result) {
+        CommandJournal journal = commandJournal;
+        if (journal == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Cart.Line line : cart.getLines()) {
+            long lineCents = 0;
+            if (result.isSuccessful()) {
+                CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                        : CatalogFile.Section.SPECIAL_PURCHASE;
+                lineCents = InventorySnapshot.toCents(result.getPricedCatalog().getPrice(section, line.getIndex()))
+                        * line.getQuantity();
+            }
+            journal.append(now, CommandJournal.Command.PURCHASE, line.getKind(), line.getIndex(), line.getQuantity(),
+                    lineCents, result.isSuccessful());
+        }
+    }
+
+    private static void commitRestock(VendingEvents.Restock event, String operation, String sku, int unitsAdded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.sku = sku;
+            event.unitsAdded = unitsAdded;
+            event.commit();
+        }
+    }
+
+    private static void commitCashMaintenance(VendingEvents.CashMaintenance event, String operation,
+            long amountCents) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.amountCents = amountCents;
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks out every item in a cart as one batch. Stock, payment and change are verified for the whole cart
+     * before anything is changed, so either every line is sold with a single change amount or nothing is.
+     * The payment goes to the cash box, the change is drawn from the change float, and both are posted to the
+     * ledger with the revenue as one balanced transaction.
+     *
+     * @param cart       The cart to check out.
+     * @param amountPaid The amount paid by the customer.
+     * @return The outcome of the checkout.
+     */
+    public synchronized CheckoutResult checkout(Cart cart, double amountPaid) {
+        return recordCheckout(cart, InventorySnapshot.toCents(amountPaid), Payment.CASH);
+    }
+
+    /**
+     * Checks out a cart with coins already held as customer credit through {@link #holdCredit(double)}, e.g. by a
+     * remote kiosk that books every coin as it is inserted. The coins are already in the cash box, so only the
+     * credit is spent: the revenue is booked and the change is drawn from the change float.
+     * If the checkout fails, the credit stays held.
+     *
+     * @param cart        The cart to check out.
+     * @param creditCents The held credit to spend, in centavos.
+     * @return The outcome of the checkout.
+     */
+    public synchronized CheckoutResult checkoutHeldCredit(Cart cart, long creditCents) {
+        return recordCheckout(cart, creditCents, Payment.HELD_CREDIT);
+    }
+
+    /**
+     * Checks out a cart paid by card or e-wallet, against an amount the payment provider already authorized.
+     * No change is paid: the sale is booked at the cart total as receivable from the provider until it settles.
+     * It fails with {@link CheckoutResult.Status#INSUFFICIENT_AMOUNT} if a price went up since the authorization.
+     *
+     * @param cart            The cart to check out.
+     * @param authorizedCents The authorized amount, in centavos.
+     * @return The outcome of the checkout; on success, its total is the amount to capture.
+     */
+    public synchronized CheckoutResult checkoutCashless(Cart cart, long authorizedCents) {
+        return recordCheckout(cart, authorizedCents, Payment.CASHLESS);
+    }
+
+    /**
+     * Books the settlement of cashless sales: the provider paid the operator what it owed for them.
+     *
+     * @param amountCents The settled amount, in centavos.
+     */
+    public synchronized void settleCashless(long amountCents) {
+        long stamp = beginWrite();
+        try {
+            ledger.newTransaction()
+                    .debit(CashLedger.Account.OPERATOR, amountCents)
+                    .credit(CashLedger.Account.CASHLESS_RECEIVABLE, amountCents)
+                    .post();
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    private CheckoutResult recordCheckout(Cart cart, long paidCents, Payment payment) {
+        SessionRecorder recorder = sessionRecorder;
+        if (recorder != null) {
+            recorder.recordCheckout(cart, paidCents, payment.command);
+        }
+        VendingEvents.Checkout event = new VendingEvents.Checkout();
+        event.begin();
+        CheckoutResult result = sell(cart, paidCents, payment);
+        event.end();
+        journalCheckout(cart, result);
+        if (event.shouldCommit()) {
+            event.sku = describeCart(cart);
+            for (Cart.Line line : cart.getLines()) {
+                event.units += line.getQuantity();
+            }
+            event.amountPaidCents = paidCents;
+            event.totalCents = InventorySnapshot.toCents(result.getTotal());
+            event.changeCents = InventorySnapshot.toCents(result.getChange());
+            event.cashless = payment == Payment.CASHLESS;
+            event.outcome = result.getStatus().name();
+            event.commit();
+        }
+        return result;
+    }
+
+    private CheckoutResult sell(Cart cart, long paidCents, Payment payment) {
+        if (cart.isEmpty()) {
+            return new CheckoutResult(CheckoutResult.Status.EMPTY_CART, 0.0, 0.0, "The cart is empty.");
+        }
+        // Price the whole cart from one catalog version, even if a menu push lands meanwhile
+        CatalogSnapshot catalog = this.catalog;
+
+        // Reserve stock per slot first, so repeated lines for the same slot are checked together
+        int[] reservedItems = new int[quantities.length];
+        int[] reservedSpecialItems = new int[specialPurchaseQuantities.length];
+        long totalCents = 0;
+        for (Cart.Line line : cart.getLines()) {
+            int index = line.getIndex();
+            if (line.getQuantity() <= 0 || line.getQuantity() > MAX_SLOT_QUANTITY) {
+                return new CheckoutResult(CheckoutResult.Status.INVALID_QUANTITY, 0.0, 0.0, "Invalid quantity.");
+            }
+            if (line.getKind() == Cart.Kind.REGULAR) {
+                if (index < 0 || index >= quantities.length
+                        || catalog.getName(CatalogFile.Section.REGULAR, index) == null) {
+                    return new CheckoutResult(CheckoutResult.Status.ITEM_NOT_FOUND, 0.0, 0.0, "Item not found.");
+                }
+                reservedItems[index] += line.getQuantity();
+                if (reservedItems[index] > quantities[index]) {
+                    return new CheckoutResult(CheckoutResult.Status.OUT_OF_STOCK, 0.0, 0.0,
+                            catalog.getName(CatalogFile.Section.REGULAR, index) + " is out of stock.");
+                }
+                totalCents += InventorySnapshot.toCents(catalog.getPrice(CatalogFile.Section.REGULAR, index))
+                        * line.getQuantity();
+            } else {
+                if (index < 0 || index >= specialPurchaseQuantities.length
+                        || catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, index) == null) {
+                    return new CheckoutResult(CheckoutResult.Status.ITEM_NOT_FOUND, 0.0, 0.0, "Item not found.");
+                }
+                reservedSpecialItems[index] += line.getQuantity();
+                if (reservedSpecialItems[index] > specialPurchaseQuantities[index]) {
+                    return new CheckoutResult(CheckoutResult.Status.OUT_OF_STOCK, 0.0, 0.0,
+                            catalog.getName(CatalogFile.Section.SPECIAL_PURCHASE, index) + " is out of stock.");
+                }
+                totalCents += InventorySnapshot.toCents(catalog.getPrice(CatalogFile.Section.SPECIAL_PURCHASE, index))
+                        * line.getQuantity();
+            }
+        }
+
+        double total = totalCents / 100.0;
+        if (paidCents < totalCents || payment == Payment.HELD_CREDIT
+                && ledger.getBalanceCents(CashLedger.Account.CUSTOMER_CREDIT) < paidCents) {
+            return new CheckoutResult(CheckoutResult.Status.INSUFFICIENT_AMOUNT, total, 0.0,
+                    payment == Payment.CASHLESS ? "The authorized amount does not cover the cart."
+                            : "Please insert the required amount before purchasing.");
+        }
+        long changeCents = payment == Payment.CASHLESS ? 0 : paidCents - totalCents;
+        double change = changeCents / 100.0;
+        if (ledger.getBalanceCents(CashLedger.Account.CHANGE_FLOAT) < changeCents) {
+            return new CheckoutResult(CheckoutResult.Status.INSUFFICIENT_CHANGE, total, 0.0,
+                    "Insufficient change in the machine.");
+        }
+
+        // The change and every decrement land in one version, so reports never see half a checkout
+        long stamp = beginWrite();
+        try {
+            if (payment == Payment.CASHLESS) {
+                ledger.newTransaction()
+                        .debit(CashLedger.Account.CASHLESS_RECEIVABLE, totalCents)
+                        .credit(CashLedger.Account.REVENUE, totalCents)
+                        .post();
+            } else if (payment == Payment.HELD_CREDIT) {
+                ledger.newTransaction()
+                        .debit(CashLedger.Account.CUSTOMER_CREDIT, paidCents)
+                        .credit(CashLedger.Account.REVENUE, totalCents)
+                        .credit(CashLedger.Account.CHANGE_FLOAT, changeCents)
+                        .post();
+                meteredCashCents -= changeCents;
+            } else {
+                ledger.newTransaction()
+                        .debit(CashLedger.Account.CASH_BOX, paidCents)
+                        .credit(CashLedger.Account.CUSTOMER_CREDIT, paidCents)
+                        .debit(CashLedger.Account.CUSTOMER_CREDIT, paidCents)
+                        .credit(CashLedger.Account.REVENUE, totalCents)
+                        .credit(CashLedger.Account.CHANGE_FLOAT, changeCents)
+                        .post();
+                meteredCashCents += paidCents - changeCents;
+            }
+            for (Cart.Line line : cart.getLines()) {
+                if (line.getKind() == Cart.Kind.REGULAR) {
+                    quantities[line.getIndex()] -= line.getQuantity();
+                    inventoryHistory.slotChanged(line.getIndex());
+                } else {
+                    specialPurchaseQuantities[line.getIndex()] -= line.getQuantity();
+                    inventoryHistory.specialPurchaseSlotChanged(line.getIndex());
+                }
+            }
+        } finally {
+            endWrite(stamp);
+        }
+        List<Cart.Line> lines = cart.getLines();
+        String[] names = new String[lines.size()];
+        int[] lineUnits = new int[lines.size()];
+        long[] lineCents = new long[lines.size()];
+        int units = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < lines.size(); i++) {
+            Cart.Line line = lines.get(i);
+            CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                    : CatalogFile.Section.SPECIAL_PURCHASE;
+            names[i] = catalog.getName(section, line.getIndex());
+            lineUnits[i] = line.getQuantity();
+            lineCents[i] = InventorySnapshot.toCents(catalog.getPrice(section, line.getIndex())) * line.getQuantity();
+            units += line.getQuantity();
+            inventoryHistory.sold(soldSeries(section, line.getIndex()), now, line.getQuantity());
+        }
+        salesAnalytics.recordSale(names, lineUnits, lineCents, now);
+        anomalyDetector().recordSale(units, totalCents);
+        return new CheckoutResult(CheckoutResult.Status.SUCCESS, total, change, "Purchase successful.", catalog,
+                payment == Payment.CASHLESS, lines);
+    }
+
+    /**
+     * Refunds the units of a sale that could not be dispensed and puts them back in stock, since they are still in
+     * their slots. A cash refund is paid from the change float; if the float cannot cover it, the machine owes it
+     * to the customer as credit until it is paid back with {@link #performTransaction(double)}. A cashless refund
+     * is taken off the amount still to collect from the card, which {@link CashlessPayments#refundUndelivered}
+     * also takes off the capture; refund cashless sales through it. A sale can be refunded in several parts, but
+     * only for units it sold and never for more than it took in all.
+     *
+     * @param undelivered The units that were not dispensed.
+     * @param sale        The outcome of the checkout that sold them, whose prices are refunded.
+     * @return The refund: successful with the refund as change if it was paid out or credited to the card, or with
+     *         status {@link CheckoutResult.Status#INSUFFICIENT_CHANGE} if it is owed to the customer instead.
+     * @throws IllegalArgumentException If the checkout failed, a line was not sold by it, or the refunds would
+     *                                  exceed the units or the amount it sold.
+     */
+    public synchronized CheckoutResult refundUndelivered(Cart undelivered, CheckoutResult sale) {
+        if (!sale.isSuccessful()) {
+            throw new IllegalArgumentException("Only a completed sale can be refunded.");
+        }
+        if (undelivered.isEmpty()) {
+            return new CheckoutResult(CheckoutResult.Status.EMPTY_CART, 0.0, 0.0, "Nothing to refund.");
+        }
+        CatalogSnapshot pricedCatalog = sale.getPricedCatalog() == null ? catalog : sale.getPricedCatalog();
+        long refundCents = 0;
+        for (Cart.Line line : undelivered.getLines()) {
+            short[] slots = line.getKind() == Cart.Kind.REGULAR ? quantities : specialPurchaseQuantities;
+            CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                    : CatalogFile.Section.SPECIAL_PURCHASE;
+            if (line.getIndex() < 0 || line.getIndex() >= slots.length
+                    || line.getIndex() >= pricedCatalog.size(section)) {
+                return new CheckoutResult(CheckoutResult.Status.ITEM_NOT_FOUND, 0.0, 0.0, "Item not found.");
+            }
+            refundCents += InventorySnapshot.toCents(pricedCatalog.getPrice(section, line.getIndex()))
+                    * line.getQuantity();
+        }
+        List<Cart.Line> soldLines = sale.getSoldLines();
+        Refunded refunded = refunds == null ? null : refunds.get(sale);
+        if (refunded == null) {
+            refunded = new Refunded(soldLines.size());
+        }
+        // Both carts hold one line per slot, so each undelivered line matches at most one sold line
+        int[] soldLineOf = new int[undelivered.getLines().size()];
+        for (int i = 0; i < soldLineOf.length; i++) {
+            Cart.Line line = undelivered.getLines().get(i);
+            soldLineOf[i] = -1;
+            for (int j = 0; j < soldLines.size(); j++) {
+                if (soldLines.get(j).getKind() == line.getKind() && soldLines.get(j).getIndex() == line.getIndex()) {
+                    soldLineOf[i] = j;
+                    break;
+                }
+            }
+            if (soldLineOf[i] < 0) {
+                throw new IllegalArgumentException("Slot " + line.getIndex() + " was not sold by the sale.");
+            }
+            int refundable = soldLines.get(soldLineOf[i]).getQuantity() - refunded.units[soldLineOf[i]];
+            if (line.getQuantity() > refundable) {
+                throw new IllegalArgumentException("The refund of " + line.getQuantity() + " units of slot "
+                        + line.getIndex() + " exceeds the " + refundable + " left to refund.");
+            }
+        }
+        if (refundCents > InventorySnapshot.toCents(sale.getTotal()) - refunded.cents) {
+            throw new IllegalArgumentException("The refund of " + refundCents / 100.0 + " exceeds the sale of "
+                    + sale.getTotal() + ", of which " + refunded.cents / 100.0 + " was already refunded.");
+        }
+        SessionRecorder recorder = sessionRecorder;
+        if (recorder != null) {
+            recorder.recordRefund(undelivered, refundCents, sale.isCashless()
+                    ? SessionRecorder.Command.CASHLESS_REFUND : SessionRecorder.Command.REFUND_UNDELIVERED);
+        }
+        if (refunds == null) {
+            refunds = new WeakHashMap<>();
+        }
+        refunds.put(sale, refunded);
+        refunded.cents += refundCents;
+        for (int i = 0; i < soldLineOf.length; i++) {
+            refunded.units[soldLineOf[i]] += undelivered.getLines().get(i).getQuantity();
+        }
+
+        // A card sale never put coins in the machine, so it gives back what is still to collect from the card
+        boolean paidOut = sale.isCashless() || ledger.getBalanceCents(CashLedger.Account.CHANGE_FLOAT) >= refundCents;
+        long now = System.currentTimeMillis();
+        long stamp = beginWrite();
+        try {
+            CashLedger.Account refundAccount = sale.isCashless() ? CashLedger.Account.CASHLESS_RECEIVABLE
+                    : paidOut ? CashLedger.Account.CHANGE_FLOAT : CashLedger.Account.CUSTOMER_CREDIT;
+            ledger.newTransaction()
+                    .debit(CashLedger.Account.REVENUE, refundCents)
+                    .credit(refundAccount, refundCents)
+                    .post();
+            if (refundAccount == CashLedger.Account.CHANGE_FLOAT) {
+                meteredCashCents -= refundCents;
+            }
+            for (Cart.Line line : undelivered.getLines()) {
+                short[] slots = line.getKind() == Cart.Kind.REGULAR ? quantities : specialPurchaseQuantities;
+                slots[line.getIndex()] = (short) Math.min(MAX_SLOT_QUANTITY,
+                        slots[line.getIndex()] + line.getQuantity());
+                CatalogFile.Section section;
+                if (line.getKind() == Cart.Kind.REGULAR) {
+                    section = CatalogFile.Section.REGULAR;
+                    inventoryHistory.slotChanged(line.getIndex());
+                } else {
+                    section = CatalogFile.Section.SPECIAL_PURCHASE;
+                    inventoryHistory.specialPurchaseSlotChanged(line.getIndex());
+                }
+                // The units were never handed over, so they are taken back off the demand the planners read
+                inventoryHistory.sold(soldSeries(section, line.getIndex()), now, -line.getQuantity());
+            }
+        } finally {
+            endWrite(stamp);
+        }
+        for (Cart.Line line : undelivered.getLines()) {
+            CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                    : CatalogFile.Section.SPECIAL_PURCHASE;
+            journal(CommandJournal.Command.REFUND, line.getKind(), line.getIndex(), line.getQuantity(),
+                    InventorySnapshot.toCents(pricedCatalog.getPrice(section, line.getIndex())) * line.getQuantity(),
+                    true);
+        }
+        double refund = refundCents / 100.0;
+        if (sale.isCashless()) {
+            return new CheckoutResult(CheckoutResult.Status.SUCCESS, refund, 0.0, "Refund credited to the card.",
+                    pricedCatalog, true);
+        }
+        return paidOut
+                ? new CheckoutResult(CheckoutResult.Status.SUCCESS, refund, refund, "Refund paid.", pricedCatalog)
+                : new CheckoutResult(CheckoutResult.Status.INSUFFICIENT_CHANGE, refund, 0.0,
+                        "Insufficient change in the machine; the refund is owed as credit.", pricedCatalog);
+    }
 
-        for (int i = 0; i < specialPurchaseQuantities.length; i++) {
-            specialPurchaseQuantities[i] = 10;
+    private String describeCart(Cart cart) {
+        StringBuilder sku = new StringBuilder();
+        for (Cart.Line line : cart.getLines()) {
+            CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                    : CatalogFile.Section.SPECIAL_PURCHASE;
+            if (sku.length() > 0) {
+                sku.append(", ");
+            }
+            sku.append(catalog.getName(section, line.getIndex())).append(" x").append(line.getQuantity());
         }
+        return sku.toString();
+    }
+
+    /**
+     * Checks out a cart at most once per idempotency key.
+     * A retry with the same key returns the original outcome without checking out again.
+     *
+     * @param idempotencyKey The key identifying this checkout attempt.
+     * @param cart           The cart to check out.
+     * @param amountPaid     The amount paid by the customer.
+     * @return The outcome of the first checkout with this key.
+     */
+    public CheckoutResult checkout(String idempotencyKey, Cart cart, double amountPaid) {
+        return (CheckoutResult) recentCommands().execute("checkout:" + idempotencyKey,
+                () -> checkout(cart, amountPaid));
+    }
+
+    /**
+     * Checks out a cart with held credit at most once per idempotency key.
+     * A retry with the same key returns the original outcome without checking out again.
+     *
+     * @param idempotencyKey The key identifying this checkout attempt.
+     * @param cart           The cart to check out.
+     * @param creditCents    The held credit to spend, in centavos.
+     * @return The outcome of the first checkout with this key.
+     */
+    public CheckoutResult checkoutHeldCredit(String idempotencyKey, Cart cart, long creditCents) {
+        return (CheckoutResult) recentCommands().execute("checkoutHeldCredit:" + idempotencyKey,
+                () -> checkoutHeldCredit(cart, creditCents));
     }
+
     /**
-     * Retrieves the current internal balance of the vending machine.
+     * Retrieves the streaming sales statistics of this vending machine, fed by every purchase.
      *
-     * @return The internal balance.
+     * @return The sales analytics.
      */
-    public double getInternalBalance() {
-        return internalBalance;
+    public SalesAnalytics getSalesAnalytics() {
+        return salesAnalytics;
     }
+
     /**
-     * Sets the internal balance of the vending machine.
+     * Retrieves the detector watching the coin and sales streams of this vending machine for fraud and jams.
+     * Sales and stock changes feed it; the front-ends feed it the coins they read.
      *
-     * @param balance The new internal balance.
+     * @return The anomaly detector.
      */
-    public void setInternalBalance(double balance) {
-        internalBalance = balance;
+    public AnomalyDetector getAnomalyDetector() {
+        return anomalyDetector();
     }
 
     /**
-     * Performs a transaction by deducting the required change from the starting balance.
+     * Retrieves the history of stock levels and ledger balances, sampled whenever they change.
+     *
+     * @return The inventory history.
+     */
+    public InventoryHistory getInventoryHistory() {
+        return inventoryHistory;
+    }
+
+    private IdempotencyCache<Object> recentCommands() {
+        IdempotencyCache<Object> cache = recentCommands;
+        if (cache == null) {
+            synchronized (this) {
+                if (recentCommands == null) {
+                    recentCommands = new IdempotencyCache<>(RECENT_COMMAND_LIMIT, RECENT_COMMAND_TTL_MINUTES,
+                            TimeUnit.MINUTES);
+                }
+                cache = recentCommands;
+            }
+        }
+        return cache;
+    }
+
+    private AnomalyDetector anomalyDetector() {
+        AnomalyDetector detector = anomalyDetector;
+        if (detector == null) {
+            synchronized (this) {
+                if (anomalyDetector == null) {
+                    anomalyDetector = new AnomalyDetector();
+                }
+                detector = anomalyDetector;
+            }
+        }
+        return detector;
+    }
+
+    private static void checkQuantity(int quantity) {
+        if (quantity < 0 || quantity > MAX_SLOT_QUANTITY) {
+            throw new IllegalArgumentException("A slot holds 0 to " + MAX_SLOT_QUANTITY + " items, not " + quantity
+                    + ".");
+        }
+    }
+
+    private static short[] toShorts(int[] quantities) {
+        short[] counts = new short[quantities.length];
+        for (int i = 0; i < quantities.length; i++) {
+            checkQuantity(quantities[i]);
+            counts[i] = (short) quantities[i];
+        }
+        return counts;
+    }
+
+    static int[] toInts(short[] counts) {
+        int[] quantities = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            quantities[i] = counts[i];
+        }
+        return quantities;
+    }
+
+    private static String soldSeries(CatalogFile.Section section, int index) {
+        return section == CatalogFile.Section.REGULAR ? InventoryHistory.soldSeries(index)
+                : InventoryHistory.specialPurchaseSoldSeries(index);
+    }
+
+    // For the purchases that take no payment: the analytics get the catalog value of the units, but the detector
+    // gets the revenue posted to the ledger, which is none
+    private void recordSale(CatalogFile.Section section, int index, int quantity) {
+        CatalogSnapshot current = catalog;
+        long revenueCents = InventorySnapshot.toCents(current.getPrice(section, index)) * quantity;
+        long now = System.currentTimeMillis();
+        inventoryHistory.sold(soldSeries(section, index), now, quantity);
+        salesAnalytics.recordSale(current.getName(section, index), quantity, revenueCents, now);
+        anomalyDetector().recordSale(quantity, 0);
+    }
+
+    /**
+     * Captures the synchronizable state of the vending machine for fleet synchronization.
+     * The balances are those of the cash ledger, in the order of {@link CashLedger.Account}.
+     *
+     * @param version The version number to give the snapshot.
+     * @return The snapshot of quantities, prices, special purchase quantities and balances.
+     */
+    public InventorySnapshot captureInventorySnapshot(long version) {
+        return readConsistently(() -> {
+            return new InventorySnapshot(version, toInts(quantities),
+                    InventorySnapshot.toCents(catalog.getPrices(CatalogFile.Section.REGULAR)),
+                    toInts(specialPurchaseQuantities), ledger.getBalances());
+        });
+    }
+
+    /**
+     * Books coins a customer inserted and has not spent yet: they go into the cash box, and the machine owes
+     * the customer their value until it is paid back with {@link #performTransaction(double)}.
+     *
+     * @param amount The amount inserted.
+     */
+    public synchronized void holdCredit(double amount) {
+        long amountCents = InventorySnapshot.toCents(amount);
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("The inserted amount must be positive.");
+        }
+        record(SessionRecorder.Command.HOLD_CREDIT, -1, amountCents);
+        long stamp = beginWrite();
+        try {
+            ledger.newTransaction()
+                    .debit(CashLedger.Account.CASH_BOX, amountCents)
+                    .credit(CashLedger.Account.CUSTOMER_CREDIT, amountCents)
+                    .post();
+            meteredCashCents += amountCents;
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Performs a transaction by paying change owed to the customer out of the change float. Only credit held
+     * with {@link #holdCredit(double)} is owed, so the customer credit never goes negative.
      *
      * @param requiredChange The amount to deduct.
-     * @return True if the transaction is successful, false if insufficient funds.
-     */    
-    public boolean performTransaction(double requiredChange) {
-        if (startingBalance >= requiredChange) {
-            startingBalance -= requiredChange;
+     * @return True if the transaction is successful, false if insufficient funds or less credit is owed.
+     */
+    public synchronized boolean performTransaction(double requiredChange) {
+        long changeCents = InventorySnapshot.toCents(requiredChange);
+        if (ledger.getBalanceCents(CashLedger.Account.CHANGE_FLOAT) >= changeCents
+                && ledger.getBalanceCents(CashLedger.Account.CUSTOMER_CREDIT) >= changeCents) {
+            long stamp = beginWrite();
+            try {
+                ledger.newTransaction()
+                        .debit(CashLedger.Account.CUSTOMER_CREDIT, changeCents)
+                        .credit(CashLedger.Account.CHANGE_FLOAT, changeCents)
+                        .post();
+                meteredCashCents -= changeCents;
+            } finally {
+                endWrite(stamp);
+            }
             return true;
         } else {
             return false;
         }
     }
+
+    /**
+     * Performs a transaction at most once per idempotency key.
+     * A retry with the same key returns the original outcome without deducting the change again.
+     *
+     * @param idempotencyKey The key identifying this transaction attempt.
+     * @param requiredChange The amount to deduct.
+     * @return The outcome of the first transaction with this key.
+     */
+    public boolean performTransaction(String idempotencyKey, double requiredChange) {
+        return (Boolean) recentCommands().execute("performTransaction:" + idempotencyKey,
+                () -> performTransaction(requiredChange));
+    }
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -13,12 +15,18 @@ import java.util.Set;
  * It allows users to interact with the vending machine, purchase items, and perform maintenance tasks.
  */
 public class VendingMachineGUI extends JFrame {
+    private static final int COMBO_SUGGESTIONS = 5;
+
     private VendingMachine vendingMachine;
     private JTextField coinInputField;
     private Set<Integer> validCoinDenominations;
     private double accumulatedAmount;
-    private double internalBalance;
-    private List<String> transactionHistory;
+    private Cart cart;
+    private CatalogListModel regularCatalog;
+    private CatalogListModel specialCatalog;
+    private CatalogListModel specialPurchaseCatalog;
+    private DispenseScheduler dispenser;
+    private ComboRecommender comboRecommender;
 
     /**
      * Constructs a new VendingMachineGUI instance and initializes the GUI components.
@@ -26,23 +34,138 @@ public class VendingMachineGUI extends JFrame {
 
     public VendingMachineGUI() {
         vendingMachine = new VendingMachine();
-        vendingMachine.initializeItems();
+        initializeCatalog();
+        startRecording();
+        startJournal();
+        startDispenser();
+        vendingMachine.getAnomalyDetector().setListener(
+                alert -> vendingMachine.recordTransaction("Anomaly alert: " + alert));
+        regularCatalog = new CatalogListModel(vendingMachine, CatalogListModel.Source.REGULAR);
+        specialCatalog = new CatalogListModel(vendingMachine, CatalogListModel.Source.SPECIAL);
+        specialPurchaseCatalog = new CatalogListModel(vendingMachine, CatalogListModel.Source.SPECIAL_PURCHASE);
         validCoinDenominations = new HashSet<>();
-        validCoinDenominations.add(1);
-        validCoinDenominations.add(5);
-        validCoinDenominations.add(10);
-        validCoinDenominations.add(20);
-        validCoinDenominations.add(50);
-        validCoinDenominations.add(100);
-        validCoinDenominations.add(200); // Add 200 coin denomination
-        validCoinDenominations.add(500); // Add 500 coin denomination
-        validCoinDenominations.add(1000); // Add 1000 coin denomination
-        internalBalance = 200.0;
+        for (int denomination : VendingMachine.COIN_DENOMINATIONS) {
+            validCoinDenominations.add(denomination);
+        }
         accumulatedAmount = 0.0;
-        transactionHistory = new ArrayList<>(); // Initialize transactionHistory
+        cart = new Cart();
+        comboRecommender = new ComboRecommender(vendingMachine);
         createGUI();
     }
 
+    /**
+     * Loads the menu from the compiled catalog named by the {@code vending.catalog} system property,
+     * falling back to the built-in menu if none is given or it cannot be read.
+     */
+    private void initializeCatalog() {
+        String catalogPath = System.getProperty("vending.catalog");
+        if (catalogPath != null) {
+            try {
+                vendingMachine.initializeItems(CatalogFile.open(Paths.get(catalogPath)));
+                return;
+            } catch (IOException | IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(null, "Could not load catalog " + catalogPath + ": " + ex.getMessage()
+                        + "\nUsing the built-in menu.", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        vendingMachine.initializeItems();
+    }
+
+    /**
+     * Records the session to the file named by the {@code vending.recording} system property, if it is set,
+     * until the application exits.
+     */
+    private void startRecording() {
+        String recordingPath = System.getProperty("vending.recording");
+        if (recordingPath == null) {
+            return;
+        }
+        try {
+            SessionRecorder recorder = new SessionRecorder(Paths.get(recordingPath), vendingMachine);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException ex) {
+                    System.err.println("Could not finish recording " + recordingPath + ": " + ex.getMessage());
+                }
+            }));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(null, "Could not record to " + recordingPath + ": " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Journals every sale, refund, restock and price change to the segment directory named by the
+     * {@code vending.journal} system property, if it is set, until the application exits.
+     */
+    private void startJournal() {
+        String journalPath = System.getProperty("vending.journal");
+        if (journalPath == null) {
+            return;
+        }
+        try {
+            JournalSegments segments = new JournalSegments(Paths.get(journalPath));
+            CommandJournal journal = new CommandJournal(segments, true);
+            vendingMachine.setCommandJournal(journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    System.err.println("Could not finish journal " + journalPath + ": " + ex.getMessage());
+                } finally {
+                    segments.close();
+                }
+            }));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(null, "Could not journal to " + journalPath + ": " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Starts dispensing through simulated motors that take the number of milliseconds named by the
+     * {@code vending.dispense.millis} system property to drop an item, or no time if it is not set.
+     */
+    private void startDispenser() {
+        long vendMillis = Math.max(0, Long.getLong("vending.dispense.millis", 0L));
+        dispenser = new DispenseScheduler(new SimulatedDispenseActuator(vendMillis));
+    }
+
+    /**
+     * Hands a paid order to the dispenser and returns at once, so the next customer can pay while it drops.
+     * Units that could not be dispensed are refunded, put back in stock, reported to the customer and logged for
+     * the operator.
+     *
+     * @param order The paid order.
+     * @param sale  The outcome of the checkout that sold it.
+     */
+    private void dispense(Cart order, CheckoutResult sale) {
+        dispenser.dispense(order).thenAccept(delivery -> {
+            if (!delivery.isComplete()) {
+                SwingUtilities.invokeLater(() -> reportUndelivered(delivery.getUndelivered(), sale));
+            }
+        });
+    }
+
+    private void reportUndelivered(Cart undelivered, CheckoutResult sale) {
+        StringBuilder text = new StringBuilder("These items could not be dispensed:\n");
+        for (Cart.Line line : undelivered.getLines()) {
+            text.append(describeCartLine(line)).append("\n");
+            vendingMachine.recordTransaction("Not dispensed: " + describeCartLine(line));
+        }
+        CheckoutResult refund = vendingMachine.refundUndelivered(undelivered, sale);
+        if (refund.isSuccessful()) {
+            text.append("\nRefund: \u20B1").append(refund.getChange());
+            vendingMachine.recordTransaction("Refund paid: \u20B1" + refund.getChange());
+        } else {
+            text.append("\nRefund owed: \u20B1").append(refund.getTotal()).append("\nPlease contact the operator.");
+            vendingMachine.recordTransaction("Refund owed: \u20B1" + refund.getTotal());
+        }
+        JOptionPane.showMessageDialog(this, text.toString(), "Dispense Error", JOptionPane.ERROR_MESSAGE);
+        refreshCatalogs();
+    }
+
     /**
      * Initializes the vending machine GUI and creates the main user interface.
      */
@@ -118,37 +241,16 @@ public class VendingMachineGUI extends JFrame {
         vendingFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         vendingFrame.setLayout(new BorderLayout());
 
-        JPanel vendingPanel = new JPanel();
-        vendingPanel.setLayout(new GridLayout(4, 2));
-
-        String[] items = vendingMachine.getItems();
-        double[] prices = vendingMachine.getPrices();
-        int[] calories = vendingMachine.getCalories();
-        int[] quantities = vendingMachine.getQuantities();
-
-        for (int i = 0; i < items.length; i++) {
-            final int itemIndex = i;
-            String itemName = items[i];
-            double itemPrice = prices[i];
-            int itemCalories = calories[i];
-            int itemQuantity = quantities[i];
-
-            JButton itemButton = new JButton();
-            if (itemQuantity > 0) {
-                itemButton.setText(itemName + " - \u20B1" + itemPrice + " - Calories: " + itemCalories + " - Quantity: "
-                        + itemQuantity);
-                itemButton.addActionListener(new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent e) {
-                        handlePurchase(itemName, itemPrice, itemIndex);
-                    }
-                });
-            } else {
-                itemButton.setEnabled(false); // Disable the button if quantity is zero
-                itemButton.setText("Out of Stock");
+        // Out-of-stock rows are shown disabled and ignore clicks
+        vendingFrame.add(regularCatalog.createView(new CatalogListModel.SelectionHandler() {
+            @Override
+            public void itemSelected(int index, String itemName, double itemPrice) {
+                handlePurchase(itemName, itemPrice, index);
             }
-            vendingPanel.add(itemButton);
-        }
+        }), BorderLayout.CENTER);
+
+        JPanel vendingPanel = new JPanel();
+        vendingPanel.setLayout(new GridLayout(3, 2));
 
         // Add the coin input field
         coinInputField = new JTextField(20);
@@ -181,7 +283,34 @@ public class VendingMachineGUI extends JFrame {
         });
         vendingPanel.add(payButton);
 
-        vendingFrame.add(vendingPanel, BorderLayout.CENTER);
+        JButton addToCartButton = new JButton("Add to Cart");
+        addToCartButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                addToCart(Cart.Kind.REGULAR);
+            }
+        });
+        vendingPanel.add(addToCartButton);
+
+        JButton comboButton = new JButton("Combo Ideas");
+        comboButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                suggestCombos();
+            }
+        });
+        vendingPanel.add(comboButton);
+
+        JButton checkoutCartButton = new JButton("Checkout Cart");
+        checkoutCartButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                checkoutCart();
+            }
+        });
+        vendingPanel.add(checkoutCartButton);
+
+        vendingFrame.add(vendingPanel, BorderLayout.SOUTH);
         vendingFrame.pack();
         vendingFrame.setLocationRelativeTo(null);
         vendingFrame.setVisible(true);
@@ -210,31 +339,25 @@ public class VendingMachineGUI extends JFrame {
 
         if (choice == JOptionPane.YES_OPTION) {
             if (itemIndex != -1) {
-                int itemQuantity = vendingMachine.getQuantities()[itemIndex];
-                if (itemQuantity == 0) {
-                    JOptionPane.showMessageDialog(null, "Item out of stock.", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                double change = accumulatedAmount - requiredAmount;
+                Cart singleItemCart = new Cart();
+                singleItemCart.addItem(itemIndex, 1);
+                CheckoutResult result = vendingMachine.checkout(singleItemCart, accumulatedAmount);
 
-                if (change <= internalBalance) {
-                    vendingMachine.purchaseItem(itemName);
-                    internalBalance -= change;
+                if (result.isSuccessful()) {
+                    dispense(singleItemCart, result);
+                    double change = result.getChange();
                     JOptionPane.showMessageDialog(null, "Item purchased: " + itemName + "\nChange: ₱" + change,
                             "Purchase Successful", JOptionPane.INFORMATION_MESSAGE);
-                    vendingMachine.updateItemQuantity(itemIndex, itemQuantity - 1);
 
                     // Add the purchase to the transaction history
                     String purchaseInfo = "Item purchased: " + itemName + " - Amount paid: ₱" + accumulatedAmount
                             + " - Change: ₱" + change;
-                    transactionHistory.add(purchaseInfo);
+                    vendingMachine.recordTransaction(purchaseInfo);
+                    accumulatedAmount = 0.0;
                 } else {
-                    JOptionPane.showMessageDialog(null, "Insufficient change in the machine.", "Error",
-                            JOptionPane.ERROR_MESSAGE);
+                    // Keep the accumulated amount so the customer can retry or pick another item
+                    JOptionPane.showMessageDialog(null, result.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
-
-                accumulatedAmount = 0.0;
             }
         } else {
             JOptionPane.showMessageDialog(null, "Purchase canceled.", "Purchase Canceled",
@@ -249,30 +372,62 @@ public class VendingMachineGUI extends JFrame {
      * @return The accumulated amount from the inserted coins.
      */    
     private double getAmountPaidFromCoins(JTextField coinInputField) {
-        String coinInput = coinInputField.getText();
+        return getAmountPaidFromCoins(coinInputField.getText(), true);
+    }
+
+    /**
+     * Calculates the total amount of a space-separated list of coins.
+     *
+     * @param coinInput The coins, e.g. "100 20 5".
+     * @param customer  Whether a customer inserted the coins, so they are watched for fraud.
+     * @return The total of the valid coins.
+     */
+    private double getAmountPaidFromCoins(String coinInput, boolean customer) {
         if (coinInput.isEmpty()) {
             return 0.0;
         }
 
+        VendingEvents.CoinInput event = new VendingEvents.CoinInput();
+        event.begin();
         String[] coinTokens = coinInput.split("\\s+");
         double amountPaid = 0.0;
+        int highDenominationCoins = 0;
+        List<String> invalidCoins = new ArrayList<>();
 
         for (String coinToken : coinTokens) {
             try {
                 int coin = Integer.parseInt(coinToken);
                 if (validCoinDenominations.contains(coin)) {
                     amountPaid += coin;
+                    if (coin >= AnomalyDetector.HIGH_DENOMINATION) {
+                        highDenominationCoins++;
+                    }
                 } else {
-                    // Invalid coin denomination entered, show an error message
-                    JOptionPane.showMessageDialog(null, "Invalid coin denomination: " + coin, "Error",
-                            JOptionPane.ERROR_MESSAGE);
+                    invalidCoins.add(String.valueOf(coin));
                 }
             } catch (NumberFormatException ex) {
-                // Handle invalid input (non-numeric coins)
-                JOptionPane.showMessageDialog(null, "Invalid coin denomination: " + coinToken, "Error",
-                        JOptionPane.ERROR_MESSAGE);
+                // Non-numeric coins are reported as typed
+                invalidCoins.add(coinToken);
             }
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.frontEnd = "gui";
+            event.coins = coinTokens.length;
+            event.invalidCoins = invalidCoins.size();
+            event.amountCents = InventorySnapshot.toCents(amountPaid);
+            event.commit();
+        }
+        if (customer) {
+            vendingMachine.getAnomalyDetector().recordCoins(InventorySnapshot.toCents(amountPaid),
+                    highDenominationCoins, invalidCoins.size());
+        }
+
+        // The error dialogs wait for the customer, so they are shown after the parsing is timed
+        for (String invalidCoin : invalidCoins) {
+            JOptionPane.showMessageDialog(null, "Invalid coin denomination: " + invalidCoin, "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
 
         return amountPaid;
     }
@@ -289,12 +444,19 @@ public class VendingMachineGUI extends JFrame {
                 double remainingAmount = itemPrice - accumulatedAmount;
 
                 if (remainingAmount <= 0) {
-                    // Sufficient amount has been paid, deduct the item's quantity
-                    vendingMachine.updateSpecialPurchaseItemQuantity(specialItemIndex, currentQuantity - 1);
+                    // Pay exactly the price; the rest stays as credit for the next component
+                    Cart singleItemCart = new Cart();
+                    singleItemCart.addSpecialPurchaseItem(specialItemIndex, 1);
+                    CheckoutResult result = vendingMachine.checkout(singleItemCart, itemPrice);
+                    if (!result.isSuccessful()) {
+                        JOptionPane.showMessageDialog(null, result.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    dispense(singleItemCart, result);
 
                     // Update transaction history
                     String purchaseInfo = "Special Purchase: " + itemName + " - \u20B1" + itemPrice;
-                    transactionHistory.add(purchaseInfo);
+                    vendingMachine.recordTransaction(purchaseInfo);
 
                     JOptionPane.showMessageDialog(null, "Purchase successful! Enjoy your " + itemName + ".",
                             "Purchase Success", JOptionPane.INFORMATION_MESSAGE);
@@ -313,6 +475,145 @@ public class VendingMachineGUI extends JFrame {
         }
     }
 
+    /**
+     * Lets the customer pick an item and a quantity and adds them to the cart.
+     *
+     * @param kind Whether to offer the regular items or the special purchase items.
+     */
+    private void addToCart(Cart.Kind kind) {
+        String[] itemNames = kind == Cart.Kind.REGULAR ? vendingMachine.getItems()
+                : vendingMachine.getSpecialPurchaseItems();
+
+        String selectedItem = (String) JOptionPane.showInputDialog(
+                this,
+                "Select the item to add to the cart:",
+                "Add to Cart",
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                itemNames,
+                itemNames[0]);
+
+        if (selectedItem != null) {
+            String quantityInput = JOptionPane.showInputDialog(this, "Enter quantity:", "1");
+            if (quantityInput == null) {
+                return;
+            }
+            try {
+                int quantity = Integer.parseInt(quantityInput.trim());
+                if (quantity <= 0) {
+                    JOptionPane.showMessageDialog(this, "Invalid quantity entered. Please enter a valid positive value.",
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                } else if (kind == Cart.Kind.REGULAR) {
+                    cart.addItem(vendingMachine.getItemIndex(selectedItem), quantity);
+                } else {
+                    cart.addSpecialPurchaseItem(vendingMachine.getSpecialPurchaseItemIndex(selectedItem), quantity);
+                }
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid input format. Please enter a valid numeric value.",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid quantity entered. " + ex.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Asks for a calorie budget and a price budget, suggests the in-stock meal and add-on combos that fit both,
+     * and adds the one the customer picks to the cart.
+     */
+    private void suggestCombos() {
+        String calorieInput = JOptionPane.showInputDialog(this, "Enter your calorie budget:", "800");
+        if (calorieInput == null) {
+            return;
+        }
+        String priceInput = JOptionPane.showInputDialog(this, "Enter your price budget:",
+                accumulatedAmount > 0 ? String.valueOf(accumulatedAmount) : "150");
+        if (priceInput == null) {
+            return;
+        }
+        try {
+            int calorieBudget = Integer.parseInt(calorieInput.trim());
+            double priceBudget = Double.parseDouble(priceInput.trim());
+            if (calorieBudget <= 0 || priceBudget <= 0) {
+                JOptionPane.showMessageDialog(this, "Invalid budget entered. Please enter a valid positive value.",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            List<ComboRecommender.Combo> combos = comboRecommender.recommend(calorieBudget, priceBudget,
+                    COMBO_SUGGESTIONS);
+            if (combos.isEmpty()) {
+                JOptionPane.showMessageDialog(this, "No combo in stock fits your budget.", "Combo Ideas",
+                        JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            ComboRecommender.Combo[] choices = combos.toArray(new ComboRecommender.Combo[0]);
+            Object selected = JOptionPane.showInputDialog(this, "Select a combo to add to the cart:", "Combo Ideas",
+                    JOptionPane.PLAIN_MESSAGE, null, choices, choices[0]);
+            if (selected != null) {
+                ((ComboRecommender.Combo) selected).addTo(cart);
+            }
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid input format. Please enter a valid numeric value.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Checks out every item in the cart with a single confirmation and a single change amount.
+     */
+    private void checkoutCart() {
+        if (cart.isEmpty()) {
+            JOptionPane.showMessageDialog(null, "The cart is empty.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        StringBuilder cartText = new StringBuilder("Items in cart:\n");
+        for (Cart.Line line : cart.getLines()) {
+            cartText.append(describeCartLine(line)).append("\n");
+        }
+        cartText.append("\nUse your accumulated amount of \u20B1").append(accumulatedAmount).append("?");
+
+        int choice = JOptionPane.showConfirmDialog(null, cartText.toString(), "Checkout Cart",
+                JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        CheckoutResult result = vendingMachine.checkout(cart, accumulatedAmount);
+        if (result.isSuccessful()) {
+            dispense(cart, result);
+            for (Cart.Line line : cart.getLines()) {
+                vendingMachine.recordTransaction("Cart purchase: " + describeCartLine(line));
+            }
+            vendingMachine.recordTransaction("Cart total: \u20B1" + result.getTotal() + " - Amount paid: \u20B1"
+                    + accumulatedAmount + " - Change: \u20B1" + result.getChange());
+            JOptionPane.showMessageDialog(null, "Total: \u20B1" + result.getTotal() + "\nChange: \u20B1"
+                    + result.getChange(), "Purchase Successful", JOptionPane.INFORMATION_MESSAGE);
+            accumulatedAmount = 0.0;
+            cart.clear();
+            refreshCatalogs();
+        } else {
+            JOptionPane.showMessageDialog(null, result.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Repaints the catalog rows whose price or quantity changed, in every open catalog window.
+     */
+    private void refreshCatalogs() {
+        regularCatalog.refresh();
+        specialCatalog.refresh();
+        specialPurchaseCatalog.refresh();
+    }
+
+    private String describeCartLine(Cart.Line line) {
+        CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                : CatalogFile.Section.SPECIAL_PURCHASE;
+        String itemName = vendingMachine.getCatalog().getName(section, line.getIndex());
+        return line.getQuantity() + " x " + itemName;
+    }
+
     /**
      * Displays the maintenance features for the vending machine.
      */    
@@ -329,6 +630,7 @@ public class VendingMachineGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 vendingMachine.restockAllItems();
+                refreshCatalogs();
                 JOptionPane.showMessageDialog(null, "All items restocked.", "Maintenance",
                         JOptionPane.INFORMATION_MESSAGE);
             }
@@ -389,14 +691,8 @@ public class VendingMachineGUI extends JFrame {
      * Prints a summary of transaction history to a dialog box.
      */
     private void printTransactionSummary() {
-        StringBuilder summaryText = new StringBuilder("Transaction Summary:\n\n");
-
-        for (String purchaseInfo : transactionHistory) {
-            summaryText.append(purchaseInfo).append("\n");
-        }
-
         JTextArea textArea = new JTextArea(15, 40);
-        textArea.setText(summaryText.toString());
+        textArea.setText(TransactionSummary.forRegular(vendingMachine));
         textArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(textArea);
 
@@ -431,7 +727,6 @@ public class VendingMachineGUI extends JFrame {
 
         if (selectedItem != null) {
             int itemIndex = vendingMachine.getItemIndex(selectedItem);
-            int currentQuantity = vendingMachine.getQuantities()[itemIndex];
             int defaultQuantity = 10; // Set the default quantity here
 
             // Show a dialog to enter the quantity
@@ -458,15 +753,15 @@ public class VendingMachineGUI extends JFrame {
                                 "Error",
                                 JOptionPane.ERROR_MESSAGE);
                     } else {
-                        int totalQuantity = currentQuantity + additionalQuantity;
-                        if (totalQuantity > defaultQuantity) {
+                        if (vendingMachine.addStock(Cart.Kind.REGULAR, itemIndex, additionalQuantity,
+                                defaultQuantity) < 0) {
                             JOptionPane.showMessageDialog(
                                     this,
                                     "Total quantity cannot exceed the default quantity (" + defaultQuantity + ").",
                                     "Error",
                                     JOptionPane.ERROR_MESSAGE);
                         } else {
-                            vendingMachine.updateItemQuantity(itemIndex, totalQuantity);
+                            refreshCatalogs();
                             JOptionPane.showMessageDialog(
                                     this,
                                     "Item '" + selectedItem + "' has been restocked with an additional quantity of "
@@ -535,7 +830,8 @@ public class VendingMachineGUI extends JFrame {
                                 "Error",
                                 JOptionPane.ERROR_MESSAGE);
                     } else {
-                        vendingMachine.getPrices()[itemIndex] = newPrice;
+                        vendingMachine.updateItemPrice(itemIndex, newPrice);
+                        refreshCatalogs();
                         JOptionPane.showMessageDialog(
                                 this,
                                 "Price of item '" + selectedItem + "' has been set to ₱" + newPrice,
@@ -594,32 +890,12 @@ public class VendingMachineGUI extends JFrame {
         specialItemsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         specialItemsFrame.setLayout(new BorderLayout());
 
-        JPanel specialItemsPanel = new JPanel();
-        specialItemsPanel.setLayout(new GridLayout(3, 3)); // Adjust the number of columns based on your preference
-
-        String[] specialItems = vendingMachine.getSpecialItems();
-        double[] specialPrices = vendingMachine.getSpecialPrices();
-        int[] specialCalories = vendingMachine.getCalories(); // Get special item calories
-        int[] specialQuantities = vendingMachine.getQuantities(); // Get special item quantities
-
-        for (int i = 0; i < specialItems.length; i++) {
-            String itemName = specialItems[i];
-            double itemPrice = specialPrices[i];
-            int itemCalories = specialCalories[i];
-            int itemQuantity = specialQuantities[i];
-
-            JButton itemButton = new JButton(itemName + " - \u20B1" + itemPrice + " - Calories: " + itemCalories
-                    + " - Quantity: " + itemQuantity);
-            itemButton.addActionListener(new ActionListener() {
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    handleSpecialPurchase(itemName, itemPrice);
-                }
-            });
-            specialItemsPanel.add(itemButton);
-        }
-
-        specialItemsFrame.add(specialItemsPanel, BorderLayout.CENTER);
+        specialItemsFrame.add(specialCatalog.createView(new CatalogListModel.SelectionHandler() {
+            @Override
+            public void itemSelected(int index, String itemName, double itemPrice) {
+                handleSpecialPurchase(itemName, itemPrice);
+            }
+        }), BorderLayout.CENTER);
         specialItemsFrame.pack();
         specialItemsFrame.setLocationRelativeTo(null);
         specialItemsFrame.setVisible(true);
@@ -639,34 +915,16 @@ public class VendingMachineGUI extends JFrame {
             specialPurchaseFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
             specialPurchaseFrame.setLayout(new BorderLayout());
 
+            specialPurchaseFrame.add(specialPurchaseCatalog.createView(new CatalogListModel.SelectionHandler() {
+                @Override
+                public void itemSelected(int index, String purchaseItemName, double purchaseItemPrice) {
+                    // Handle the purchase of special purchase items here
+                    handleSpecialItemPurchase(purchaseItemName, purchaseItemPrice);
+                }
+            }), BorderLayout.CENTER);
+
             JPanel specialPurchasePanel = new JPanel();
-            specialPurchasePanel.setLayout(new GridLayout(3, 3)); // Adjust the number of columns based on your
-                                                                  // preference
-
-            String[] specialPurchaseItems = vendingMachine.getSpecialPurchaseItems();
-            double[] specialPurchasePrices = vendingMachine.getSpecialPurchasePrices();
-            int[] specialPurchaseCalories = vendingMachine.getSpecialPurchaseCalories(); // Get special purchase item
-                                                                                         // calories
-            int[] specialPurchaseQuantities = vendingMachine.getSpecialPurchaseQuantities(); // Get special purchase
-                                                                                             // item quantities
-
-            for (int i = 0; i < specialPurchaseItems.length; i++) {
-                String purchaseItemName = specialPurchaseItems[i];
-                double purchaseItemPrice = specialPurchasePrices[i];
-                int purchaseItemCalories = specialPurchaseCalories[i];
-                int purchaseItemQuantity = specialPurchaseQuantities[i];
-
-                JButton purchaseItemButton = new JButton(purchaseItemName + " - \u20B1" + purchaseItemPrice
-                        + " - Calories: " + purchaseItemCalories + " - Quantity: " + purchaseItemQuantity);
-                purchaseItemButton.addActionListener(new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent e) {
-                        // Handle the purchase of special purchase items here
-                        handleSpecialItemPurchase(purchaseItemName, purchaseItemPrice);
-                    }
-                });
-                specialPurchasePanel.add(purchaseItemButton);
-            }
+            specialPurchasePanel.setLayout(new GridLayout(3, 2));
 
             // Add the coin input field and insert coin button for special purchase
             JTextField coinInputField = new JTextField(20);
@@ -700,7 +958,25 @@ public class VendingMachineGUI extends JFrame {
             });
             specialPurchasePanel.add(accumulatedAmountButton);
 
-            specialPurchaseFrame.add(specialPurchasePanel, BorderLayout.CENTER);
+            JButton addToCartButton = new JButton("Add to Cart");
+            addToCartButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    addToCart(Cart.Kind.SPECIAL_PURCHASE);
+                }
+            });
+            specialPurchasePanel.add(addToCartButton);
+
+            JButton checkoutCartButton = new JButton("Checkout Cart");
+            checkoutCartButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    checkoutCart();
+                }
+            });
+            specialPurchasePanel.add(checkoutCartButton);
+
+            specialPurchaseFrame.add(specialPurchasePanel, BorderLayout.SOUTH);
             specialPurchaseFrame.pack();
             specialPurchaseFrame.setLocationRelativeTo(null);
             specialPurchaseFrame.setVisible(true);
@@ -724,6 +1000,7 @@ public class VendingMachineGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 vendingMachine.restockSpecialItems(); // Call the restockSpecialItems method
+                refreshCatalogs();
                 JOptionPane.showMessageDialog(null, "Special items restocked.", "Special Maintenance",
                         JOptionPane.INFORMATION_MESSAGE);
             }
@@ -798,7 +1075,6 @@ public class VendingMachineGUI extends JFrame {
 
         if (selectedItem != null) {
             int specialItemIndex = vendingMachine.getSpecialPurchaseItemIndex(selectedItem);
-            int currentQuantity = vendingMachine.getSpecialPurchaseQuantities()[specialItemIndex];
             int defaultQuantity = 10; // Set the default quantity here
 
             JTextField quantityField = new JTextField(5);
@@ -824,15 +1100,15 @@ public class VendingMachineGUI extends JFrame {
                                 "Error",
                                 JOptionPane.ERROR_MESSAGE);
                     } else {
-                        int totalQuantity = currentQuantity + additionalQuantity;
-                        if (totalQuantity > defaultQuantity) {
+                        if (vendingMachine.addStock(Cart.Kind.SPECIAL_PURCHASE, specialItemIndex,
+                                additionalQuantity, defaultQuantity) < 0) {
                             JOptionPane.showMessageDialog(
                                     null,
                                     "Total quantity cannot exceed the default quantity (" + defaultQuantity + ").",
                                     "Error",
                                     JOptionPane.ERROR_MESSAGE);
                         } else {
-                            vendingMachine.updateSpecialPurchaseItemQuantity(specialItemIndex, totalQuantity);
+                            refreshCatalogs();
                             JOptionPane.showMessageDialog(
                                     null,
                                     "Special item '" + selectedItem
@@ -858,14 +1134,8 @@ public class VendingMachineGUI extends JFrame {
      * The summary includes purchase information and other relevant details.
      */
     private void printTransactionSummaryForSpecial() {
-        StringBuilder summaryText = new StringBuilder("Special Transaction Summary:\n\n");
-
-        for (String purchaseInfo : transactionHistory) {
-            summaryText.append(purchaseInfo).append("\n");
-        }
-
         JTextArea textArea = new JTextArea(15, 40);
-        textArea.setText(summaryText.toString());
+        textArea.setText(TransactionSummary.forSpecial(vendingMachine));
         textArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(textArea);
 
@@ -906,6 +1176,7 @@ public class VendingMachineGUI extends JFrame {
                     try {
                         double newPrice = Double.parseDouble(newPriceInput);
                         vendingMachine.updateSpecialPurchaseItemPrice(specialItemIndex, newPrice);
+                        refreshCatalogs();
                         JOptionPane.showMessageDialog(null, "Price for " + selectedItem + " updated.",
                                 "Special Maintenance", JOptionPane.INFORMATION_MESSAGE);
                     } catch (NumberFormatException ex) {
@@ -919,19 +1190,22 @@ public class VendingMachineGUI extends JFrame {
         }
     }
     /**
-     * Replenishes the internal balance of the vending machine by adding money.
-     * The replenished amount is calculated based on logic specific to the coin denominations.
-     * If the replenished amount is greater than 0, the internal balance is updated.
-     * @see #internalBalance
+     * Replenishes the change float of the vending machine by adding money.
+     * The replenished amount is entered as coins; if it is greater than 0, it is posted to the cash ledger.
      */
 
     private void replenishMoney() {
-        // Implement logic to replenish money for different coin denominations here
+        String input = JOptionPane.showInputDialog(null,
+                "Enter the coins to add to the change float (e.g. 100 100 50):", "Money Replenishment",
+                JOptionPane.QUESTION_MESSAGE);
+        if (input == null) {
+            return;
+        }
 
-        int replenishedAmount = 0; // Implement logic to calculate replenished amount
+        double replenishedAmount = getAmountPaidFromCoins(input.trim(), false);
 
         if (replenishedAmount > 0) {
-            internalBalance += replenishedAmount; // Update the internal balance
+            vendingMachine.replenishChange(replenishedAmount); // Update the change float
             JOptionPane.showMessageDialog(
                     null,
                     "Replenished amount: ₱" + replenishedAmount,
@@ -946,19 +1220,14 @@ public class VendingMachineGUI extends JFrame {
         }
     }
     /**
-     * Collects payment from the vending machine, updating the internal balance.
-     * The collected amount is calculated based on logic specific to payment collection.
-     * If the collected amount is greater than 0, the internal balance is updated and accumulated amount is reset.
-     * @see #internalBalance
-     * @see #accumulatedAmount
+     * Collects payment from the vending machine by emptying the cash box.
+     * If the collected amount is greater than 0, it is shown to the operator.
      */
 
     private void collectPayment() {
-        double collectedAmount = 0.0; // Implement logic to collect payments here
+        double collectedAmount = vendingMachine.collectCash();
 
         if (collectedAmount > 0) {
-            internalBalance += collectedAmount; // Update the internal balance
-            accumulatedAmount = 0.0; // Reset accumulated amount
             JOptionPane.showMessageDialog(
                     null,
                     "Collected amount: ₱" + collectedAmount,
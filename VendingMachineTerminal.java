@@ -0,0 +1,639 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A text front-end for the vending machine, for kiosks that run without a display. It offers the same flows as
+ * {@link VendingMachineGUI}: regular and special vending, and both maintenance menus. It uses no AWT or Swing
+ * classes, so it runs with {@code -Djava.awt.headless=true}.
+ *
+ * <p>Every answer is read as one line, so a session can be scripted by feeding the answers from a file or a
+ * string; at the end of the input the terminal exits as if every menu was left.
+ */
+public class VendingMachineTerminal {
+    private static final int DEFAULT_QUANTITY = 10;
+
+    private final VendingMachine vendingMachine;
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final boolean echo;
+    private final Cart cart;
+    private double accumulatedAmount;
+
+    /**
+     * Constructs a new terminal.
+     *
+     * @param vendingMachine The vending machine to operate.
+     * @param in             Where the answers are read from.
+     * @param out            Where the menus and messages are written to.
+     * @param echo           Whether to write each answer after its prompt, so a scripted session reads like
+     *                       an interactive one.
+     */
+    public VendingMachineTerminal(VendingMachine vendingMachine, Reader in, Writer out, boolean echo) {
+        this.vendingMachine = vendingMachine;
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        this.out = new PrintWriter(out, true);
+        this.echo = echo;
+        this.cart = new Cart();
+        this.accumulatedAmount = 0.0;
+    }
+
+    /**
+     * Runs the main menu until the user exits or the input ends.
+     *
+     * @throws IOException If the input cannot be read.
+     */
+    public void run() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Vending Machine");
+            out.println("1. Regular");
+            out.println("2. Special");
+            out.println("0. Exit");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                displayRegularVendingFeatures();
+            } else if (choice.equals("2")) {
+                displaySpecialVendingFeatures();
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displayRegularVendingFeatures() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Regular Vending Machine Features");
+            out.println("1. Vending Features");
+            out.println("2. Maintenance Features");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                displayVendingFeatures();
+            } else if (choice.equals("2")) {
+                displayMaintenanceFeatures();
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displayVendingFeatures() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Vending Features");
+            printItems(CatalogFile.Section.REGULAR, vendingMachine.getQuantities());
+            out.println("1. Insert Coin");
+            out.println("2. Accumulated Money");
+            out.println("3. Buy Item");
+            out.println("4. Add to Cart");
+            out.println("5. Checkout Cart");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                insertCoins();
+            } else if (choice.equals("2")) {
+                showAccumulatedAmount();
+            } else if (choice.equals("3")) {
+                handlePurchase();
+            } else if (choice.equals("4")) {
+                addToCart(Cart.Kind.REGULAR);
+            } else if (choice.equals("5")) {
+                checkoutCart();
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displayMaintenanceFeatures() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Maintenance Features");
+            out.println("1. Restock Items");
+            out.println("2. Stock Specific Items");
+            out.println("3. Set Price of Item");
+            out.println("4. Collect Payment/Money");
+            out.println("5. Replenish Money");
+            out.println("6. Print Transaction Summary");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                vendingMachine.restockAllItems();
+                out.println("All items restocked.");
+            } else if (choice.equals("2")) {
+                stockSpecificItem(CatalogFile.Section.REGULAR);
+            } else if (choice.equals("3")) {
+                setPrice(CatalogFile.Section.REGULAR);
+            } else if (choice.equals("4")) {
+                collectPayment();
+            } else if (choice.equals("5")) {
+                replenishMoney();
+            } else if (choice.equals("6")) {
+                out.println(TransactionSummary.forRegular(vendingMachine));
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displaySpecialVendingFeatures() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Special Vending Features");
+            out.println("1. Special Vending Features");
+            out.println("2. Special Maintenance Features");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                displaySpecialItems();
+            } else if (choice.equals("2")) {
+                displaySpecialMaintenanceFeatures();
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displaySpecialItems() throws IOException {
+        out.println();
+        out.println("Special Items");
+        printItems(CatalogFile.Section.SPECIAL, null);
+        int index = readItemIndex(CatalogFile.Section.SPECIAL, "Choose a special item");
+        if (index < 0) {
+            return;
+        }
+        out.println("Building " + vendingMachine.getCatalog().getName(CatalogFile.Section.SPECIAL, index) + ".");
+
+        while (true) {
+            out.println();
+            out.println("Special Purchase Items");
+            printItems(CatalogFile.Section.SPECIAL_PURCHASE, vendingMachine.getSpecialPurchaseQuantities());
+            out.println("1. Insert Coin");
+            out.println("2. Accumulated Money");
+            out.println("3. Buy Item");
+            out.println("4. Add to Cart");
+            out.println("5. Checkout Cart");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                insertCoins();
+            } else if (choice.equals("2")) {
+                showAccumulatedAmount();
+            } else if (choice.equals("3")) {
+                handleSpecialItemPurchase();
+            } else if (choice.equals("4")) {
+                addToCart(Cart.Kind.SPECIAL_PURCHASE);
+            } else if (choice.equals("5")) {
+                checkoutCart();
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void displaySpecialMaintenanceFeatures() throws IOException {
+        while (true) {
+            out.println();
+            out.println("Special Maintenance Features");
+            out.println("1. Restock Special Items");
+            out.println("2. Stock Specific Special Items");
+            out.println("3. Set Price of Special Item");
+            out.println("4. Collect Payment/Money");
+            out.println("5. Replenish Money");
+            out.println("6. Print Transaction Summary for Special Vending");
+            out.println("0. Back");
+            String choice = prompt("Choose an option");
+            if (choice == null || choice.equals("0")) {
+                return;
+            } else if (choice.equals("1")) {
+                vendingMachine.restockSpecialItems();
+                out.println("Special items restocked.");
+            } else if (choice.equals("2")) {
+                stockSpecificItem(CatalogFile.Section.SPECIAL_PURCHASE);
+            } else if (choice.equals("3")) {
+                setPrice(CatalogFile.Section.SPECIAL_PURCHASE);
+            } else if (choice.equals("4")) {
+                collectPayment();
+            } else if (choice.equals("5")) {
+                replenishMoney();
+            } else if (choice.equals("6")) {
+                out.println(TransactionSummary.forSpecial(vendingMachine));
+            } else {
+                error("Invalid option.");
+            }
+        }
+    }
+
+    private void insertCoins() throws IOException {
+        String input = prompt("Enter Coins (1, 5, 10, 20, 50, 100, 200, 500, 1000)");
+        if (input == null) {
+            return;
+        }
+        double coinAmount = getAmountFromCoins(input, true);
+        accumulatedAmount += coinAmount;
+        out.println("Amount inserted: \u20B1" + coinAmount);
+    }
+
+    private void showAccumulatedAmount() {
+        if (accumulatedAmount > 0) {
+            out.println("Accumulated amount: \u20B1" + accumulatedAmount);
+        } else {
+            error("Please insert coins before clicking Pay.");
+        }
+    }
+
+    /**
+     * Buys one regular item with the accumulated amount and returns the change.
+     */
+    private void handlePurchase() throws IOException {
+        int index = readItemIndex(CatalogFile.Section.REGULAR, "Choose an item");
+        if (index < 0) {
+            return;
+        }
+        String itemName = vendingMachine.getCatalog().getName(CatalogFile.Section.REGULAR, index);
+        if (accumulatedAmount < vendingMachine.getCatalog().getPrice(CatalogFile.Section.REGULAR, index)) {
+            error("Please insert the required amount before purchasing.");
+            return;
+        }
+
+        Cart singleItemCart = new Cart();
+        singleItemCart.addItem(index, 1);
+        CheckoutResult result = vendingMachine.checkout(singleItemCart, accumulatedAmount);
+        if (result.isSuccessful()) {
+            out.println("Item purchased: " + itemName + " - Change: \u20B1" + result.getChange());
+            vendingMachine.recordTransaction("Item purchased: " + itemName + " - Amount paid: \u20B1"
+                    + accumulatedAmount + " - Change: \u20B1" + result.getChange());
+            accumulatedAmount = 0.0;
+        } else {
+            // Keep the accumulated amount so the customer can retry or pick another item
+            error(result.getMessage());
+        }
+    }
+
+    /**
+     * Buys one special purchase item at its exact price; the rest of the accumulated amount stays as credit
+     * for the next component.
+     */
+    private void handleSpecialItemPurchase() throws IOException {
+        int index = readItemIndex(CatalogFile.Section.SPECIAL_PURCHASE, "Choose an item");
+        if (index < 0) {
+            return;
+        }
+        String itemName = vendingMachine.getCatalog().getName(CatalogFile.Section.SPECIAL_PURCHASE, index);
+        double itemPrice = vendingMachine.getCatalog().getPrice(CatalogFile.Section.SPECIAL_PURCHASE, index);
+        double remainingAmount = itemPrice - accumulatedAmount;
+        if (remainingAmount > 0) {
+            error("Please insert more coins. Amount remaining: \u20B1" + remainingAmount);
+            return;
+        }
+
+        Cart singleItemCart = new Cart();
+        singleItemCart.addSpecialPurchaseItem(index, 1);
+        CheckoutResult result = vendingMachine.checkout(singleItemCart, itemPrice);
+        if (result.isSuccessful()) {
+            vendingMachine.recordTransaction("Special Purchase: " + itemName + " - \u20B1" + itemPrice);
+            out.println("Purchase successful! Enjoy your " + itemName + ".");
+            accumulatedAmount = -remainingAmount;
+        } else {
+            error(result.getMessage());
+        }
+    }
+
+    private void addToCart(Cart.Kind kind) throws IOException {
+        CatalogFile.Section section = kind == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                : CatalogFile.Section.SPECIAL_PURCHASE;
+        int index = readItemIndex(section, "Select the item to add to the cart");
+        if (index < 0) {
+            return;
+        }
+        int quantity = readPositiveInt("Enter quantity");
+        if (quantity <= 0) {
+            return;
+        }
+        try {
+            if (kind == Cart.Kind.REGULAR) {
+                cart.addItem(index, quantity);
+            } else {
+                cart.addSpecialPurchaseItem(index, quantity);
+            }
+        } catch (IllegalArgumentException ex) {
+            error("Invalid quantity entered. " + ex.getMessage());
+            return;
+        }
+        out.println("Added " + quantity + " x " + vendingMachine.getCatalog().getName(section, index)
+                + " to the cart.");
+    }
+
+    private void checkoutCart() {
+        if (cart.isEmpty()) {
+            error("The cart is empty.");
+            return;
+        }
+
+        CheckoutResult result = vendingMachine.checkout(cart, accumulatedAmount);
+        if (result.isSuccessful()) {
+            for (Cart.Line line : cart.getLines()) {
+                vendingMachine.recordTransaction("Cart purchase: " + describeCartLine(line));
+            }
+            vendingMachine.recordTransaction("Cart total: \u20B1" + result.getTotal() + " - Amount paid: \u20B1"
+                    + accumulatedAmount + " - Change: \u20B1" + result.getChange());
+            out.println("Total: \u20B1" + result.getTotal() + " - Change: \u20B1" + result.getChange());
+            accumulatedAmount = 0.0;
+            cart.clear();
+        } else {
+            error(result.getMessage());
+        }
+    }
+
+    private String describeCartLine(Cart.Line line) {
+        CatalogFile.Section section = line.getKind() == Cart.Kind.REGULAR ? CatalogFile.Section.REGULAR
+                : CatalogFile.Section.SPECIAL_PURCHASE;
+        return line.getQuantity() + " x " + vendingMachine.getCatalog().getName(section, line.getIndex());
+    }
+
+    private void stockSpecificItem(CatalogFile.Section section) throws IOException {
+        int index = readItemIndex(section, "Select the item to stock");
+        if (index < 0) {
+            return;
+        }
+        int additionalQuantity = readPositiveInt("Enter quantity");
+        if (additionalQuantity <= 0) {
+            return;
+        }
+        Cart.Kind kind = section == CatalogFile.Section.REGULAR ? Cart.Kind.REGULAR : Cart.Kind.SPECIAL_PURCHASE;
+        if (vendingMachine.addStock(kind, index, additionalQuantity, DEFAULT_QUANTITY) < 0) {
+            error("Total quantity cannot exceed the default quantity (" + DEFAULT_QUANTITY + ").");
+        } else {
+            out.println("Item '" + vendingMachine.getCatalog().getName(section, index)
+                    + "' has been restocked with an additional quantity of " + additionalQuantity);
+        }
+    }
+
+    private void setPrice(CatalogFile.Section section) throws IOException {
+        int index = readItemIndex(section, "Select the item to set the price");
+        if (index < 0) {
+            return;
+        }
+        String input = prompt("Enter new price");
+        if (input == null) {
+            return;
+        }
+        try {
+            double newPrice = Double.parseDouble(input);
+            if (newPrice <= 0) {
+                error("Invalid price entered. Please enter a valid positive value.");
+            } else {
+                if (section == CatalogFile.Section.REGULAR) {
+                    vendingMachine.updateItemPrice(index, newPrice);
+                } else {
+                    vendingMachine.updateSpecialPurchaseItemPrice(index, newPrice);
+                }
+                out.println("Price of item '" + vendingMachine.getCatalog().getName(section, index)
+                        + "' has been set to \u20B1" + newPrice);
+            }
+        } catch (NumberFormatException ex) {
+            error("Invalid input format. Please enter a valid numeric value.");
+        }
+    }
+
+    private void collectPayment() {
+        double collectedAmount = vendingMachine.collectCash();
+        if (collectedAmount > 0) {
+            out.println("Collected amount: \u20B1" + collectedAmount);
+        } else {
+            out.println("No payments collected.");
+        }
+    }
+
+    private void replenishMoney() throws IOException {
+        String input = prompt("Enter the coins to add to the change float (e.g. 100 100 50)");
+        if (input == null) {
+            return;
+        }
+        double replenishedAmount = getAmountFromCoins(input, false);
+        if (replenishedAmount > 0) {
+            vendingMachine.replenishChange(replenishedAmount);
+            out.println("Replenished amount: \u20B1" + replenishedAmount);
+        } else {
+            out.println("No money replenished.");
+        }
+    }
+
+    /**
+     * Lists the items of a section with their numbers, prices, calories and, if given, quantities.
+     */
+    private void printItems(CatalogFile.Section section, int[] quantities) {
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+        CatalogFile.Section caloriesSection = section == CatalogFile.Section.SPECIAL ? CatalogFile.Section.REGULAR
+                : section;
+        for (int i = 0; i < catalog.size(section); i++) {
+            String name = catalog.getName(section, i);
+            if (name == null) {
+                continue;
+            }
+            StringBuilder row = new StringBuilder();
+            row.append(String.format("  [%d] %-14s \u20B1%-8s %4d cal", i + 1, name, catalog.getPrice(section, i),
+                    catalog.getCalories(caloriesSection, i)));
+            if (quantities != null) {
+                row.append(quantities[i] > 0 ? "  (" + quantities[i] + " left)" : "  (sold out)");
+            }
+            out.println(row);
+        }
+    }
+
+    /**
+     * Reads an item by its number or name.
+     *
+     * @return The item index, or -1 if the input ended or does not name an item.
+     */
+    private int readItemIndex(CatalogFile.Section section, String message) throws IOException {
+        String input = prompt(message);
+        if (input == null) {
+            return -1;
+        }
+        CatalogSnapshot catalog = vendingMachine.getCatalog();
+        int index;
+        try {
+            index = Integer.parseInt(input) - 1;
+        } catch (NumberFormatException ex) {
+            index = catalog.indexOf(section, input);
+        }
+        if (index < 0 || index >= catalog.size(section) || catalog.getName(section, index) == null) {
+            error("Item not found.");
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Reads a positive whole number.
+     *
+     * @return The number, or 0 if the input ended or is not a positive number.
+     */
+    private int readPositiveInt(String message) throws IOException {
+        String input = prompt(message);
+        if (input == null) {
+            return 0;
+        }
+        try {
+            int value = Integer.parseInt(input);
+            if (value <= 0) {
+                error("Invalid quantity entered. Please enter a valid positive value.");
+                return 0;
+            }
+            return value;
+        } catch (NumberFormatException ex) {
+            error("Invalid input format. Please enter a valid numeric value.");
+            return 0;
+        }
+    }
+
+    private double getAmountFromCoins(String coinInput, boolean customer) {
+        VendingEvents.CoinInput event = new VendingEvents.CoinInput();
+        event.begin();
+        double amount = 0.0;
+        int coins = 0;
+        int highDenominationCoins = 0;
+        int invalidCoins = 0;
+        for (String coinToken : coinInput.trim().split("\\s+")) {
+            if (coinToken.isEmpty()) {
+                continue;
+            }
+            coins++;
+            try {
+                int coin = Integer.parseInt(coinToken);
+                if (VendingMachine.isValidCoinDenomination(coin)) {
+                    amount += coin;
+                    if (coin >= AnomalyDetector.HIGH_DENOMINATION) {
+                        highDenominationCoins++;
+                    }
+                } else {
+                    invalidCoins++;
+                    error("Invalid coin denomination: " + coin);
+                }
+            } catch (NumberFormatException ex) {
+                invalidCoins++;
+                error("Invalid coin denomination: " + coinToken);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.frontEnd = "terminal";
+            event.coins = coins;
+            event.invalidCoins = invalidCoins;
+            event.amountCents = InventorySnapshot.toCents(amount);
+            event.commit();
+        }
+        if (customer) {
+            vendingMachine.getAnomalyDetector().recordCoins(InventorySnapshot.toCents(amount), highDenominationCoins,
+                    invalidCoins);
+        }
+        return amount;
+    }
+
+    /**
+     * Writes a prompt and reads the answer.
+     *
+     * @return The trimmed answer, or null at the end of the input.
+     */
+    private String prompt(String message) throws IOException {
+        out.print(message + ": ");
+        String line = in.readLine();
+        if (line == null) {
+            out.println();
+            return null;
+        }
+        line = line.trim();
+        if (echo) {
+            out.println(line);
+        }
+        out.flush();
+        return line;
+    }
+
+    private void error(String message) {
+        out.println("Error: " + message);
+    }
+
+    /**
+     * Starts the terminal on the console. With a file argument, the answers are read from that script instead.
+     * The menu is loaded like in the GUI, from the {@code vending.catalog} system property if it is set, the
+     * session is recorded to the file named by the {@code vending.recording} system property if it is set, and
+     * journaled to the segment directory named by the {@code vending.journal} system property if it is set.
+     *
+     * @param args An optional script file.
+     * @throws IOException If the script or the console cannot be read, or the recording or the journal cannot be
+     *                     written.
+     */
+    public static void main(String[] args) throws IOException {
+        VendingMachine vendingMachine = new VendingMachine();
+        String catalogPath = System.getProperty("vending.catalog");
+        boolean loaded = false;
+        if (catalogPath != null) {
+            try {
+                vendingMachine.initializeItems(CatalogFile.open(Paths.get(catalogPath)));
+                loaded = true;
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Could not load catalog " + catalogPath + ": " + ex.getMessage()
+                        + ". Using the built-in menu.");
+            }
+        }
+        if (!loaded) {
+            vendingMachine.initializeItems();
+        }
+        String recordingPath = System.getProperty("vending.recording");
+        SessionRecorder recorder = recordingPath == null ? null
+                : new SessionRecorder(Paths.get(recordingPath), vendingMachine);
+        String journalPath = System.getProperty("vending.journal");
+        JournalSegments segments = journalPath == null ? null : new JournalSegments(Paths.get(journalPath));
+        CommandJournal journal = segments == null ? null : new CommandJournal(segments, true);
+        vendingMachine.setCommandJournal(journal);
+
+        Writer console = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        try {
+            if (args.length > 0) {
+                try (Reader script = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+                    new VendingMachineTerminal(vendingMachine, script, console, true).run();
+                }
+            } else {
+                new VendingMachineTerminal(vendingMachine, new InputStreamReader(System.in, StandardCharsets.UTF_8),
+                        console, false).run();
+            }
+        } finally {
+            try {
+                if (recorder != null) {
+                    recorder.close();
+                }
+            } finally {
+                if (journal != null) {
+                    try {
+                        journal.close();
+                    } finally {
+                        segments.close();
+                    }
+                }
+            }
+        }
+    }
+}